@@ -3,10 +3,35 @@ package zendo.games.physics;
 public class Config {
     public static final int width = 1280;
     public static final int height = 720;
+    public static class Pools {
+        public static int warmUpCrates = 64;
+        public static int warmUpShots = 32;
+        public static int maxFreeBodies = 256;
+        // entities and poolable components, per type
+        public static int initialEntities = 256;
+        public static int maxFreeEntities = 4096;
+    }
+    public static class Streaming {
+        public static boolean enabled = true;
+        // in tiles along each side
+        public static int chunkSize = 16;
+        // in chunks from the chunk a focus point is in
+        public static int loadRadius = 2;
+        public static int unloadRadius = 3;
+        public static int tilesPerFrame = 64;
+    }
+    public static class Scheduler {
+        // run systems through the dependency graph scheduler rather than one after another
+        public static boolean enabled = false;
+        // let systems that don't need the render thread run on worker threads
+        public static boolean parallel = true;
+    }
     public static class Debug {
         public static boolean general = false;
         public static boolean shaders = false;
         public static boolean wireframe = false;
         public static boolean physics = false;
+        public static boolean metrics = false;
+        public static boolean hud = false;
     }
 }
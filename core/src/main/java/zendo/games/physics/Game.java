@@ -4,7 +4,6 @@ import aurelienribon.tweenengine.Timeline;
 import aurelienribon.tweenengine.Tween;
 import aurelienribon.tweenengine.TweenManager;
 import aurelienribon.tweenengine.equations.Linear;
-import com.badlogic.ashley.core.Engine;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
@@ -16,6 +15,7 @@ import com.badlogic.gdx.physics.bullet.Bullet;
 import com.badlogic.gdx.physics.bullet.linearmath.LinearMath;
 import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.ScreenUtils;
+import zendo.games.physics.scene.PooledGameEngine;
 import zendo.games.physics.screens.BaseScreen;
 import zendo.games.physics.screens.EditorScreen;
 import zendo.games.physics.utils.ScreenTransition;
@@ -27,7 +27,7 @@ public class Game extends ApplicationAdapter {
     public static Game instance;
 
     public Assets assets;
-    public Engine engine;
+    public PooledGameEngine engine;
     public TweenManager tween;
 
     private OrthographicCamera camera;
@@ -53,7 +53,7 @@ public class Game extends ApplicationAdapter {
         Gdx.app.log(Bullet.class.getSimpleName(), "version " + LinearMath.btGetVersion());
 
         assets = new Assets();
-        engine = new Engine();
+        engine = new PooledGameEngine(Config.Pools.initialEntities, Config.Pools.maxFreeEntities);
         tween = new TweenManager();
         Tween.setWaypointsLimit(4);
         Tween.setCombinedAttributesLimit(4);
@@ -75,6 +75,7 @@ public class Game extends ApplicationAdapter {
     @Override
     public void dispose() {
         screens.dispose();
+        engine.scheduler.dispose();
         transition.dispose();
         if (assets.initialized) {
             assets.dispose();
@@ -0,0 +1,160 @@
+package zendo.games.physics.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.utils.Array;
+import zendo.games.physics.headless.StandaloneWorld;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+
+/**
+ * Stress scenario for comparing broadphase types on a course sized grid of tiles.
+ *
+ * Each run builds a standalone world with a square grid of tile sized static boxes
+ * and a number of small dynamic bodies wandering around above it, then times just the broadphase work
+ * (aabb updates and pair calculation) over a number of frames.
+ * Bodies are filtered with the default collision layer matrix, so tiles don't pair with each other.
+ */
+public class BroadphaseBenchmark {
+
+    public static class Result {
+        public PhysicsSystem.BroadphaseType type;
+        public int numTiles;
+        public int numBodies;
+        public int numFrames;
+        public float insertMillis;
+        public float frameMillisAvg;
+        public float frameMillisMax;
+        public int pairsAvg;
+        public int pairsMax;
+
+        @Override
+        public String toString() {
+            return type + ": " + numTiles + " tiles, " + numBodies + " bodies, " + numFrames + " frames"
+                    + " | insert " + String.format("%.2f", insertMillis) + "ms"
+                    + " | frame avg " + String.format("%.3f", frameMillisAvg) + "ms"
+                    + ", max " + String.format("%.3f", frameMillisMax) + "ms"
+                    + " | pairs avg " + pairsAvg + ", max " + pairsMax;
+        }
+    }
+
+    private static final String TAG = BroadphaseBenchmark.class.getSimpleName();
+
+    private static final float BODY_RADIUS = 0.5f;
+    private static final float WANDER_DISTANCE = 2f * EntityFactory.TILE_SIZE;
+
+    public static Array<Result> run(int tilesPerSide, int numBodies, int numFrames) {
+        var results = new Array<Result>();
+        for (var type : PhysicsSystem.BroadphaseType.values()) {
+            // axis sweep can't hold more objects than it has handles
+            var numObjects = tilesPerSide * tilesPerSide + numBodies;
+            if (type == PhysicsSystem.BroadphaseType.axisSweep && numObjects > PhysicsSystem.AXIS_SWEEP_MAX_HANDLES) {
+                Gdx.app.log(TAG, "skipping " + type + ", " + numObjects + " objects is more than its max of " + PhysicsSystem.AXIS_SWEEP_MAX_HANDLES);
+                continue;
+            }
+            results.add(run(type, tilesPerSide, numBodies, numFrames));
+        }
+        return results;
+    }
+
+    public static Result run(PhysicsSystem.BroadphaseType type, int tilesPerSide, int numBodies, int numFrames) {
+        var tileSize = EntityFactory.TILE_SIZE;
+        var courseSize = tilesPerSide * tileSize;
+        var margin = 4 * tileSize;
+        var bounds = new BoundingBox(
+                new Vector3(-margin, -margin, -margin),
+                new Vector3(courseSize + margin, tileSize + margin, courseSize + margin));
+
+        var result = new Result();
+        result.type = type;
+        result.numTiles = tilesPerSide * tilesPerSide;
+        result.numBodies = numBodies;
+        result.numFrames = numFrames;
+
+        // only the collision side of the world is used, nothing is ever stepped
+        var standalone = new StandaloneWorld(PhysicsSystem.WorldType.rigid,
+                PhysicsSystem.createBroadphase(type, bounds, result.numTiles + numBodies));
+        var world = standalone.world;
+        var broadphase = standalone.broadphase;
+        var dispatcher = standalone.dispatcher;
+        var tileShape = standalone.own(new btBoxShape(new Vector3(tileSize / 2f, tileSize / 2f, tileSize / 2f)));
+        var bodyShape = standalone.own(new btSphereShape(BODY_RADIUS));
+        var objects = new Array<btCollisionObject>(result.numTiles + numBodies);
+        var origins = new float[numBodies * 3];
+        var transform = new Matrix4();
+        var random = new RandomXS128(1234L);
+
+        try {
+            var start = System.nanoTime();
+            {
+                for (int x = 0; x < tilesPerSide; x++) {
+                    for (int z = 0; z < tilesPerSide; z++) {
+                        var tile = standalone.own(new btCollisionObject());
+                        tile.setCollisionShape(tileShape);
+                        tile.setCollisionFlags(tile.getCollisionFlags() | btCollisionObject.CollisionFlags.CF_STATIC_OBJECT);
+                        tile.setWorldTransform(transform.setToTranslation(
+                                x * tileSize + tileSize / 2f, 0f, z * tileSize + tileSize / 2f));
+                        standalone.add(tile, CollisionLayers.Layer.course);
+                        objects.add(tile);
+                    }
+                }
+
+                for (int i = 0; i < numBodies; i++) {
+                    origins[3 * i]     = random.nextFloat() * courseSize;
+                    origins[3 * i + 1] = tileSize / 2f + BODY_RADIUS + random.nextFloat() * 2f;
+                    origins[3 * i + 2] = random.nextFloat() * courseSize;
+
+                    var body = standalone.own(new btCollisionObject());
+                    body.setCollisionShape(bodyShape);
+                    body.setWorldTransform(transform.setToTranslation(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2]));
+                    standalone.add(body, CollisionLayers.Layer.prop);
+                    objects.add(body);
+                }
+            }
+            result.insertMillis = (System.nanoTime() - start) / 1_000_000f;
+
+            var pairCache = broadphase.getOverlappingPairCache();
+            var totalNanos = 0L;
+            var maxNanos = 0L;
+            var totalPairs = 0L;
+            for (int frame = 0; frame < numFrames; frame++) {
+                // wander every dynamic body around its origin, bouncing up and down onto the tiles
+                var t = frame / 60f;
+                for (int i = 0; i < numBodies; i++) {
+                    var phase = i * 0.618f;
+                    var x = origins[3 * i]     + WANDER_DISTANCE * MathUtils.sin(t + phase);
+                    var y = origins[3 * i + 1] - Math.abs(MathUtils.sin(2f * t + phase));
+                    var z = origins[3 * i + 2] + WANDER_DISTANCE * MathUtils.cos(t + phase);
+                    objects.get(result.numTiles + i).setWorldTransform(transform.setToTranslation(x, y, z));
+                }
+
+                var frameStart = System.nanoTime();
+                world.updateAabbs();
+                broadphase.calculateOverlappingPairs(dispatcher);
+                var frameNanos = System.nanoTime() - frameStart;
+
+                var pairs = pairCache.getNumOverlappingPairs();
+                totalNanos += frameNanos;
+                maxNanos = Math.max(maxNanos, frameNanos);
+                totalPairs += pairs;
+                result.pairsMax = Math.max(result.pairsMax, pairs);
+            }
+            if (numFrames > 0) {
+                result.frameMillisAvg = totalNanos / (numFrames * 1_000_000f);
+                result.frameMillisMax = maxNanos / 1_000_000f;
+                result.pairsAvg = (int) (totalPairs / numFrames);
+            }
+        } finally {
+            standalone.dispose();
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,172 @@
+package zendo.games.physics.benchmarks;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.utils.Array;
+import zendo.games.physics.headless.StandaloneWorld;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+
+/**
+ * Compares a course of one body per tile against the same course merged into a single compound shape.
+ *
+ * Each run builds a square grid of tiles that share one bumpy triangle mesh bvh through scaled wrappers,
+ * like the real tiles do, then drops a number of balls onto it and times the steps as they roll around.
+ * Load time covers creating the tile bodies (or compound children) and adding them to the world.
+ */
+public class CourseShapeBenchmark {
+
+    public static class Result {
+        public PhysicsSystem.CourseMode mode;
+        public int numTiles;
+        public int numBalls;
+        public int numSteps;
+        public int numProxies;
+        public float loadMillis;
+        public float stepMillisAvg;
+        public float stepMillisMax;
+
+        @Override
+        public String toString() {
+            return mode + ": " + numTiles + " tiles, " + numBalls + " balls, " + numSteps + " steps"
+                    + " | proxies " + numProxies
+                    + " | load " + String.format("%.2f", loadMillis) + "ms"
+                    + " | step avg " + String.format("%.3f", stepMillisAvg) + "ms"
+                    + ", max " + String.format("%.3f", stepMillisMax) + "ms";
+        }
+    }
+
+    private static final int MESH_DIVISIONS = 8;
+    private static final float BALL_RADIUS = 0.5f;
+    private static final float TIME_STEP = 1f / 60f;
+
+    public static Array<Result> run(int tilesPerSide, int numBalls, int numSteps) {
+        var results = new Array<Result>();
+        for (var mode : PhysicsSystem.CourseMode.values()) {
+            results.add(run(mode, tilesPerSide, numBalls, numSteps));
+        }
+        return results;
+    }
+
+    public static Result run(PhysicsSystem.CourseMode mode, int tilesPerSide, int numBalls, int numSteps) {
+        var tileSize = EntityFactory.TILE_SIZE;
+        var courseSize = tilesPerSide * tileSize;
+        var course = CollisionLayers.Layer.course;
+        var ball = CollisionLayers.Layer.ball;
+
+        var result = new Result();
+        result.mode = mode;
+        result.numTiles = tilesPerSide * tilesPerSide;
+        result.numBalls = numBalls;
+        result.numSteps = numSteps;
+
+        var standalone = new StandaloneWorld();
+        var world = standalone.world;
+
+        try {
+            // the shared tile mesh is built up front, both layouts reuse it the same way
+            var mesh = standalone.own(createTileMesh());
+            var sharedShape = standalone.own(new btBvhTriangleMeshShape(mesh, true));
+            var scaling = new Vector3(tileSize, 1f, tileSize);
+            var transform = new Matrix4();
+
+            var start = System.nanoTime();
+            {
+                btCompoundShape compound = null;
+                if (mode == PhysicsSystem.CourseMode.compound) {
+                    compound = standalone.own(new btCompoundShape(true));
+                }
+
+                for (int x = 0; x < tilesPerSide; x++) {
+                    for (int z = 0; z < tilesPerSide; z++) {
+                        var shape = standalone.own(new btScaledBvhTriangleMeshShape(sharedShape, scaling));
+                        transform.setToTranslation(x * tileSize + tileSize / 2f, 0f, z * tileSize + tileSize / 2f);
+
+                        if (compound != null) {
+                            compound.addChildShape(transform, shape);
+                        } else {
+                            // configured like the tile bodies that PhysicsComponent creates
+                            var body = standalone.createBody(0f, shape, transform);
+                            body.setCollisionFlags(body.getCollisionFlags() | btCollisionObject.CollisionFlags.CF_KINEMATIC_OBJECT);
+                            body.setActivationState(Collision.DISABLE_DEACTIVATION);
+                            standalone.add(body, course);
+                        }
+                    }
+                }
+
+                if (compound != null) {
+                    var body = standalone.createBody(0f, compound, transform.idt());
+                    standalone.add(body, course);
+                }
+            }
+            result.loadMillis = (System.nanoTime() - start) / 1_000_000f;
+
+            var random = new RandomXS128(1234L);
+            var ballShape = standalone.own(new btSphereShape(BALL_RADIUS));
+            var velocity = new Vector3();
+            for (int i = 0; i < numBalls; i++) {
+                transform.setToTranslation(
+                        random.nextFloat() * courseSize,
+                        2f + random.nextFloat() * 3f,
+                        random.nextFloat() * courseSize);
+                var body = standalone.createBody(1f, ballShape, transform);
+                body.setLinearVelocity(velocity.set(10f * (random.nextFloat() - 0.5f), 0f, 10f * (random.nextFloat() - 0.5f)));
+                standalone.add(body, ball);
+            }
+            result.numProxies = world.getNumCollisionObjects();
+
+            var totalNanos = 0L;
+            var maxNanos = 0L;
+            for (int step = 0; step < numSteps; step++) {
+                var stepStart = System.nanoTime();
+                world.stepSimulation(TIME_STEP, 0);
+                var stepNanos = System.nanoTime() - stepStart;
+                totalNanos += stepNanos;
+                maxNanos = Math.max(maxNanos, stepNanos);
+            }
+            if (numSteps > 0) {
+                result.stepMillisAvg = totalNanos / (numSteps * 1_000_000f);
+                result.stepMillisMax = maxNanos / 1_000_000f;
+            }
+        } finally {
+            standalone.dispose();
+        }
+
+        return result;
+    }
+
+    /**
+     * A unit square in the xz plane with a gentle bump in the middle, divided into a grid of triangles
+     */
+    private static btTriangleMesh createTileMesh() {
+        var mesh = new btTriangleMesh();
+        var v00 = new Vector3();
+        var v10 = new Vector3();
+        var v01 = new Vector3();
+        var v11 = new Vector3();
+        var step = 1f / MESH_DIVISIONS;
+        for (int i = 0; i < MESH_DIVISIONS; i++) {
+            for (int j = 0; j < MESH_DIVISIONS; j++) {
+                var x0 = -0.5f + i * step;
+                var z0 = -0.5f + j * step;
+                vertex(v00, x0,        z0);
+                vertex(v10, x0 + step, z0);
+                vertex(v01, x0,        z0 + step);
+                vertex(v11, x0 + step, z0 + step);
+                mesh.addTriangle(v00, v01, v10);
+                mesh.addTriangle(v10, v01, v11);
+            }
+        }
+        return mesh;
+    }
+
+    private static void vertex(Vector3 out, float x, float z) {
+        var height = 0.5f * MathUtils.cos(x * MathUtils.PI) * MathUtils.cos(z * MathUtils.PI);
+        out.set(x, height, z);
+    }
+
+}
@@ -0,0 +1,120 @@
+package zendo.games.physics.benchmarks;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.utils.Array;
+import zendo.games.physics.headless.StandaloneWorld;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+
+/**
+ * Compares the per step cost of a plain discrete dynamics world against a soft-rigid world with no soft bodies in it,
+ * which is what the physics system used to pay for on every step.
+ *
+ * Each run builds a square grid of kinematic box tiles, like the course, and drops a number of balls and crates onto it,
+ * then times the steps while they bounce and roll around. Both world types get exactly the same scene.
+ */
+public class WorldTypeBenchmark {
+
+    public static class Result {
+        public PhysicsSystem.WorldType type;
+        public int numTiles;
+        public int numBodies;
+        public int numSteps;
+        public float createMillis;
+        public float stepMillisAvg;
+        public float stepMillisMax;
+
+        @Override
+        public String toString() {
+            return type + ": " + numTiles + " tiles, " + numBodies + " bodies, " + numSteps + " steps"
+                    + " | create " + String.format("%.2f", createMillis) + "ms"
+                    + " | step avg " + String.format("%.3f", stepMillisAvg) + "ms"
+                    + ", max " + String.format("%.3f", stepMillisMax) + "ms";
+        }
+    }
+
+    private static final float BODY_SIZE = 0.5f;
+    private static final float TIME_STEP = 1f / 60f;
+
+    public static Array<Result> run(int tilesPerSide, int numBodies, int numSteps) {
+        var results = new Array<Result>();
+        for (var type : PhysicsSystem.WorldType.values()) {
+            results.add(run(type, tilesPerSide, numBodies, numSteps));
+        }
+        return results;
+    }
+
+    public static Result run(PhysicsSystem.WorldType type, int tilesPerSide, int numBodies, int numSteps) {
+        var tileSize = EntityFactory.TILE_SIZE;
+        var courseSize = tilesPerSide * tileSize;
+        var course = CollisionLayers.Layer.course;
+        var prop = CollisionLayers.Layer.prop;
+        var ball = CollisionLayers.Layer.ball;
+
+        var result = new Result();
+        result.type = type;
+        result.numTiles = tilesPerSide * tilesPerSide;
+        result.numBodies = numBodies;
+        result.numSteps = numSteps;
+
+        // world creation is timed too, the soft body configuration builds a bigger dispatcher matrix up front
+        var start = System.nanoTime();
+        var standalone = new StandaloneWorld(type, new btDbvtBroadphase());
+        var world = standalone.world;
+        result.createMillis = (System.nanoTime() - start) / 1_000_000f;
+
+        try {
+            var transform = new Matrix4();
+            var tileShape = standalone.own(new btBoxShape(new Vector3(tileSize / 2f, 0.5f, tileSize / 2f)));
+            for (int x = 0; x < tilesPerSide; x++) {
+                for (int z = 0; z < tilesPerSide; z++) {
+                    transform.setToTranslation(x * tileSize + tileSize / 2f, -0.5f, z * tileSize + tileSize / 2f);
+                    // configured like the tile bodies that PhysicsComponent creates
+                    var body = standalone.createBody(0f, tileShape, transform);
+                    body.setCollisionFlags(body.getCollisionFlags() | btCollisionObject.CollisionFlags.CF_KINEMATIC_OBJECT);
+                    body.setActivationState(Collision.DISABLE_DEACTIVATION);
+                    standalone.add(body, course);
+                }
+            }
+
+            // an even mix of balls and crates, so both sphere and box collision algorithms get exercised
+            var random = new RandomXS128(1234L);
+            var ballShape = standalone.own(new btSphereShape(BODY_SIZE));
+            var crateShape = standalone.own(new btBoxShape(new Vector3(BODY_SIZE, BODY_SIZE, BODY_SIZE)));
+            var velocity = new Vector3();
+            for (int i = 0; i < numBodies; i++) {
+                transform.setToTranslation(
+                        random.nextFloat() * courseSize,
+                        1f + random.nextFloat() * 4f,
+                        random.nextFloat() * courseSize);
+                var isBall = (i % 2 == 0);
+                var body = standalone.createBody(1f, isBall ? ballShape : crateShape, transform);
+                body.setLinearVelocity(velocity.set(10f * (random.nextFloat() - 0.5f), 0f, 10f * (random.nextFloat() - 0.5f)));
+                standalone.add(body, isBall ? ball : prop);
+            }
+
+            var totalNanos = 0L;
+            var maxNanos = 0L;
+            for (int step = 0; step < numSteps; step++) {
+                var stepStart = System.nanoTime();
+                world.stepSimulation(TIME_STEP, 0);
+                var stepNanos = System.nanoTime() - stepStart;
+                totalNanos += stepNanos;
+                maxNanos = Math.max(maxNanos, stepNanos);
+            }
+            if (numSteps > 0) {
+                result.stepMillisAvg = totalNanos / (numSteps * 1_000_000f);
+                result.stepMillisMax = maxNanos / 1_000_000f;
+            }
+        } finally {
+            standalone.dispose();
+        }
+
+        return result;
+    }
+
+}
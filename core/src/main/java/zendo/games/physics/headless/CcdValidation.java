@@ -0,0 +1,231 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.physics.bullet.dynamics.btDiscreteDynamicsWorld;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.systems.CcdProfile;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+
+/**
+ * Fires shots straight at the walls of every tile type and checks that none of them pass through.
+ *
+ * Walls are found by probing each tile with rays, first straight down from above the middle of the tile to find the floor,
+ * then out along each axis at ball height. A hit on a near vertical surface is a wall, sloped hits (ie. ramps) are skipped.
+ * A ball is then launched from the middle of the tile at the wall, for each speed and tick rate, both with the shot
+ * {@link CcdProfile} and without it for comparison. A ball whose centre ends up more than its radius beyond the wall face
+ * while still below the top of a ball resting against it has gone through the wall.
+ * Only pass-throughs with continuous collision enabled count as failures.
+ */
+public class CcdValidation {
+
+    private static final String TAG = CcdValidation.class.getSimpleName();
+
+    public static class Config {
+        // multiples of the expected maximum shot speed
+        public FloatArray speedScales = FloatArray.with(1f, 2f, 4f);
+        public FloatArray tickRates = FloatArray.with(60f, PhysicsSystem.Stepping.MIN_TICK_RATE);
+        public float seconds = 1f;
+        // surfaces with a normal steeper than this count as walls
+        public float maxWallNormalY = 0.3f;
+    }
+
+    public static class Failure {
+        public MinigolfModels modelType;
+        public String direction;
+        public float speed;
+        public float tickRate;
+
+        @Override
+        public String toString() {
+            return modelType + " " + direction + " wall at " + String.format("%.1f", speed) + " u/s, " + tickRate + " Hz";
+        }
+    }
+
+    public static class Result {
+        public int numTiles;
+        public int numWalls;
+        public int numShots;
+        public int numPassThroughs;
+        // the same shots without continuous collision, just to show what it's preventing
+        public int numPassThroughsWithoutCcd;
+        public CcdProfile profile;
+        public final Array<MinigolfModels> tilesWithoutWalls = new Array<>();
+        public final Array<Failure> failures = new Array<>();
+
+        public boolean passed() {
+            return numPassThroughs == 0;
+        }
+
+        @Override
+        public String toString() {
+            var str = new StringBuilder();
+            str.append(passed() ? "PASSED" : "FAILED")
+               .append(": ").append(numWalls).append(" walls on ").append(numTiles).append(" tiles")
+               .append(", ").append(numShots).append(" shots")
+               .append(" | pass-throughs ").append(numPassThroughs)
+               .append(" (without ccd ").append(numPassThroughsWithoutCcd).append(")")
+               .append(" | ").append(profile);
+            if (!tilesWithoutWalls.isEmpty()) {
+                str.append("\n  no walls found: ").append(tilesWithoutWalls.toString(", "));
+            }
+            for (var failure : failures) {
+                str.append("\n  passed through: ").append(failure);
+            }
+            return str.toString();
+        }
+    }
+
+    private static final String[] DIRECTION_NAMES = { "+x", "-x", "+z", "-z" };
+    private static final Vector3[] DIRECTIONS = {
+            new Vector3(1, 0, 0), new Vector3(-1, 0, 0), new Vector3(0, 0, 1), new Vector3(0, 0, -1)
+    };
+
+    public static Result run(Config config) {
+        var result = new Result();
+
+        var shapes = new TileShapes();
+        var standalone = new StandaloneWorld();
+        var world = standalone.world;
+        var ray = standalone.own(new ClosestRayResultCallback(Vector3.Zero, Vector3.Zero));
+
+        var ballLayer = CollisionLayers.Layer.ball;
+        var ballMask = standalone.layers.mask(ballLayer);
+
+        var transform = new Matrix4();
+        var ballShape = standalone.own(new btSphereShape(0.5f));
+        var ballRadius = ballShape.getRadius();
+        var ball = standalone.createBody(EntityFactory.SHOT_MASS, ballShape, transform);
+        var profile = EntityFactory.shotCcd(ballShape);
+        result.profile = profile;
+
+        var from = new Vector3();
+        var to = new Vector3();
+        var normal = new Vector3();
+        var start = new Vector3();
+        var position = new Vector3();
+        var velocity = new Vector3();
+        var offset = EntityFactory.TILE_SIZE / 2f;
+
+        try {
+            for (var modelType : MinigolfModels.values()) {
+                var tile = standalone.createBody(0f, shapes.obtain(modelType), EntityFactory.tileBodyTransform(0, 0, 0f, transform));
+                standalone.add(tile, CollisionLayers.Layer.course);
+                result.numTiles++;
+
+                try {
+                    // find the floor under the middle of the tile
+                    from.set(offset, EntityFactory.TILE_SIZE, offset);
+                    to.set(offset, -EntityFactory.TILE_SIZE, offset);
+                    if (!rayTest(world, ray, from, to)) {
+                        result.tilesWithoutWalls.add(modelType);
+                        continue;
+                    }
+                    ray.getHitPointWorld(start);
+                    start.y += ballRadius + 0.05f;
+
+                    var numWalls = 0;
+                    for (int d = 0; d < DIRECTIONS.length; d++) {
+                        var direction = DIRECTIONS[d];
+                        from.set(start);
+                        to.set(direction).scl(EntityFactory.TILE_SIZE).add(start);
+                        if (!rayTest(world, ray, from, to)) continue;
+
+                        ray.getHitNormalWorld(normal);
+                        var wallDistance = ray.getClosestHitFraction() * EntityFactory.TILE_SIZE;
+                        if (Math.abs(normal.y) > config.maxWallNormalY || wallDistance <= ballRadius) continue;
+                        numWalls++;
+
+                        for (int t = 0; t < config.tickRates.size; t++) {
+                            var tickRate = config.tickRates.get(t);
+                            var numSteps = MathUtils.ceil(config.seconds * tickRate);
+                            for (int s = 0; s < config.speedScales.size; s++) {
+                                var speed = config.speedScales.get(s) * EntityFactory.SHOT_MAX_SPEED;
+                                velocity.set(direction).scl(speed);
+
+                                result.numShots++;
+                                if (passesThrough(world, ball, ballLayer.bit, ballMask, profile, start, velocity, direction, wallDistance, ballRadius, tickRate, numSteps, transform, position)) {
+                                    result.numPassThroughs++;
+                                    var failure = new Failure();
+                                    failure.modelType = modelType;
+                                    failure.direction = DIRECTION_NAMES[d];
+                                    failure.speed = speed;
+                                    failure.tickRate = tickRate;
+                                    result.failures.add(failure);
+                                }
+                                if (passesThrough(world, ball, ballLayer.bit, ballMask, CcdProfile.NONE, start, velocity, direction, wallDistance, ballRadius, tickRate, numSteps, transform, position)) {
+                                    result.numPassThroughsWithoutCcd++;
+                                }
+                            }
+                        }
+                    }
+
+                    if (numWalls == 0) {
+                        result.tilesWithoutWalls.add(modelType);
+                    }
+                    result.numWalls += numWalls;
+                } finally {
+                    standalone.remove(tile);
+                }
+            }
+        } finally {
+            standalone.dispose();
+            shapes.dispose();
+        }
+
+        Gdx.app.log(TAG, result.toString());
+        return result;
+    }
+
+    private static boolean passesThrough(btDiscreteDynamicsWorld world, btRigidBody ball, short group, short mask, CcdProfile profile,
+                                         Vector3 start, Vector3 velocity, Vector3 direction, float wallDistance, float ballRadius,
+                                         float tickRate, int numSteps, Matrix4 transform, Vector3 position) {
+        transform.setToTranslation(start);
+        ball.setWorldTransform(transform);
+        ball.setInterpolationWorldTransform(transform);
+        ball.setLinearVelocity(velocity);
+        ball.setAngularVelocity(Vector3.Zero);
+        ball.setInterpolationLinearVelocity(velocity);
+        ball.setInterpolationAngularVelocity(Vector3.Zero);
+        ball.clearForces();
+        ball.setCcdMotionThreshold(profile.motionThreshold());
+        ball.setCcdSweptSphereRadius(profile.sweptSphereRadius());
+        ball.forceActivationState(Collision.ACTIVE_TAG);
+        ball.setDeactivationTime(0f);
+
+        world.addRigidBody(ball, group, mask);
+        try {
+            var timeStep = 1f / tickRate;
+            for (int step = 0; step < numSteps; step++) {
+                world.stepSimulation(timeStep, 0);
+                ball.getWorldTransform(transform).getTranslation(position);
+
+                var along = (position.x - start.x) * direction.x + (position.z - start.z) * direction.z;
+                if (along > wallDistance + ballRadius && position.y < start.y + 2f * ballRadius) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            world.removeRigidBody(ball);
+        }
+    }
+
+    private static boolean rayTest(btCollisionWorld world, ClosestRayResultCallback ray, Vector3 from, Vector3 to) {
+        ray.setCollisionObject(null);
+        ray.setClosestHitFraction(1f);
+        ray.setRayFromWorld(from);
+        ray.setRayToWorld(to);
+        world.rayTest(from, to, ray);
+        return ray.hasHit();
+    }
+
+}
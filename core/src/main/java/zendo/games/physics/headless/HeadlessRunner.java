@@ -0,0 +1,258 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.ashley.core.Engine;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.Json;
+import zendo.games.physics.scene.components.NameComponent;
+import zendo.games.physics.scene.components.PhysicsComponent;
+import zendo.games.physics.scene.components.utils.ComponentFamilies;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.providers.CollisionShapeProvider;
+import zendo.games.physics.scene.systems.BodyHandles;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+import zendo.games.physics.scene.systems.StepMetrics;
+import zendo.games.physics.scene.systems.UserInterfaceSystem;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads a level file and fires scripted shots at it with nothing but the physics system,
+ * stepping as fast as possible with no rendering so that it can run on a machine without a gpu.
+ *
+ * Tiles are built straight from the model files' data rather than loaded models, so there are no meshes or textures.
+ * The level uses the same {@link UserInterfaceSystem.LevelFileInfo} json that the editor saves.
+ * NOTE - bullet must already be initialized, and Gdx.app and Gdx.files must exist (ie. a headless application)
+ */
+public class HeadlessRunner {
+
+    private static final String TAG = HeadlessRunner.class.getSimpleName();
+
+    /**
+     * A ball placed at a position and given an impulse at the start of a step
+     */
+    public static class Shot {
+        public int step;
+        public float x, y, z;
+        public float impulseX, impulseY, impulseZ;
+    }
+
+    /**
+     * What to fire at the level and how to step it, loaded from json with {@link #load(FileHandle)}
+     */
+    public static class Script {
+        public Array<Shot> shots = new Array<>();
+        public int maxSteps = 1200;
+        public float tickRate = 60f;
+        // stop before max steps once every shot has been fired and has either come to rest or left the world
+        public boolean stopWhenSettled = true;
+        public PhysicsSystem.CourseMode courseMode = PhysicsSystem.CourseMode.bodies;
+        public PhysicsSystem.BroadphaseType broadphase = PhysicsSystem.BroadphaseType.dbvt;
+
+        public static Script load(FileHandle file) {
+            return new Json().fromJson(Script.class, file.readString(StandardCharsets.UTF_8.name()));
+        }
+
+        /**
+         * A script that drops one ball onto the middle of each tile in the level
+         */
+        public static Script dropOnEachTile(UserInterfaceSystem.LevelFileInfo level) {
+            var script = new Script();
+            var offset = EntityFactory.TILE_SIZE / 2f;
+            for (var tileInfo : level.getTileInfos()) {
+                var shot = new Shot();
+                shot.x = tileInfo.getX() * EntityFactory.TILE_SIZE + offset;
+                shot.y = 2f;
+                shot.z = tileInfo.getZ() * EntityFactory.TILE_SIZE + offset;
+                script.shots.add(shot);
+            }
+            return script;
+        }
+    }
+
+    public static class ShotResult {
+        public String name;
+        public final Vector3 position = new Vector3();
+        public boolean fired;
+        public boolean removed;
+        // the step that the ball came to rest or left the world, or -1 if it was still moving at the end
+        public int settledStep = -1;
+
+        @Override
+        public String toString() {
+            if (!fired) return name + ": not fired";
+
+            var state = removed ? "out of bounds at step " + settledStep
+                      : (settledStep >= 0) ? "settled at step " + settledStep
+                      : "moving";
+            return name + ": " + position + " (" + state + ")";
+        }
+    }
+
+    public static class Result {
+        public String level;
+        public int numTiles;
+        public int numShots;
+        public int numSteps;
+        public float loadMillis;
+        public float wallMillis;
+        public float stepsPerSecond;
+        // over the last StepMetrics.CAPACITY steps
+        public final StepMetrics.Summary stepMillis = new StepMetrics.Summary();
+        public final Array<ShotResult> shots = new Array<>();
+
+        @Override
+        public String toString() {
+            var str = new StringBuilder();
+            str.append(level).append(": ").append(numTiles).append(" tiles, ").append(numShots).append(" shots")
+               .append(" | load ").append(String.format("%.2f", loadMillis)).append("ms")
+               .append(" | ").append(numSteps).append(" steps in ").append(String.format("%.2f", wallMillis)).append("ms")
+               .append(" (").append(String.format("%.1f", stepsPerSecond)).append(" steps/s)")
+               .append(" | step ms ").append(stepMillis);
+            for (var shot : shots) {
+                str.append("\n  ").append(shot);
+            }
+            return str.toString();
+        }
+    }
+
+    public static UserInterfaceSystem.LevelFileInfo loadLevel(FileHandle levelFile) {
+        if (!levelFile.exists()) {
+            throw new GdxRuntimeException("Level file not found: '" + levelFile.path() + "'");
+        }
+        return new Json().fromJson(UserInterfaceSystem.LevelFileInfo.class, levelFile.readString(StandardCharsets.UTF_8.name()));
+    }
+
+    /**
+     * @param levelFile a level saved by the editor
+     * @param script the shots to fire, or null to drop a ball onto each tile
+     */
+    public static Result run(FileHandle levelFile, Script script) {
+        var level = loadLevel(levelFile);
+        if (script == null) {
+            script = Script.dropOnEachTile(level);
+        }
+
+        var result = new Result();
+        result.level = levelFile.nameWithoutExtension();
+        result.numTiles = level.getTileInfos().size;
+        result.numShots = script.shots.size;
+
+        var engine = new Engine();
+        var shapes = new TileShapes();
+        var physics = new PhysicsSystem();
+        engine.addEntityListener(ComponentFamilies.physics, physics);
+        engine.addSystem(physics);
+
+        try {
+            physics.courseMode = script.courseMode;
+            physics.setBroadphase(script.broadphase);
+            physics.stepping.tickRate = script.tickRate;
+
+            var start = System.nanoTime();
+            {
+                for (var tileInfo : level.getTileInfos()) {
+                    var modelType = MinigolfModels.valueOf(tileInfo.getModelType());
+                    EntityFactory.createTileBody(modelType, engine, shapes.obtain(modelType),
+                            tileInfo.getX(), tileInfo.getZ(), tileInfo.getYRotation());
+                }
+                physics.setKillVolumes(UserInterfaceSystem.KillVolumeInfo.toArray(level.getKillVolumes()));
+
+                // pick up any broadphase rebuild from the course bounds now rather than during the first step
+                engine.update(0f);
+            }
+            result.loadMillis = (System.nanoTime() - start) / 1_000_000f;
+
+            var ballShape = shapes.provider.get(CollisionShapeProvider.Type.sphere);
+            var balls = new PhysicsComponent[script.shots.size];
+            for (int i = 0; i < script.shots.size; i++) {
+                var shotResult = new ShotResult();
+                shotResult.name = "shot " + i;
+                result.shots.add(shotResult);
+            }
+
+            var timeStep = physics.stepping.timeStep();
+            start = System.nanoTime();
+            var step = 0;
+            for (; step < script.maxSteps; step++) {
+                var allFired = true;
+                for (int i = 0; i < script.shots.size; i++) {
+                    var shot = script.shots.get(i);
+                    if (shot.step > step) {
+                        allFired = false;
+                    } else if (shot.step == step) {
+                        balls[i] = fire(engine, physics, ballShape, shot, result.shots.get(i).name);
+                        result.shots.get(i).fired = true;
+                    }
+                }
+
+                // the accumulator gets exactly one step's worth of time, so this steps the world once
+                engine.update(timeStep);
+
+                var allSettled = true;
+                for (int i = 0; i < balls.length; i++) {
+                    var ball = balls[i];
+                    var shotResult = result.shots.get(i);
+                    if (ball == null || shotResult.removed) continue;
+
+                    // kill volumes remove entities during the update, which invalidates the handle
+                    // NOTE - a removed ball's body can be reused for a later shot, so its final position is taken here
+                    if (ball.handle == BodyHandles.INVALID) {
+                        shotResult.removed = true;
+                        shotResult.settledStep = step;
+                        continue;
+                    }
+
+                    ball.rigidBody.getWorldTransform(tempTransform).getTranslation(shotResult.position);
+                    if (ball.rigidBody.isActive()) {
+                        shotResult.settledStep = -1;
+                        allSettled = false;
+                    } else if (shotResult.settledStep == -1) {
+                        shotResult.settledStep = step;
+                    }
+                }
+
+                if (script.stopWhenSettled && allFired && allSettled) {
+                    step++;
+                    break;
+                }
+            }
+            result.wallMillis = (System.nanoTime() - start) / 1_000_000f;
+            result.numSteps = step;
+            result.stepsPerSecond = (result.wallMillis > 0) ? step / (result.wallMillis / 1000f) : 0f;
+            physics.metrics.summarize(StepMetrics.Metric.stepMillis, result.stepMillis);
+        } finally {
+            engine.removeAllEntities();
+            engine.removeSystem(physics);
+            physics.dispose();
+            shapes.dispose();
+        }
+
+        Gdx.app.log(TAG, result.toString());
+        return result;
+    }
+
+    private static final Matrix4 tempTransform = new Matrix4();
+
+    private static PhysicsComponent fire(Engine engine, PhysicsSystem physics, btCollisionShape shape, Shot shot, String name) {
+        var transform = new Matrix4().setToTranslation(shot.x, shot.y, shot.z);
+        var ball = physics.pools.obtain(shape, EntityFactory.SHOT_MASS, transform);
+        ball.layer = CollisionLayers.Layer.ball;
+        ball.setCcd(EntityFactory.shotCcd(shape));
+        physics.applyImpulse(ball, shot.impulseX, shot.impulseY, shot.impulseZ);
+
+        var entity = engine.createEntity();
+        entity.add(engine.createComponent(NameComponent.class).set(name));
+        entity.add(ball);
+        engine.addEntity(entity);
+        return ball;
+    }
+
+}
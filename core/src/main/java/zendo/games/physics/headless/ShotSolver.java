@@ -0,0 +1,483 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.ashley.core.Engine;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.physics.bullet.dynamics.btDiscreteDynamicsWorld;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import zendo.games.physics.scene.components.utils.ComponentFamilies;
+import zendo.games.physics.scene.components.utils.ComponentMappers;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.KillVolumes;
+import zendo.games.physics.scene.systems.UserInterfaceSystem;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches for shots from the tee that end up in the hole by simulating a large number of random candidate shots,
+ * each one an impulse like {@link EntityFactory#createShot} gives a ball, with a random direction and strength.
+ *
+ * Every worker thread steps its own independent world, so nothing is shared between threads while they run
+ * except for the tile collision shapes, which are only ever read. Candidates are handed out from a shared counter
+ * and each one is seeded from its index, so the results don't depend on the number of threads or how they're scheduled.
+ * A shot stops early once the ball is captured by the hole, leaves the world or goes to sleep.
+ *
+ * NOTE - bullet objects are created and disposed on the calling thread, since gdx-bullet's java wrappers
+ *  are tracked in maps that aren't thread safe, the workers only step their worlds and move their ball.
+ *  The tiles and balls never set CF_CUSTOM_MATERIAL_CALLBACK, so the global contact listener is never called from a worker.
+ */
+public class ShotSolver {
+
+    private static final String TAG = ShotSolver.class.getSimpleName();
+
+    public static class Config {
+        public int numSamples = 4096;
+        public int numThreads = Runtime.getRuntime().availableProcessors();
+        public long seed = 1234L;
+
+        // impulse range, createShot uses 30
+        public float minStrength = 5f;
+        public float maxStrength = 40f;
+        // fraction of the impulse that's applied upwards, zero for a putt
+        public float lift = 0f;
+
+        public int maxSteps = 600;
+        public float timeStep = 1f / 60f;
+
+        // the ball starts this far above the middle of the start tile
+        public float teeHeight = 1f;
+        // the ball is captured once its centre is within this distance of the middle of the hole tile
+        // and lower than the capture height above the tile's origin, ie. it has dropped into the cup
+        public float holeRadius = 1f;
+        public float captureHeight = 0f;
+        // the game's balls don't have any, but a little makes balls come to rest (and stop early) much sooner
+        public float ballRollingFriction = 0f;
+
+        // heatmap resolution
+        public int angleBins = 72;
+        public int strengthBins = 10;
+        public int numBest = 10;
+    }
+
+    /**
+     * The tile collision shapes and transforms to put in each worker's world, plus the tee and hole positions.
+     * The shapes are owned by whatever created them and have to stay alive until the solver is done.
+     */
+    public static class Course {
+        public final Array<btCollisionShape> shapes = new Array<>();
+        public final Array<Matrix4> transforms = new Array<>();
+        public final Vector3 tee = new Vector3();
+        public final Vector3 hole = new Vector3();
+        public boolean hasTee;
+        public boolean hasHole;
+        // the union of every tile's bounds
+        public final BoundingBox bounds = new BoundingBox().inf();
+        // set by fromEngine() or fromLevel(), everything below the course unless the level defines its own
+        public float[] killVolumes;
+
+        private final Vector3 aabbMin = new Vector3();
+        private final Vector3 aabbMax = new Vector3();
+
+        public void add(btCollisionShape shape, Matrix4 transform, MinigolfModels modelType, int tileX, int tileZ) {
+            shapes.add(shape);
+            transforms.add(transform);
+            shape.getAabb(transform, aabbMin, aabbMax);
+            bounds.ext(aabbMin).ext(aabbMax);
+
+            var offset = EntityFactory.TILE_SIZE / 2f;
+            var x = tileX * EntityFactory.TILE_SIZE + offset;
+            var z = tileZ * EntityFactory.TILE_SIZE + offset;
+            // the start tile is the tee, or the first tile if there isn't one
+            if (modelType == MinigolfModels.start || (!hasTee && shapes.size == 1)) {
+                tee.set(x, 0f, z);
+                hasTee = (modelType == MinigolfModels.start);
+            }
+            if (modelType.name().startsWith("hole")) {
+                hole.set(x, 0f, z);
+                hasHole = true;
+            }
+        }
+
+        /**
+         * Share the collision shapes of the tiles currently in the engine
+         * NOTE - the tiles mustn't be removed while the solver is running
+         */
+        public static Course fromEngine(Engine engine) {
+            var course = new Course();
+            for (var entity : engine.getEntitiesFor(ComponentFamilies.tiles)) {
+                var tile = ComponentMappers.tiles.get(entity);
+                var physics = ComponentMappers.physics.get(entity);
+                if (physics == null) continue;
+
+                var transform = physics.rigidBody.getWorldTransform(new Matrix4());
+                course.add(physics.shape(), transform, tile.modelType, tile.xCoord, tile.zCoord);
+            }
+            course.killVolumes = KillVolumes.below(course.floor());
+            return course;
+        }
+
+        /**
+         * Build the collision shapes for a level file's tiles from model data, so this works without graphics
+         * @param shapes owns the shapes, dispose it once the solver is done
+         */
+        public static Course fromLevel(UserInterfaceSystem.LevelFileInfo level, TileShapes shapes) {
+            var course = new Course();
+            for (var tileInfo : level.getTileInfos()) {
+                var modelType = MinigolfModels.valueOf(tileInfo.getModelType());
+                var shape = shapes.obtain(modelType);
+                var transform = EntityFactory.tileBodyTransform(tileInfo.getX(), tileInfo.getZ(), tileInfo.getYRotation(), new Matrix4());
+                course.add(shape, transform, modelType, tileInfo.getX(), tileInfo.getZ());
+            }
+
+            var volumes = UserInterfaceSystem.KillVolumeInfo.toArray(level.getKillVolumes());
+            course.killVolumes = (volumes != null) ? volumes : KillVolumes.below(course.floor());
+            return course;
+        }
+
+        /**
+         * @return the bottom of the course, or ground level if it doesn't have any tiles
+         */
+        public float floor() {
+            return bounds.isValid() ? bounds.min.y : 0f;
+        }
+    }
+
+    public static class Candidate {
+        public int index;
+        // degrees around the y axis, zero is along +x
+        public float angle;
+        public float strength;
+        public boolean captured;
+        public boolean outOfBounds;
+        public int steps;
+        // the closest the ball got to the hole, horizontally
+        public float distance;
+
+        void set(Candidate other) {
+            index = other.index;
+            angle = other.angle;
+            strength = other.strength;
+            captured = other.captured;
+            outOfBounds = other.outOfBounds;
+            steps = other.steps;
+            distance = other.distance;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index
+                    + " angle " + String.format("%.1f", angle)
+                    + ", strength " + String.format("%.2f", strength)
+                    + (captured ? " -> holed in " + steps + " steps"
+                                : " -> missed by " + String.format("%.2f", distance) + (outOfBounds ? " (out of bounds)" : ""));
+        }
+    }
+
+    // holed shots first, quickest first, then misses, closest first
+    private static final Comparator<Candidate> bestFirst = (a, b) -> {
+        if (a.captured != b.captured) return a.captured ? -1 : 1;
+        var compare = a.captured ? Integer.compare(a.steps, b.steps) : Float.compare(a.distance, b.distance);
+        return (compare != 0) ? compare : Integer.compare(a.index, b.index);
+    };
+
+    public static class Result {
+        public int numSamples;
+        public int numThreads;
+        public int numCaptured;
+        public int numOutOfBounds;
+        public long totalSteps;
+        public float setupMillis;
+        public float wallMillis;
+        public float samplesPerSecond;
+
+        // row major by angle bin then strength bin
+        public int angleBins;
+        public int strengthBins;
+        public float minStrength;
+        public float maxStrength;
+        public int[] attempts;
+        public int[] captures;
+
+        public final Array<Candidate> best = new Array<>();
+
+        /**
+         * Write the heatmap as csv, one row per angle and strength bin with the fraction of shots that were holed
+         */
+        public void writeHeatmap(FileHandle file) {
+            var str = new StringBuilder("angle,strength,attempts,captures,rate\n");
+            var angleStep = 360f / angleBins;
+            var strengthStep = (maxStrength - minStrength) / strengthBins;
+            for (int a = 0; a < angleBins; a++) {
+                for (int s = 0; s < strengthBins; s++) {
+                    var i = a * strengthBins + s;
+                    var rate = (attempts[i] > 0) ? (float) captures[i] / attempts[i] : 0f;
+                    str.append(a * angleStep).append(',')
+                       .append(minStrength + s * strengthStep).append(',')
+                       .append(attempts[i]).append(',')
+                       .append(captures[i]).append(',')
+                       .append(rate).append('\n');
+                }
+            }
+            file.writeString(str.toString(), false);
+        }
+
+        @Override
+        public String toString() {
+            var str = new StringBuilder();
+            str.append(numSamples).append(" shots on ").append(numThreads).append(" threads")
+               .append(" | holed ").append(numCaptured)
+               .append(", out of bounds ").append(numOutOfBounds)
+               .append(" | setup ").append(String.format("%.2f", setupMillis)).append("ms")
+               .append(" | ").append(String.format("%.2f", wallMillis)).append("ms")
+               .append(" (").append(String.format("%.1f", samplesPerSecond)).append(" shots/s")
+               .append(", ").append(totalSteps).append(" steps)");
+            for (var candidate : best) {
+                str.append("\n  ").append(candidate);
+            }
+            return str.toString();
+        }
+    }
+
+    public static Result solve(Course course, Config config) {
+        if (course.shapes.isEmpty()) {
+            throw new GdxRuntimeException("Unable to solve shots, the course has no tiles");
+        }
+        if (!course.hasHole) {
+            throw new GdxRuntimeException("Unable to solve shots, the course has no hole tile");
+        }
+
+        var numThreads = Math.max(1, Math.min(config.numThreads, config.numSamples));
+        var result = new Result();
+        result.numSamples = config.numSamples;
+        result.numThreads = numThreads;
+        result.angleBins = config.angleBins;
+        result.strengthBins = config.strengthBins;
+        result.minStrength = config.minStrength;
+        result.maxStrength = config.maxStrength;
+        result.attempts = new int[config.angleBins * config.strengthBins];
+        result.captures = new int[config.angleBins * config.strengthBins];
+
+        var next = new AtomicInteger();
+        var ballShape = new btSphereShape(0.5f);
+        var workers = new Array<Worker>(numThreads);
+        try {
+            var start = System.nanoTime();
+            for (int i = 0; i < numThreads; i++) {
+                workers.add(new Worker(course, config, ballShape, next));
+            }
+            result.setupMillis = (System.nanoTime() - start) / 1_000_000f;
+
+            start = System.nanoTime();
+            var threads = new Array<Thread>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                var thread = new Thread(workers.get(i), "shot-solver-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            for (var thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new GdxRuntimeException("Interrupted while solving shots", e);
+                }
+            }
+            result.wallMillis = (System.nanoTime() - start) / 1_000_000f;
+            result.samplesPerSecond = (result.wallMillis > 0) ? config.numSamples / (result.wallMillis / 1000f) : 0f;
+
+            for (var worker : workers) {
+                if (worker.failure != null) {
+                    throw new GdxRuntimeException("Shot solver worker failed", worker.failure);
+                }
+                result.numCaptured += worker.numCaptured;
+                result.numOutOfBounds += worker.numOutOfBounds;
+                result.totalSteps += worker.numSteps;
+                for (int i = 0; i < result.attempts.length; i++) {
+                    result.attempts[i] += worker.attempts[i];
+                    result.captures[i] += worker.captures[i];
+                }
+                result.best.addAll(worker.best);
+            }
+            result.best.sort(bestFirst);
+            result.best.truncate(config.numBest);
+        } finally {
+            for (var worker : workers) {
+                worker.dispose();
+            }
+            ballShape.dispose();
+        }
+
+        Gdx.app.log(TAG, result.toString());
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static class Worker implements Runnable, Disposable {
+        final Course course;
+        final Config config;
+        final AtomicInteger next;
+
+        final StandaloneWorld standalone;
+        final btDiscreteDynamicsWorld world;
+        final btRigidBody ball;
+        final CollisionLayers.Layer ballLayer = CollisionLayers.Layer.ball;
+        final short ballMask;
+
+        // results, only read once the thread has finished
+        final int[] attempts;
+        final int[] captures;
+        final Array<Candidate> best = new Array<>();
+        int numCaptured;
+        int numOutOfBounds;
+        long numSteps;
+        Throwable failure;
+
+        private final RandomXS128 random = new RandomXS128();
+        private final Candidate candidate = new Candidate();
+        private final Matrix4 transform = new Matrix4();
+        private final Vector3 position = new Vector3();
+        private final Vector3 impulse = new Vector3();
+
+        Worker(Course course, Config config, btSphereShape ballShape, AtomicInteger next) {
+            this.course = course;
+            this.config = config;
+            this.next = next;
+            this.attempts = new int[config.angleBins * config.strengthBins];
+            this.captures = new int[config.angleBins * config.strengthBins];
+
+            standalone = new StandaloneWorld();
+            world = standalone.world;
+
+            // nothing moves the tiles here, so they can be plain static bodies
+            for (int i = 0; i < course.shapes.size; i++) {
+                var body = standalone.createBody(0f, course.shapes.get(i), course.transforms.get(i));
+                standalone.add(body, CollisionLayers.Layer.course);
+            }
+
+            ball = standalone.createBody(EntityFactory.SHOT_MASS, ballShape, transform);
+            ball.setRollingFriction(config.ballRollingFriction);
+            var ccd = EntityFactory.shotCcd(ballShape);
+            ball.setCcdMotionThreshold(ccd.motionThreshold());
+            ball.setCcdSweptSphereRadius(ccd.sweptSphereRadius());
+            // NOTE - the ball is only in the world during a shot, so it never pairs with anything left over from the previous one
+            ballMask = standalone.layers.mask(ballLayer);
+        }
+
+        @Override
+        public void dispose() {
+            standalone.dispose();
+        }
+
+        @Override
+        public void run() {
+            try {
+                int index;
+                while ((index = next.getAndIncrement()) < config.numSamples) {
+                    simulate(index);
+                    record();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        private void simulate(int index) {
+            // seeded by index, so a candidate is the same no matter which worker picks it up
+            random.setSeed(config.seed + 0x9E3779B97F4A7C15L * (index + 1));
+            candidate.index = index;
+            candidate.angle = random.nextFloat() * 360f;
+            candidate.strength = config.minStrength + random.nextFloat() * (config.maxStrength - config.minStrength);
+            candidate.captured = false;
+            candidate.outOfBounds = false;
+            candidate.distance = Float.MAX_VALUE;
+            candidate.steps = 0;
+
+            var tee = course.tee;
+            transform.setToTranslation(tee.x, tee.y + config.teeHeight, tee.z);
+            ball.setWorldTransform(transform);
+            ball.setInterpolationWorldTransform(transform);
+            ball.setLinearVelocity(Vector3.Zero);
+            ball.setAngularVelocity(Vector3.Zero);
+            ball.setInterpolationLinearVelocity(Vector3.Zero);
+            ball.setInterpolationAngularVelocity(Vector3.Zero);
+            ball.clearForces();
+            ball.forceActivationState(Collision.ACTIVE_TAG);
+            ball.setDeactivationTime(0f);
+            world.addRigidBody(ball, ballLayer.bit, ballMask);
+
+            var radians = candidate.angle * MathUtils.degreesToRadians;
+            var strength = candidate.strength;
+            impulse.set(MathUtils.cos(radians) * strength, config.lift * strength, -MathUtils.sin(radians) * strength);
+            ball.applyCentralImpulse(impulse);
+
+            var hole = course.hole;
+            var radius2 = config.holeRadius * config.holeRadius;
+            var captureY = hole.y + config.captureHeight;
+            for (int step = 0; step < config.maxSteps; step++) {
+                world.stepSimulation(config.timeStep, 0);
+                candidate.steps = step + 1;
+
+                ball.getWorldTransform(transform).getTranslation(position);
+                var dx = position.x - hole.x;
+                var dz = position.z - hole.z;
+                var distance2 = dx * dx + dz * dz;
+                candidate.distance = Math.min(candidate.distance, (float) Math.sqrt(distance2));
+
+                if (distance2 <= radius2 && position.y <= captureY) {
+                    candidate.captured = true;
+                    break;
+                }
+                if (KillVolumes.contains(course.killVolumes, position.x, position.y, position.z)) {
+                    candidate.outOfBounds = true;
+                    break;
+                }
+                if (!ball.isActive()) {
+                    break;
+                }
+            }
+
+            world.removeRigidBody(ball);
+        }
+
+        private void record() {
+            numSteps += candidate.steps;
+            if (candidate.captured) numCaptured++;
+            if (candidate.outOfBounds) numOutOfBounds++;
+
+            var angleBin = Math.min((int) (candidate.angle / 360f * config.angleBins), config.angleBins - 1);
+            var strengthRange = config.maxStrength - config.minStrength;
+            var strengthBin = (strengthRange > 0)
+                    ? Math.min((int) ((candidate.strength - config.minStrength) / strengthRange * config.strengthBins), config.strengthBins - 1)
+                    : 0;
+            var bin = angleBin * config.strengthBins + strengthBin;
+            attempts[bin]++;
+            if (candidate.captured) captures[bin]++;
+
+            // only allocates for candidates that make it into this worker's best list
+            if (best.size < config.numBest) {
+                var copy = new Candidate();
+                copy.set(candidate);
+                best.add(copy);
+                best.sort(bestFirst);
+            } else if (config.numBest > 0 && bestFirst.compare(candidate, best.peek()) < 0) {
+                best.peek().set(candidate);
+                best.sort(bestFirst);
+            }
+        }
+    }
+
+}
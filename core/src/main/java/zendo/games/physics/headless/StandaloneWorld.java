@@ -0,0 +1,132 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.physics.bullet.dynamics.btDiscreteDynamicsWorld;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.physics.bullet.dynamics.btSequentialImpulseConstraintSolver;
+import com.badlogic.gdx.physics.bullet.softbody.btSoftBodyRigidBodyCollisionConfiguration;
+import com.badlogic.gdx.physics.bullet.softbody.btSoftRigidDynamicsWorld;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+
+import static com.badlogic.gdx.physics.bullet.dynamics.btRigidBody.btRigidBodyConstructionInfo;
+
+/**
+ * A dynamics world with its own collision configuration, dispatcher, broadphase and solver,
+ * for simulating outside of the physics system, ie. the benchmarks, the shot solver and validation runs.
+ *
+ * Bodies created through this and anything passed to {@link #own(Disposable)} are disposed along with the world,
+ * objects added with {@link #add(btCollisionObject, CollisionLayers.Layer)} are removed from it first.
+ * NOTE - objects added to the world directly have to be removed by whoever added them
+ */
+public class StandaloneWorld implements Disposable {
+
+    public final btCollisionConfiguration collisionConfig;
+    public final btCollisionDispatcher dispatcher;
+    public final btBroadphaseInterface broadphase;
+    public final btSequentialImpulseConstraintSolver solver;
+    public final btDiscreteDynamicsWorld world;
+    public final CollisionLayers layers = new CollisionLayers();
+
+    private final Array<btCollisionObject> added = new Array<>();
+    private final Array<Disposable> owned = new Array<>();
+
+    /**
+     * A plain rigid body world with a dbvt broadphase
+     */
+    public StandaloneWorld() {
+        this(PhysicsSystem.WorldType.rigid, new btDbvtBroadphase());
+    }
+
+    /**
+     * @param broadphase owned by this world from now on
+     */
+    public StandaloneWorld(PhysicsSystem.WorldType type, btBroadphaseInterface broadphase) {
+        this.broadphase = broadphase;
+        this.collisionConfig = switch (type) {
+            case rigid     -> new btDefaultCollisionConfiguration();
+            case softRigid -> new btSoftBodyRigidBodyCollisionConfiguration();
+        };
+        this.dispatcher = new btCollisionDispatcher(collisionConfig);
+        this.solver = new btSequentialImpulseConstraintSolver();
+        this.world = switch (type) {
+            case rigid     -> new btDiscreteDynamicsWorld(dispatcher, broadphase, solver, collisionConfig);
+            case softRigid -> new btSoftRigidDynamicsWorld(dispatcher, broadphase, solver, collisionConfig);
+        };
+        world.setGravity(new Vector3(0f, PhysicsSystem.GRAVITY, 0f));
+    }
+
+    @Override
+    public void dispose() {
+        for (var object : added) {
+            if (object instanceof btRigidBody body) {
+                world.removeRigidBody(body);
+            } else {
+                world.removeCollisionObject(object);
+            }
+        }
+        added.clear();
+        world.dispose();
+
+        // dispose in reverse so that bodies go before their construction info and shapes
+        for (int i = owned.size - 1; i >= 0; i--) {
+            owned.get(i).dispose();
+        }
+        owned.clear();
+
+        solver.dispose();
+        broadphase.dispose();
+        dispatcher.dispose();
+        collisionConfig.dispose();
+    }
+
+    /**
+     * Dispose the specified object along with this world, after anything owned before it
+     */
+    public <T extends Disposable> T own(T disposable) {
+        owned.add(disposable);
+        return disposable;
+    }
+
+    /**
+     * Create a rigid body owned by this world, without adding it
+     * @param mass zero for a static body
+     */
+    public btRigidBody createBody(float mass, btCollisionShape shape, Matrix4 transform) {
+        var inertia = new Vector3();
+        if (mass > 0) {
+            shape.calculateLocalInertia(mass, inertia);
+        }
+        var info = own(new btRigidBodyConstructionInfo(mass, null, shape, inertia));
+        var body = own(new btRigidBody(info));
+        body.setWorldTransform(transform);
+        return body;
+    }
+
+    /**
+     * Add an object to the world in the specified layer, it's removed again when this world is disposed
+     */
+    public void add(btCollisionObject object, CollisionLayers.Layer layer) {
+        if (object instanceof btRigidBody body) {
+            world.addRigidBody(body, layer.bit, layers.mask(layer));
+        } else {
+            world.addCollisionObject(object, layer.bit, layers.mask(layer));
+        }
+        added.add(object);
+    }
+
+    public void remove(btCollisionObject object) {
+        if (!added.removeValue(object, true)) return;
+
+        if (object instanceof btRigidBody body) {
+            world.removeRigidBody(body);
+        } else {
+            world.removeCollisionObject(object);
+        }
+    }
+
+}
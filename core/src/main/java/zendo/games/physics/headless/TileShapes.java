@@ -0,0 +1,49 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.g3d.loader.G3dModelLoader;
+import com.badlogic.gdx.graphics.g3d.model.data.ModelData;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.ObjectMap;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.providers.CollisionShapeProvider;
+
+/**
+ * Tile collision shapes built straight from the model files' data, for running without graphics.
+ * Each model file is only parsed once, and its bvh is shared by every shape obtained for that model type.
+ */
+public class TileShapes implements Disposable {
+
+    public final CollisionShapeProvider provider;
+
+    private final G3dModelLoader loader = new G3dModelLoader(new JsonReader());
+    private final ObjectMap<MinigolfModels, ModelData> modelData = new ObjectMap<>();
+    private final Vector3 scaling = new Vector3(EntityFactory.TILE_SIZE, EntityFactory.TILE_SIZE, EntityFactory.TILE_SIZE);
+
+    public TileShapes() {
+        this.provider = new CollisionShapeProvider();
+    }
+
+    @Override
+    public void dispose() {
+        provider.dispose();
+        modelData.clear();
+    }
+
+    /**
+     * @return a new scaled shape for a tile of the specified type, owned by the provider
+     */
+    public btCollisionShape obtain(MinigolfModels modelType) {
+        var data = modelData.get(modelType);
+        if (data == null) {
+            data = loader.loadModelData(Gdx.files.internal(modelType.key()));
+            modelData.put(modelType, data);
+        }
+        return provider.obtainScaled(modelType.key(), data, scaling);
+    }
+
+}
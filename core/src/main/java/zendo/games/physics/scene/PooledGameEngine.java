@@ -0,0 +1,143 @@
+package zendo.games.physics.scene;
+
+import com.badlogic.ashley.core.Component;
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.ashley.core.EntitySystem;
+import com.badlogic.ashley.core.PooledEngine;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import zendo.games.physics.Config;
+
+import java.util.WeakHashMap;
+
+/**
+ * A pooled engine that counts how often entities and components are reused rather than allocated.
+ *
+ * Removed entities, and any components that were obtained through {@link #createComponent(Class)},
+ * go back to the engine's pools and are reset when they're next obtained, so only components that implement
+ * {@link com.badlogic.gdx.utils.Pool.Poolable} should be obtained that way.
+ * The pools themselves are private to the engine, so an obtain counts as a miss if the object returned
+ * has never been handed out before. Objects are remembered weakly so that anything the pools discard
+ * beyond their max size can still be collected.
+ * NOTE - a removed entity is reused by the next {@link #createEntity()}, so don't hold on to entities after removing them,
+ *  keep something that can tell a stale reference apart instead, ie. a physics body handle
+ */
+public class PooledGameEngine extends PooledEngine {
+
+    public static class PoolStats {
+        public final String name;
+        public int numObtained;
+        public int numCreated;
+
+        PoolStats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the fraction of obtains that reused a pooled object rather than allocating a new one
+         */
+        public float hitRate() {
+            if (numObtained == 0) return 0f;
+            return 1f - numCreated / (float) numObtained;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + numObtained + " obtained, " + numCreated + " created"
+                 + " (" + Math.round(100f * hitRate()) + "% hit rate)";
+        }
+    }
+
+    public final SystemScheduler scheduler = new SystemScheduler();
+    // the only system the engine runs itself while the scheduler is in use, it runs the rest through the scheduler
+    private final EntitySystem schedulerDriver = new EntitySystem() {
+        @Override
+        public void update(float deltaTime) {
+            scheduler.run(deltaTime);
+        }
+    };
+
+    public final PoolStats entityStats = new PoolStats("Entity");
+    private final ObjectMap<Class<?>, PoolStats> componentStats = new ObjectMap<>();
+
+    // NOTE - entities and the pooled components don't override equals or hashCode, so this is effectively an identity map
+    private final WeakHashMap<Object, Boolean> obtained = new WeakHashMap<>();
+
+    public PooledGameEngine(int initialSize, int maxFree) {
+        super(initialSize, maxFree, initialSize, maxFree);
+        schedulerDriver.setProcessing(false);
+        addSystem(schedulerDriver);
+    }
+
+    /**
+     * Update every system, through the {@link SystemScheduler} if {@link Config.Scheduler#enabled}.
+     * The scheduled systems are run from inside the engine's own update so that entity and component operations
+     * are still delayed until they've all finished, rather than happening while other systems are running.
+     */
+    @Override
+    public void update(float deltaTime) {
+        if (!Config.Scheduler.enabled) {
+            super.update(deltaTime);
+            return;
+        }
+
+        scheduler.parallel = Config.Scheduler.parallel;
+        scheduler.begin(getSystems(), schedulerDriver);
+        schedulerDriver.setProcessing(true);
+        try {
+            super.update(deltaTime);
+        } finally {
+            schedulerDriver.setProcessing(false);
+            scheduler.end();
+        }
+    }
+
+    @Override
+    public void removeAllSystems() {
+        super.removeAllSystems();
+        // the driver belongs to the engine rather than to whichever screen set up the other systems
+        addSystem(schedulerDriver);
+    }
+
+    @Override
+    public Entity createEntity() {
+        var entity = super.createEntity();
+        count(entityStats, entity);
+        return entity;
+    }
+
+    @Override
+    public <T extends Component> T createComponent(Class<T> componentType) {
+        var component = super.createComponent(componentType);
+        var stats = componentStats.get(componentType);
+        if (stats == null) {
+            stats = new PoolStats(componentType.getSimpleName());
+            componentStats.put(componentType, stats);
+        }
+        count(stats, component);
+        return component;
+    }
+
+    /**
+     * Append the stats for entities followed by each pooled component type, one per line
+     */
+    public void describePools(StringBuilder str) {
+        str.append(entityStats);
+        var components = new Array<PoolStats>();
+        for (var stats : componentStats.values()) {
+            components.add(stats);
+        }
+        components.sort((a, b) -> a.name.compareTo(b.name));
+        for (var stats : components) {
+            str.append('\n').append(stats);
+        }
+    }
+
+    private void count(PoolStats stats, Object object) {
+        stats.numObtained++;
+        if (obtained.put(object, Boolean.TRUE) == null) {
+            stats.numCreated++;
+        }
+    }
+
+}
@@ -0,0 +1,382 @@
+package zendo.games.physics.scene;
+
+import com.badlogic.ashley.core.Component;
+import com.badlogic.ashley.core.ComponentType;
+import com.badlogic.ashley.core.EntitySystem;
+import com.badlogic.ashley.utils.ImmutableArray;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Bits;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the engine's systems for a frame as a dependency graph rather than one after another.
+ *
+ * Each system declares the components its update reads and writes through {@link Declared}, along with whether
+ * it has to run on the render thread (gl, scene2d, anything else that isn't thread safe) and whether it's
+ * structural (adds or removes entities or components). Every frame a system depends on each earlier system
+ * (in engine priority order) that it conflicts with, and systems whose dependencies are done are started right away,
+ * render thread systems here and the rest on a fork-join pool, so non-conflicting systems run concurrently.
+ * Systems that don't declare anything are exclusive, they conflict with everything and run on the render thread.
+ *
+ * Entity and component operations are delayed by the engine until every system has run for the frame,
+ * but the engine's queues for them aren't thread safe, which is why structural systems conflict with each other.
+ * The start and end of every system's update are kept for the last {@link #TRACE_FRAMES} frames.
+ * NOTE - driven by {@link PooledGameEngine#update(float)}, only from the render thread
+ * NOTE - pause and resume systems through {@link #setProcessing(EntitySystem, boolean)}, a system's own processing flag
+ *  is turned off while the scheduler runs it, so changing it directly during a frame is overwritten by {@link #end()}
+ */
+public class SystemScheduler implements Disposable {
+
+    // dependencies are bitmasks
+    public static final int MAX_SYSTEMS = 64;
+    public static final int TRACE_FRAMES = 120;
+
+    /**
+     * What a system's update touches, used to work out which systems can run at the same time
+     */
+    public static class Access {
+        private final Bits reads = new Bits();
+        private final Bits writes = new Bits();
+        private boolean renderThread;
+        private boolean structural;
+        private boolean exclusive;
+
+        @SafeVarargs
+        public final Access reads(Class<? extends Component>... types) {
+            for (var type : types) {
+                reads.set(ComponentType.getIndexFor(type));
+            }
+            return this;
+        }
+
+        @SafeVarargs
+        public final Access writes(Class<? extends Component>... types) {
+            for (var type : types) {
+                writes.set(ComponentType.getIndexFor(type));
+            }
+            return this;
+        }
+
+        public Access renderThread() {
+            renderThread = true;
+            return this;
+        }
+
+        public Access structural() {
+            structural = true;
+            return this;
+        }
+
+        public Access exclusive() {
+            exclusive = true;
+            return this;
+        }
+
+        public boolean conflicts(Access other) {
+            if (exclusive || other.exclusive) return true;
+            if (structural && other.structural) return true;
+            return writes.intersects(other.reads)
+                || writes.intersects(other.writes)
+                || reads.intersects(other.writes);
+        }
+    }
+
+    /**
+     * Implemented by systems that declare their access, anything else is scheduled as {@link Access#exclusive()}
+     */
+    public interface Declared {
+        Access access();
+    }
+
+    private static final Access UNDECLARED = new Access().renderThread().exclusive();
+
+    // run systems that don't have to be on the render thread on the pool, or everything on the render thread if false
+    public boolean parallel = true;
+
+    private ForkJoinPool pool;
+    private final SystemTask[] tasks = new SystemTask[MAX_SYSTEMS];
+    // completed worker system indices, small enough that boxing them doesn't allocate
+    private final ArrayBlockingQueue<Integer> completed = new ArrayBlockingQueue<>(MAX_SYSTEMS);
+    private volatile Throwable failure;
+
+    // this frame's graph, rebuilt every frame since systems can be added, removed or paused
+    private final EntitySystem[] systems = new EntitySystem[MAX_SYSTEMS];
+    private final Access[] accesses = new Access[MAX_SYSTEMS];
+    private final long[] dependencies = new long[MAX_SYSTEMS];
+    private int count;
+
+    // whether each taken system should be processing once the frame ends, pause requests made during the frame land here
+    private final boolean[] processing = new boolean[MAX_SYSTEMS];
+    private boolean inFrame;
+
+    // trace of the last TRACE_FRAMES frames, each frame's slot holds up to MAX_SYSTEMS entries
+    private final EntitySystem[] traceSystems = new EntitySystem[TRACE_FRAMES * MAX_SYSTEMS];
+    private final long[] traceStart = new long[TRACE_FRAMES * MAX_SYSTEMS];
+    private final long[] traceEnd = new long[TRACE_FRAMES * MAX_SYSTEMS];
+    private final long[] traceThread = new long[TRACE_FRAMES * MAX_SYSTEMS];
+    private final int[] traceCounts = new int[TRACE_FRAMES];
+    private final long[] frameStart = new long[TRACE_FRAMES];
+    private final long[] frameEnd = new long[TRACE_FRAMES];
+    private int numFrames;
+
+    public SystemScheduler() {
+        for (int i = 0; i < MAX_SYSTEMS; i++) {
+            tasks[i] = new SystemTask(i);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Take the systems that would be processed this frame, ignoring the specified one (ie. the system that drives this)
+     * @return the systems taken, their processing is turned off until {@link #end()} so the engine doesn't run them itself
+     */
+    int begin(ImmutableArray<EntitySystem> engineSystems, EntitySystem ignore) {
+        count = 0;
+        for (int i = 0; i < engineSystems.size(); i++) {
+            var system = engineSystems.get(i);
+            if (system == ignore || !system.checkProcessing()) continue;
+            if (count == MAX_SYSTEMS) {
+                throw new GdxRuntimeException("Too many systems to schedule, max: " + MAX_SYSTEMS);
+            }
+            systems[count] = system;
+            accesses[count] = (system instanceof Declared declared) ? declared.access() : UNDECLARED;
+            processing[count] = true;
+            count++;
+            system.setProcessing(false);
+        }
+        inFrame = true;
+        return count;
+    }
+
+    /**
+     * Hand back the systems taken by {@link #begin}, turning processing back on for those that weren't paused during the frame
+     */
+    void end() {
+        inFrame = false;
+        for (int i = 0; i < count; i++) {
+            systems[i].setProcessing(processing[i]);
+        }
+    }
+
+    /**
+     * Pause or resume a system, safe to call at any time including from a system's update during a scheduled frame.
+     * Systems taken for the current frame have the request recorded and applied by {@link #end()},
+     * anything else has its processing set right away.
+     */
+    public void setProcessing(EntitySystem system, boolean processing) {
+        if (inFrame) {
+            for (int i = 0; i < count; i++) {
+                if (systems[i] == system) {
+                    this.processing[i] = processing;
+                    return;
+                }
+            }
+        }
+        system.setProcessing(processing);
+    }
+
+    /**
+     * Run every system taken by {@link #begin}, returning once they've all finished
+     */
+    void run(float delta) {
+        var frame = numFrames % TRACE_FRAMES;
+        frameStart[frame] = System.nanoTime();
+        traceCounts[frame] = count;
+
+        // an edge from each earlier conflicting system, so edges only go forward and the graph can't have cycles
+        for (int j = 0; j < count; j++) {
+            var mask = 0L;
+            for (int i = 0; i < j; i++) {
+                if (accesses[i].conflicts(accesses[j])) {
+                    mask |= 1L << i;
+                }
+            }
+            dependencies[j] = mask;
+        }
+
+        if (parallel && pool == null) {
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+
+        failure = null;
+        var all = (count == 64) ? -1L : (1L << count) - 1;
+        var started = 0L;
+        var done = 0L;
+        while (done != all) {
+            Integer finished;
+            while ((finished = completed.poll()) != null) {
+                done |= 1L << finished;
+            }
+            if (done == all) break;
+
+            // start ready workers first so they overlap with whatever runs here
+            var renderReady = -1;
+            for (int i = 0; i < count; i++) {
+                var bit = 1L << i;
+                if ((started & bit) != 0 || (dependencies[i] & ~done) != 0) continue;
+
+                if (!parallel || accesses[i].renderThread) {
+                    if (renderReady < 0) {
+                        renderReady = i;
+                    }
+                    continue;
+                }
+                started |= bit;
+                tasks[i].prepare(delta);
+                pool.execute(tasks[i]);
+            }
+
+            if (renderReady >= 0) {
+                started |= 1L << renderReady;
+                runSystem(renderReady, delta);
+                done |= 1L << renderReady;
+                continue;
+            }
+
+            // nothing can run here until a worker finishes
+            try {
+                done |= 1L << completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GdxRuntimeException("Interrupted while waiting for systems to update", e);
+            }
+        }
+
+        frameEnd[frame] = System.nanoTime();
+        numFrames++;
+
+        if (failure != null) {
+            throw new GdxRuntimeException("System update failed", failure);
+        }
+    }
+
+    private void runSystem(int index, float delta) {
+        var slot = (numFrames % TRACE_FRAMES) * MAX_SYSTEMS + index;
+        traceSystems[slot] = systems[index];
+        traceThread[slot] = Thread.currentThread().getId();
+        traceStart[slot] = System.nanoTime();
+        try {
+            systems[index].update(delta);
+        } catch (Throwable t) {
+            // keep going so every started worker is finished before this is rethrown
+            if (failure == null) {
+                failure = t;
+            }
+        }
+        traceEnd[slot] = System.nanoTime();
+    }
+
+    private final class SystemTask extends RecursiveAction {
+        private final int index;
+        private float delta;
+
+        SystemTask(int index) {
+            this.index = index;
+        }
+
+        void prepare(float delta) {
+            this.delta = delta;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            runSystem(index, delta);
+            completed.offer(index);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Reporting
+    // ------------------------------------------------------------------------
+
+    /**
+     * Append the last frame's dependency graph, one system per line with where it ran and what it waited for
+     */
+    public void describeGraph(StringBuilder str) {
+        if (numFrames == 0) {
+            str.append("no frames scheduled");
+            return;
+        }
+        for (int j = 0; j < count; j++) {
+            var access = accesses[j];
+            str.append(j).append(' ').append(systems[j].getClass().getSimpleName())
+               .append((!parallel || access.renderThread) ? " [render" : " [worker")
+               .append(access.structural ? ", structural" : "")
+               .append(access.exclusive ? ", exclusive" : "")
+               .append(']');
+            if (dependencies[j] != 0) {
+                str.append(" after");
+                for (int i = 0; i < j; i++) {
+                    if ((dependencies[j] & (1L << i)) != 0) {
+                        str.append(' ').append(systems[i].getClass().getSimpleName());
+                    }
+                }
+            }
+            if (j < count - 1) {
+                str.append('\n');
+            }
+        }
+    }
+
+    /**
+     * Append when each system started and how long it took in the last frame, relative to the start of the frame
+     */
+    public void describeTrace(StringBuilder str) {
+        if (numFrames == 0) {
+            str.append("no frames scheduled");
+            return;
+        }
+        var frame = (numFrames - 1) % TRACE_FRAMES;
+        var start = frameStart[frame];
+        str.append("frame ").append(numFrames - 1).append(": ")
+           .append((frameEnd[frame] - start) / 1000).append("us for ").append(traceCounts[frame]).append(" systems");
+        for (int i = 0; i < traceCounts[frame]; i++) {
+            var slot = frame * MAX_SYSTEMS + i;
+            str.append("\n  ").append(traceSystems[slot].getClass().getSimpleName())
+               .append(": +").append((traceStart[slot] - start) / 1000).append("us")
+               .append(" took ").append((traceEnd[slot] - traceStart[slot]) / 1000).append("us")
+               .append(" on thread ").append(traceThread[slot]);
+        }
+    }
+
+    /**
+     * Write every traced frame in chrome's trace event format, viewable in chrome://tracing or perfetto
+     */
+    public void writeTrace(FileHandle file) {
+        var str = new StringBuilder("[");
+        var first = true;
+        var frames = Math.min(numFrames, TRACE_FRAMES);
+        var origin = frameStart[(numFrames - frames) % TRACE_FRAMES];
+        for (int n = numFrames - frames; n < numFrames; n++) {
+            var frame = n % TRACE_FRAMES;
+            for (int i = 0; i < traceCounts[frame]; i++) {
+                var slot = frame * MAX_SYSTEMS + i;
+                if (!first) {
+                    str.append(',');
+                }
+                first = false;
+                str.append("\n{\"name\":\"").append(traceSystems[slot].getClass().getSimpleName())
+                   .append("\",\"ph\":\"X\",\"pid\":0,\"tid\":").append(traceThread[slot])
+                   .append(",\"ts\":").append((traceStart[slot] - origin) / 1000)
+                   .append(",\"dur\":").append((traceEnd[slot] - traceStart[slot]) / 1000)
+                   .append(",\"args\":{\"frame\":").append(n).append("}}");
+            }
+        }
+        str.append("\n]\n");
+        file.writeString(str.toString(), false);
+    }
+
+}
@@ -1,9 +1,43 @@
 package zendo.games.physics.scene.components;
 
 import com.badlogic.ashley.core.Component;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * NOTE - obtain these with {@code engine.createComponent(Coord2Component.class).set(x, y)} so they're recycled by the pooled engine
+ */
+public class Coord2Component implements Component, Pool.Poolable {
+
+    private int x;
+    private int y;
+
+    public Coord2Component set(int x, int y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+
+    public int x() {
+        return x;
+    }
+
+    public int y() {
+        return y;
+    }
 
-public record Coord2Component(int x, int y) implements Component {
     public boolean equals(int x, int y) {
         return (this.x == x) && (this.y == y);
     }
+
+    @Override
+    public void reset() {
+        x = 0;
+        y = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Coord2Component[x=" + x + ", y=" + y + "]";
+    }
+
 }
@@ -1,5 +1,32 @@
 package zendo.games.physics.scene.components;
 
 import com.badlogic.ashley.core.Component;
+import com.badlogic.gdx.utils.Pool;
 
-public record NameComponent(String name) implements Component {}
+/**
+ * NOTE - obtain these with {@code engine.createComponent(NameComponent.class).set(name)} so they're recycled by the pooled engine
+ */
+public class NameComponent implements Component, Pool.Poolable {
+
+    private String name;
+
+    public NameComponent set(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void reset() {
+        name = null;
+    }
+
+    @Override
+    public String toString() {
+        return "NameComponent[name=" + name + "]";
+    }
+
+}
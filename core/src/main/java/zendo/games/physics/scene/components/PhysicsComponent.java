@@ -2,15 +2,18 @@ package zendo.games.physics.scene.components;
 
 import com.badlogic.ashley.core.Component;
 import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.physics.bullet.collision.Collision;
 import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
 import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
 import com.badlogic.gdx.physics.bullet.linearmath.btMotionState;
 import com.badlogic.gdx.utils.Disposable;
-import lombok.RequiredArgsConstructor;
-import zendo.games.physics.Game;
-import zendo.games.physics.scene.components.utils.ComponentFamilies;
+import zendo.games.physics.scene.systems.BodyHandles;
+import zendo.games.physics.scene.systems.BodyPools;
+import zendo.games.physics.scene.systems.CcdProfile;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.KillVolumes;
 import zendo.games.physics.scene.systems.PhysicsSystem;
 
 import static com.badlogic.gdx.physics.bullet.collision.btCollisionObject.CollisionFlags;
@@ -19,6 +22,10 @@ import static com.badlogic.gdx.physics.bullet.dynamics.btRigidBody.btRigidBodyCo
 public class PhysicsComponent implements Component, Disposable {
 
     private static final Vector3 localInertia = new Vector3();
+    private static final Vector3 previousPosition = new Vector3();
+    private static final Vector3 currentPosition = new Vector3();
+    private static final Quaternion previousRotation = new Quaternion();
+    private static final Quaternion currentRotation = new Quaternion();
 
     private final MotionState motionState;
     private final btCollisionShape collisionShape;
@@ -27,6 +34,24 @@ public class PhysicsComponent implements Component, Disposable {
     public final btRigidBody rigidBody;
     public float mass;
     public boolean outOfBounds;
+    // the body's collision filter group, its mask comes from the physics system's layer matrix when it's added to the world
+    public CollisionLayers.Layer layer;
+
+    // assigned by the physics system while the owning entity is in the engine, also used as the body's user value
+    public int handle = BodyHandles.INVALID;
+    // assigned by the physics system along with the handle, checked whenever bullet moves the body
+    public KillVolumes killVolumes;
+    // set for components obtained from BodyPools, these are returned to their pool rather than disposed
+    public BodyPools.BodyPool pool;
+    // continuous collision settings, see setCcd()
+    private CcdProfile ccd = CcdProfile.NONE;
+
+    // body configuration after construction, restored when a pooled component is reused
+    private final int initialCollisionFlags;
+    private final int initialContactCallbackFlag;
+    private final int initialContactCallbackFilter;
+    private final int initialActivationState;
+    private final CollisionLayers.Layer initialLayer;
 
     public PhysicsComponent(Matrix4 transform, btCollisionShape collisionShape) {
         this(1f, transform, collisionShape);
@@ -46,20 +71,21 @@ public class PhysicsComponent implements Component, Disposable {
         this.rigidBody = new btRigidBody(constructionInfo);
 
         // configure the rigid body
-        rigidBody.setCollisionFlags(rigidBody.getCollisionFlags() | CollisionFlags.CF_CUSTOM_MATERIAL_CALLBACK);
+        // NOTE - CF_CUSTOM_MATERIAL_CALLBACK is only set by PhysicsSystem.subscribeContacts()
+        //  for bodies that something is actually listening to, since every flagged contact costs a java upcall
 //        rigidBody.setCollisionFlags(rigidBody.getCollisionFlags() | CollisionFlags.CF_KINEMATIC_OBJECT);
 
         // a mass of zero indicates that the body is manually re-oriented
         // so the body's activation state shouldn't be managed by bullet
         if (mass == 0) {
+            layer = CollisionLayers.Layer.course;
             rigidBody.setCollisionFlags(rigidBody.getCollisionFlags() | CollisionFlags.CF_KINEMATIC_OBJECT);
             rigidBody.setActivationState(Collision.DISABLE_DEACTIVATION);
             rigidBody.setContactCallbackFlag(PhysicsSystem.Flags.ground);
             rigidBody.setContactCallbackFilter(0);
         }
         else {
-            var numPhysicsEntities = Game.instance.engine.getEntitiesFor(ComponentFamilies.physics).size();
-            rigidBody.setUserValue(numPhysicsEntities);
+            layer = CollisionLayers.Layer.prop;
             rigidBody.setContactCallbackFlag(PhysicsSystem.Flags.object);
             rigidBody.setContactCallbackFilter(PhysicsSystem.Flags.ground);
         }
@@ -78,12 +104,129 @@ public class PhysicsComponent implements Component, Disposable {
 //        dynamicsWorld.addRigidBody(object.rigidBody);
 
         this.outOfBounds = false;
+
+        this.initialCollisionFlags = rigidBody.getCollisionFlags();
+        this.initialContactCallbackFlag = rigidBody.getContactCallbackFlag();
+        this.initialContactCallbackFilter = rigidBody.getContactCallbackFilter();
+        this.initialActivationState = rigidBody.getActivationState();
+        this.initialLayer = layer;
+    }
+
+    /**
+     * Reset a pooled component for reuse, the body must not be in the world
+     * @param transform the new render transform, also used as the initial physics transform
+     */
+    public void reset(Matrix4 transform) {
+        motionState.transform = transform;
+        motionState.previous.set(transform);
+        motionState.current.set(transform);
+
+        rigidBody.setWorldTransform(transform);
+        rigidBody.setInterpolationWorldTransform(transform);
+        rigidBody.setLinearVelocity(Vector3.Zero);
+        rigidBody.setAngularVelocity(Vector3.Zero);
+        rigidBody.setInterpolationLinearVelocity(Vector3.Zero);
+        rigidBody.setInterpolationAngularVelocity(Vector3.Zero);
+        rigidBody.clearForces();
+
+        rigidBody.setCollisionFlags(initialCollisionFlags);
+        rigidBody.setContactCallbackFlag(initialContactCallbackFlag);
+        rigidBody.setContactCallbackFilter(initialContactCallbackFilter);
+        rigidBody.forceActivationState(initialActivationState);
+        rigidBody.setDeactivationTime(0f);
+
+        setCcd(CcdProfile.NONE);
+        layer = initialLayer;
+
+        outOfBounds = false;
+        handle = BodyHandles.INVALID;
+        killVolumes = null;
     }
 
     public btCollisionShape shape() {
         return collisionShape;
     }
 
+    /**
+     * @return the transform that rendering uses, interpolated between physics steps
+     */
+    public Matrix4 renderTransform() {
+        return motionState.transform;
+    }
+
+    public CcdProfile ccd() {
+        return ccd;
+    }
+
+    /**
+     * Apply continuous collision settings to the body, ie. from {@link CcdProfile#derive}
+     * NOTE - the body shouldn't be in the world, or should only be changed through the physics system
+     */
+    public void setCcd(CcdProfile profile) {
+        ccd = profile;
+        rigidBody.setCcdMotionThreshold(profile.motionThreshold());
+        rigidBody.setCcdSweptSphereRadius(profile.sweptSphereRadius());
+    }
+
+    /**
+     * Save the current physics transform as the previous transform,
+     * called before each fixed physics step so that rendering can interpolate between steps
+     */
+    public void storePreviousTransform() {
+        motionState.previous.set(motionState.current);
+    }
+
+    /**
+     * Update the render transform by blending between the previous and current physics transforms
+     * @param alpha the fraction of a fixed step that has elapsed since the current transform was computed
+     */
+    public void interpolate(float alpha) {
+        var previous = motionState.previous;
+        var current = motionState.current;
+
+        previous.getTranslation(previousPosition);
+        previous.getRotation(previousRotation, true);
+        current.getTranslation(currentPosition);
+        current.getRotation(currentRotation, true);
+
+        previousPosition.lerp(currentPosition, alpha);
+        previousRotation.slerp(currentRotation, alpha);
+        motionState.transform.set(previousPosition, previousRotation);
+    }
+
+    /**
+     * Copy the current physics transform directly to the render transform, without interpolation
+     */
+    public void syncRenderTransform() {
+        motionState.transform.set(motionState.current);
+    }
+
+    /**
+     * Jump straight to the specified physics transform, with nothing to interpolate from, ie. when restoring a snapshot
+     * @param includeRender whether to update the render transform too, only from the render thread
+     */
+    public void restoreTransform(Matrix4 transform, boolean includeRender) {
+        motionState.current.set(transform);
+        motionState.previous.set(transform);
+        if (includeRender) {
+            motionState.transform.set(transform);
+        }
+    }
+
+    /**
+     * Copy the current physics transform into the specified array, used to publish transforms across threads
+     */
+    public void writeCurrentTransform(float[] values, int offset) {
+        System.arraycopy(motionState.current.val, 0, values, offset, 16);
+    }
+
+    /**
+     * Set the render transform from a transform previously written with {@link #writeCurrentTransform(float[], int)}
+     */
+    public void setRenderTransform(float[] values, int offset) {
+        System.arraycopy(values, offset, motionState.transform.val, 0, 16);
+    }
+
     @Override
     public void dispose() {
         motionState.dispose();
@@ -91,26 +234,41 @@ public class PhysicsComponent implements Component, Disposable {
         rigidBody.dispose();
     }
 
-    @RequiredArgsConstructor
     private class MotionState extends btMotionState {
-        final Matrix4 transform;
+        // the render transform, only written from the render thread
+        // NOTE - not final since pooled components are reused with a new render transform
+        Matrix4 transform;
+        // the physics transforms before and after the most recent step
+        final Matrix4 previous;
+        final Matrix4 current;
         final Vector3 translation = new Vector3();
 
+        MotionState(Matrix4 transform) {
+            this.transform = transform;
+            this.previous = new Matrix4(transform);
+            this.current = new Matrix4(transform);
+        }
+
         @Override
         public void getWorldTransform(Matrix4 worldTrans) {
             // called when Bullet needs to know the current transform of an object
-            worldTrans.set(transform);
+            worldTrans.set(current);
         }
 
         @Override
         public void setWorldTransform(Matrix4 worldTrans) {
             // called when Bullet has transformed an object
-            transform.set(worldTrans);
-            transform.getTranslation(translation);
+            // NOTE - the render transform is updated separately by the physics system
+            //  since this may be called from the simulation thread
+            current.set(worldTrans);
 
-            // handle objects that fall out of the world (y pos < threshold)
-            if (translation.y < -10) {
-                PhysicsComponent.this.outOfBounds = true;
+            // queue objects that fall out of the world for removal, only once unless the queue was full
+            var volumes = killVolumes;
+            if (!outOfBounds && volumes != null) {
+                current.getTranslation(translation);
+                if (volumes.contains(translation.x, translation.y, translation.z)) {
+                    outOfBounds = volumes.report(handle);
+                }
             }
         }
     }
@@ -0,0 +1,307 @@
+package zendo.games.physics.scene.components;
+
+import com.badlogic.ashley.core.Component;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btHeightfieldTerrainShape;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A grid of heights that is both a heightfield collision shape and a render mesh.
+ *
+ * The heights live in a direct buffer that bullet reads from in place, so editing a height is all it takes
+ * to change the collision surface, there's no mesh to copy or bvh to rebuild.
+ * The render mesh is split into chunks so that each one can use short indices,
+ * and edits only re-upload the rows of the chunks that they touched.
+ * Sample (x, z) is at (originX + x * cellSize, height, originZ + z * cellSize) in world space.
+ */
+public class TerrainComponent implements Component, Disposable {
+
+    // cells along each side of a render chunk, 65x65 vertices is well inside the limit for short indices
+    public static final int CHUNK_CELLS = 64;
+    // position, normal
+    private static final int FLOATS_PER_VERTEX = 6;
+
+    public final int columns;
+    public final int rows;
+    public final float cellSize;
+    public final float minHeight;
+    public final float maxHeight;
+    public final float originX;
+    public final float originZ;
+
+    // row major (x changes fastest), read directly by the collision shape
+    // NOTE - only write to this from the thread that owns the physics world
+    public final FloatBuffer heights;
+    public final btHeightfieldTerrainShape shape;
+
+    // incremented by every edit, so anything caching the surface can tell when it's stale
+    public volatile int version;
+
+    private static class Chunk {
+        int x0, z0;
+        int width, length;
+        float[] vertices;
+        Mesh mesh;
+    }
+
+    // created on demand by createModel(), so terrain works without a graphics context (ie. headless)
+    private Model model;
+    private Chunk[] chunks;
+    private int chunksX;
+    private int chunksZ;
+
+    // inclusive range of samples edited since the mesh was last updated, empty when min > max
+    private int dirtyMinX = Integer.MAX_VALUE;
+    private int dirtyMinZ = Integer.MAX_VALUE;
+    private int dirtyMaxX = Integer.MIN_VALUE;
+    private int dirtyMaxZ = Integer.MIN_VALUE;
+
+    private final Vector3 normal = new Vector3();
+
+    public TerrainComponent(float originX, float originZ, int columns, int rows, float cellSize,
+                            float minHeight, float maxHeight, float initialHeight) {
+        if (columns < 2 || rows < 2) {
+            throw new GdxRuntimeException("Terrain needs at least 2x2 height samples, got " + columns + "x" + rows);
+        }
+        if (minHeight >= maxHeight) {
+            throw new GdxRuntimeException("Terrain min height " + minHeight + " must be below max height " + maxHeight);
+        }
+
+        this.originX = originX;
+        this.originZ = originZ;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellSize = cellSize;
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+
+        heights = BufferUtils.newFloatBuffer(columns * rows);
+        var height = MathUtils.clamp(initialHeight, minHeight, maxHeight);
+        for (int i = 0; i < columns * rows; i++) {
+            heights.put(i, height);
+        }
+
+        // y up, float data, a height scale of 1 since the heights are stored as they are
+        shape = new btHeightfieldTerrainShape(columns, rows, heights, 1f, minHeight, maxHeight, 1, false);
+        shape.setLocalScaling(new Vector3(cellSize, 1f, cellSize));
+    }
+
+    @Override
+    public void dispose() {
+        if (model != null) {
+            model.dispose();
+            model = null;
+        }
+        shape.dispose();
+    }
+
+    public float width() {
+        return (columns - 1) * cellSize;
+    }
+
+    public float length() {
+        return (rows - 1) * cellSize;
+    }
+
+    public float getHeight(int x, int z) {
+        return heights.get(z * columns + x);
+    }
+
+    /**
+     * Bullet centers a heightfield on its origin, between its min and max heights,
+     * so the body sits in the middle of the terrain rather than at its corner like the model instance does
+     */
+    public Matrix4 bodyTransform(Matrix4 out) {
+        return out.setToTranslation(
+                originX + width() / 2f,
+                (minHeight + maxHeight) / 2f,
+                originZ + length() / 2f);
+    }
+
+    /**
+     * Raise (or lower with a negative amount) the terrain around a world position, falling off smoothly to the radius,
+     * heights are clamped to the min and max that the collision shape was created with
+     * NOTE - must be called from the thread that owns the physics world, since bullet reads the heights while stepping
+     * @return whether any samples were inside the terrain
+     */
+    public boolean sculpt(float worldX, float worldZ, float radius, float amount) {
+        var localX = worldX - originX;
+        var localZ = worldZ - originZ;
+        var minX = Math.max(0, MathUtils.floor((localX - radius) / cellSize));
+        var minZ = Math.max(0, MathUtils.floor((localZ - radius) / cellSize));
+        var maxX = Math.min(columns - 1, MathUtils.ceil((localX + radius) / cellSize));
+        var maxZ = Math.min(rows - 1, MathUtils.ceil((localZ + radius) / cellSize));
+        if (minX > maxX || minZ > maxZ) return false;
+
+        var radius2 = radius * radius;
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int x = minX; x <= maxX; x++) {
+                var dx = x * cellSize - localX;
+                var dz = z * cellSize - localZ;
+                var distance2 = dx * dx + dz * dz;
+                if (distance2 > radius2) continue;
+
+                var falloff = 1f - distance2 / radius2;
+                var index = z * columns + x;
+                var height = heights.get(index) + amount * falloff * falloff;
+                heights.put(index, MathUtils.clamp(height, minHeight, maxHeight));
+            }
+        }
+
+        markDirty(minX, minZ, maxX, maxZ);
+        version++;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // rendering
+    // ------------------------------------------------------------------------
+
+    /**
+     * Build the render meshes from the current heights, the model is owned by this component
+     */
+    public Model createModel(Material material) {
+        if (model != null) return model;
+
+        chunksX = MathUtils.ceil((columns - 1) / (float) CHUNK_CELLS);
+        chunksZ = MathUtils.ceil((rows - 1) / (float) CHUNK_CELLS);
+        chunks = new Chunk[chunksX * chunksZ];
+
+        var builder = new ModelBuilder();
+        builder.begin();
+        for (int cz = 0; cz < chunksZ; cz++) {
+            for (int cx = 0; cx < chunksX; cx++) {
+                var chunk = new Chunk();
+                chunk.x0 = cx * CHUNK_CELLS;
+                chunk.z0 = cz * CHUNK_CELLS;
+                // neighbouring chunks share their edge samples
+                chunk.width = Math.min(CHUNK_CELLS, columns - 1 - chunk.x0) + 1;
+                chunk.length = Math.min(CHUNK_CELLS, rows - 1 - chunk.z0) + 1;
+                chunk.vertices = new float[chunk.width * chunk.length * FLOATS_PER_VERTEX];
+                for (int z = 0; z < chunk.length; z++) {
+                    for (int x = 0; x < chunk.width; x++) {
+                        writeVertex(chunk, x, z);
+                    }
+                }
+
+                var numIndices = (chunk.width - 1) * (chunk.length - 1) * 6;
+                var indices = new short[numIndices];
+                var i = 0;
+                for (int z = 0; z < chunk.length - 1; z++) {
+                    for (int x = 0; x < chunk.width - 1; x++) {
+                        // same diagonal that bullet splits each heightfield cell along
+                        var v00 = (short) (z * chunk.width + x);
+                        var v10 = (short) (v00 + 1);
+                        var v01 = (short) (v00 + chunk.width);
+                        var v11 = (short) (v01 + 1);
+                        indices[i++] = v00; indices[i++] = v01; indices[i++] = v10;
+                        indices[i++] = v10; indices[i++] = v01; indices[i++] = v11;
+                    }
+                }
+
+                chunk.mesh = new Mesh(false, chunk.width * chunk.length, numIndices,
+                        VertexAttribute.Position(), VertexAttribute.Normal());
+                chunk.mesh.setVertices(chunk.vertices);
+                chunk.mesh.setIndices(indices);
+                builder.manage(chunk.mesh);
+
+                builder.node().id = "terrain-" + cx + "-" + cz;
+                builder.part("terrain-" + cx + "-" + cz, chunk.mesh, GL20.GL_TRIANGLES, material);
+                chunks[cz * chunksX + cx] = chunk;
+            }
+        }
+        model = builder.end();
+
+        clearDirty();
+        return model;
+    }
+
+    /**
+     * Upload the vertices of any samples edited since the last update, one row of one chunk at a time
+     * NOTE - must be called from the render thread, heights may be read mid-edit in threaded mode
+     *  but any edit marks its samples dirty again so they're corrected on the next update
+     */
+    public void updateMesh() {
+        if (model == null) return;
+
+        int minX, minZ, maxX, maxZ;
+        synchronized (this) {
+            if (dirtyMinX > dirtyMaxX) return;
+            // normals depend on neighbouring heights, so they change one sample further out than the edit
+            minX = Math.max(0, dirtyMinX - 1);
+            minZ = Math.max(0, dirtyMinZ - 1);
+            maxX = Math.min(columns - 1, dirtyMaxX + 1);
+            maxZ = Math.min(rows - 1, dirtyMaxZ + 1);
+            clearDirty();
+        }
+
+        var chunkMinX = Math.max(0, (minX - 1) / CHUNK_CELLS);
+        var chunkMinZ = Math.max(0, (minZ - 1) / CHUNK_CELLS);
+        var chunkMaxX = Math.min(chunksX - 1, maxX / CHUNK_CELLS);
+        var chunkMaxZ = Math.min(chunksZ - 1, maxZ / CHUNK_CELLS);
+        for (int cz = chunkMinZ; cz <= chunkMaxZ; cz++) {
+            for (int cx = chunkMinX; cx <= chunkMaxX; cx++) {
+                var chunk = chunks[cz * chunksX + cx];
+                var x0 = Math.max(minX, chunk.x0) - chunk.x0;
+                var x1 = Math.min(maxX, chunk.x0 + chunk.width - 1) - chunk.x0;
+                var z0 = Math.max(minZ, chunk.z0) - chunk.z0;
+                var z1 = Math.min(maxZ, chunk.z0 + chunk.length - 1) - chunk.z0;
+                if (x0 > x1 || z0 > z1) continue;
+
+                for (int z = z0; z <= z1; z++) {
+                    for (int x = x0; x <= x1; x++) {
+                        writeVertex(chunk, x, z);
+                    }
+                    var offset = (z * chunk.width + x0) * FLOATS_PER_VERTEX;
+                    chunk.mesh.updateVertices(offset, chunk.vertices, offset, (x1 - x0 + 1) * FLOATS_PER_VERTEX);
+                }
+            }
+        }
+    }
+
+    private void writeVertex(Chunk chunk, int localX, int localZ) {
+        var x = chunk.x0 + localX;
+        var z = chunk.z0 + localZ;
+
+        // central differences, clamped at the edges
+        var left  = getHeight(Math.max(0, x - 1), z);
+        var right = getHeight(Math.min(columns - 1, x + 1), z);
+        var down  = getHeight(x, Math.max(0, z - 1));
+        var up    = getHeight(x, Math.min(rows - 1, z + 1));
+        normal.set(left - right, 2f * cellSize, down - up).nor();
+
+        var i = (localZ * chunk.width + localX) * FLOATS_PER_VERTEX;
+        var vertices = chunk.vertices;
+        vertices[i]     = x * cellSize;
+        vertices[i + 1] = getHeight(x, z);
+        vertices[i + 2] = z * cellSize;
+        vertices[i + 3] = normal.x;
+        vertices[i + 4] = normal.y;
+        vertices[i + 5] = normal.z;
+    }
+
+    private synchronized void markDirty(int minX, int minZ, int maxX, int maxZ) {
+        dirtyMinX = Math.min(dirtyMinX, minX);
+        dirtyMinZ = Math.min(dirtyMinZ, minZ);
+        dirtyMaxX = Math.max(dirtyMaxX, maxX);
+        dirtyMaxZ = Math.max(dirtyMaxZ, maxZ);
+    }
+
+    private void clearDirty() {
+        dirtyMinX = dirtyMinZ = Integer.MAX_VALUE;
+        dirtyMaxX = dirtyMaxZ = Integer.MIN_VALUE;
+    }
+
+}
@@ -1,15 +1,34 @@
 package zendo.games.physics.scene.components;
 
 import com.badlogic.ashley.core.Component;
+import com.badlogic.gdx.utils.Pool;
 import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
 import zendo.games.physics.scene.packs.MinigolfModels;
 
+@NoArgsConstructor
 @AllArgsConstructor
-public class TileComponent implements Component {
+public class TileComponent implements Component, Pool.Poolable {
 
     public int xCoord;
     public int zCoord;
     public float yRotation;
     public MinigolfModels modelType;
 
+    public TileComponent set(int xCoord, int zCoord, float yRotation, MinigolfModels modelType) {
+        this.xCoord = xCoord;
+        this.zCoord = zCoord;
+        this.yRotation = yRotation;
+        this.modelType = modelType;
+        return this;
+    }
+
+    @Override
+    public void reset() {
+        xCoord = 0;
+        zCoord = 0;
+        yRotation = 0f;
+        modelType = null;
+    }
+
 }
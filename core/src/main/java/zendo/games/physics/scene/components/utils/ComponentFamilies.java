@@ -9,4 +9,6 @@ public class ComponentFamilies {
     public static final Family physics        = Family.all(PhysicsComponent.class).get();
     public static final Family coord2         = Family.all(Coord2Component.class).get();
     public static final Family tiles          = Family.all(TileComponent.class).get();
+    public static final Family tileCoords     = Family.all(TileComponent.class, Coord2Component.class).get();
+    public static final Family terrain        = Family.all(TerrainComponent.class).get();
 }
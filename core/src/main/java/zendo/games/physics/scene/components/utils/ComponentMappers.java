@@ -9,4 +9,5 @@ public class ComponentMappers {
     public static final ComponentMapper<PhysicsComponent>       physics       = ComponentMapper.getFor(PhysicsComponent.class);
     public static final ComponentMapper<Coord2Component>        coord2        = ComponentMapper.getFor(Coord2Component.class);
     public static final ComponentMapper<TileComponent>          tiles         = ComponentMapper.getFor(TileComponent.class);
+    public static final ComponentMapper<TerrainComponent>       terrain       = ComponentMapper.getFor(TerrainComponent.class);
 }
@@ -3,16 +3,29 @@ package zendo.games.physics.scene.factories;
 import com.badlogic.ashley.core.Engine;
 import com.badlogic.ashley.core.Entity;
 import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.graphics.g3d.attributes.TextureAttribute;
+import com.badlogic.gdx.graphics.g3d.model.data.ModelData;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
+import com.badlogic.gdx.utils.IntMap;
 import zendo.games.physics.Assets;
 import zendo.games.physics.Game;
 import zendo.games.physics.scene.components.Coord2Component;
 import zendo.games.physics.scene.components.NameComponent;
+import zendo.games.physics.scene.components.ModelInstanceComponent;
 import zendo.games.physics.scene.components.PhysicsComponent;
+import zendo.games.physics.scene.components.TerrainComponent;
 import zendo.games.physics.scene.components.TileComponent;
 import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.providers.CollisionShapeProvider;
 import zendo.games.physics.scene.providers.ModelProvider;
+import zendo.games.physics.scene.systems.CcdProfile;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.PhysicsSystem;
 import zendo.games.physics.scene.systems.ProviderSystem;
 import zendo.games.physics.screens.BaseScreen;
 
@@ -33,7 +46,7 @@ public class EntityFactory {
 
         var entity = engine.createEntity();
         {
-            var name = new NameComponent("floor");
+            var name = engine.createComponent(NameComponent.class).set("floor");
 
             var size = 80f;
             var node = ModelProvider.Node.patch;
@@ -72,7 +85,7 @@ public class EntityFactory {
 
         var entity = engine.createEntity();
         {
-            var name = new NameComponent("origin");
+            var name = engine.createComponent(NameComponent.class).set("origin");
 
             var node = ModelProvider.Node.axes;
             var modelInstance = providers.modelProvider.createModelInstanceComponent(node);
@@ -92,6 +105,8 @@ public class EntityFactory {
 
     private static int numCratesSpawned = 0;
 
+    public static final float CRATE_MASS = 1f;
+
     // TODO - set optional initial position
 
     public static Entity createCrate(Engine engine, Vector3 position) {
@@ -103,7 +118,7 @@ public class EntityFactory {
 
         var entity = engine.createEntity();
         {
-            var name = new NameComponent("crate " + numCratesSpawned++);
+            var name = engine.createComponent(NameComponent.class).set("crate " + numCratesSpawned++);
 
             var node = ModelProvider.Node.cube;
             var modelInstance = providers.modelProvider.createModelInstanceComponent(node);
@@ -117,7 +132,7 @@ public class EntityFactory {
                     .textureDescription.texture = Game.instance.assets.crateTexture;
 
             var collisionShape = providers.collisionShapeProvider.get(Type.box);
-            var physics = new PhysicsComponent(transform, collisionShape);
+            var physics = engine.getSystem(PhysicsSystem.class).pools.obtain(collisionShape, CRATE_MASS, transform);
 
             entity.add(name);
             entity.add(modelInstance);
@@ -135,6 +150,28 @@ public class EntityFactory {
 
     private static int numShotsSpawned = 0;
 
+    public static final float SHOT_MASS = 1f;
+    public static final float SHOT_IMPULSE = 30f;
+    // launch speed plus headroom for rolling down slopes and falling off ramps
+    public static final float SHOT_MAX_SPEED = 1.5f * SHOT_IMPULSE / SHOT_MASS;
+
+    // a profile only depends on its shape through the shape's inner radius, so they're cached by that
+    // rather than by shape, which would keep every disposed shape's profile around
+    private static final IntMap<CcdProfile> shotCcds = new IntMap<>();
+
+    /**
+     * @return the continuous collision profile for shots with the specified shape, derived for the lowest supported tick rate
+     */
+    public static CcdProfile shotCcd(btCollisionShape shape) {
+        var key = Float.floatToIntBits(CcdProfile.innerRadius(shape));
+        var profile = shotCcds.get(key);
+        if (profile == null) {
+            profile = CcdProfile.derive(shape, SHOT_MAX_SPEED, 1f / PhysicsSystem.Stepping.MIN_TICK_RATE);
+            shotCcds.put(key, profile);
+        }
+        return profile;
+    }
+
     private static final Vector3 pickEndPoint = new Vector3();
 
     public static Entity createShot(Engine engine, Camera camera) {
@@ -150,7 +187,7 @@ public class EntityFactory {
 
         var entity = engine.createEntity();
         {
-            var name = new NameComponent("shot " + numShotsSpawned++);
+            var name = engine.createComponent(NameComponent.class).set("shot " + numShotsSpawned++);
 
             // create model instance
             var node = ModelProvider.Node.sphere;
@@ -163,7 +200,7 @@ public class EntityFactory {
 
             // set initial transform
             var scale = 2f;
-            var impulse = 30f;
+            var impulse = SHOT_IMPULSE;
             var pickRay = camera.getPickRay(screenX, screenY);
             pickRay.getEndPoint(pickEndPoint, camera.position.y);
 
@@ -179,11 +216,16 @@ public class EntityFactory {
             transform.setTranslation(position);
 
             // setup physics
+            var physicsSystem = engine.getSystem(PhysicsSystem.class);
             var collisionShape = providers.collisionShapeProvider.get(Type.sphere);
-            var physics = new PhysicsComponent(transform, collisionShape);
-            physics.rigidBody.setUserValue(numShotsSpawned);
-            physics.rigidBody.proceedToTransform(transform);
-            physics.rigidBody.applyCentralImpulse(pickRay.direction.scl(impulse));
+            var physics = physicsSystem.pools.obtain(collisionShape, SHOT_MASS, transform);
+            physics.layer = CollisionLayers.Layer.ball;
+            physics.setCcd(shotCcd(collisionShape));
+
+            // NOTE - the impulse is applied through the physics system so that it doesn't
+            //  touch the body while the world is being stepped on the simulation thread
+            var direction = pickRay.direction;
+            physicsSystem.applyImpulse(physics, direction.x * impulse, direction.y * impulse, direction.z * impulse);
 
             entity.add(name);
             entity.add(modelInstance);
@@ -200,9 +242,17 @@ public class EntityFactory {
         return entity;
     }
 
-    // ------------------------------------------------------------------------
+    /**
+     * Construct pooled physics bodies for crates and shots up front, so that spawning doesn't allocate native objects
+     */
+    public static void warmUpPools(Engine engine, int numCrates, int numShots, int maxFree) {
+        var providers = engine.getSystem(ProviderSystem.class);
+        var pools = engine.getSystem(PhysicsSystem.class).pools;
+        pools.warmUp(providers.collisionShapeProvider.get(Type.box), CRATE_MASS, numCrates, maxFree);
+        pools.warmUp(providers.collisionShapeProvider.get(Type.sphere), SHOT_MASS, numShots, maxFree);
+    }
 
-    private static int numTiles = 0;
+    // ------------------------------------------------------------------------
 
     // TODO - find a better place for this
     public static final float TILE_SIZE = 10f;
@@ -223,8 +273,8 @@ public class EntityFactory {
 
         var entity = engine.createEntity();
         {
-            var name = new NameComponent("Held Tile");
-            var coord = new Coord2Component(tileX, tileY);
+            var name = engine.createComponent(NameComponent.class).set("Held Tile");
+            var coord = engine.createComponent(Coord2Component.class).set(tileX, tileY);
 
             var offset = TILE_SIZE / 2f;
             var x = coord.x() * TILE_SIZE;
@@ -253,34 +303,13 @@ public class EntityFactory {
             ;
 
             // setup physics
-            var key = modelKey.substring(1, modelKey.indexOf('.')) + (numTiles++);
+            // NOTE - the bvh for each model type is built once and shared by all tiles of that type,
+            //  each tile gets its own scaled wrapper around the shared bvh (released in PhysicsSystem.entityRemoved)
             var collisionShape = providers.collisionShapeProvider
-                    .builder(Type.custom, key).model(model).build();
-
-            // make sure collision shape has correct scale
-            collisionShape.setLocalScaling(scaling);
+                    .obtainScaled(modelKey, model, scaling);
+            var physics = createTilePhysics(transform, collisionShape, yRotation);
 
-            var physics = new PhysicsComponent(0f, transform, collisionShape);
-
-            // TODO - make things like this into construction parameters of the physics component
-            // manage the rigidBody translation manually
-            // instead of letting bullet do it with the motion state
-            physics.rigidBody.setMotionState(null);
-
-            // NOTE - exporting a model as z-up orients the model instance correctly,
-            //  but the collision shape built from the model's triangles is still oriented as z-up
-            //  so either the physics body needs to be re-oriented or both physics and model instance do
-            //  easier to do the physics body separately in case we don't need a physics body
-            //  for any particular model
-            // set initial position and orientation of physics body
-            transform = physics.rigidBody.getWorldTransform();
-            transform
-                    .rotate(Vector3.Y, yRotation)
-                    .rotate(Vector3.X, -90f)
-            ;
-            physics.rigidBody.setWorldTransform(transform);
-
-            var tile = new TileComponent(tileX, tileY, yRotation, modelType);
+            var tile = engine.createComponent(TileComponent.class).set(tileX, tileY, yRotation, modelType);
 
             entity.add(name);
             entity.add(coord);
@@ -299,6 +328,103 @@ public class EntityFactory {
         return entity;
     }
 
+    /**
+     * Create a tile with just enough to collide with, no model instance, so this works without a graphics context (ie. headless)
+     * @param collisionShape the tile's scaled collision shape, ie. from {@link CollisionShapeProvider#obtainScaled(String, ModelData, Vector3)}
+     */
+    public static Entity createTileBody(MinigolfModels modelType, Engine engine, btCollisionShape collisionShape, int tileX, int tileY, float yRotation) {
+        var entity = engine.createEntity();
+        {
+            var name = engine.createComponent(NameComponent.class).set("Tile " + tileX + "," + tileY);
+            var coord = engine.createComponent(Coord2Component.class).set(tileX, tileY);
+
+            var offset = TILE_SIZE / 2f;
+            var transform = new Matrix4().setToTranslation(offset + coord.x() * TILE_SIZE, 0, offset + coord.y() * TILE_SIZE);
+            var physics = createTilePhysics(transform, collisionShape, yRotation);
+
+            var tile = engine.createComponent(TileComponent.class).set(tileX, tileY, yRotation, modelType);
+
+            entity.add(name);
+            entity.add(coord);
+            entity.add(physics);
+            entity.add(tile);
+        }
+
+        engine.addEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Create a sculptable terrain with its corner at the specified origin, see {@link TerrainComponent}
+     * @param columns the number of height samples along x
+     * @param rows the number of height samples along z
+     */
+    public static Entity createTerrain(Engine engine, float originX, float originZ, int columns, int rows, float cellSize,
+                                       float minHeight, float maxHeight, float initialHeight) {
+        var entity = engine.createEntity();
+        {
+            var terrain = new TerrainComponent(originX, originZ, columns, rows, cellSize, minHeight, maxHeight, initialHeight);
+
+            var material = new Material(ColorAttribute.createDiffuse(Color.FOREST));
+            var modelInstance = new ModelInstanceComponent(terrain.createModel(material));
+            modelInstance.transform.setToTranslation(originX, 0f, originZ);
+
+            // like tiles, the body is positioned manually since it isn't placed the same way as the model instance
+            var physics = new PhysicsComponent(0f, modelInstance.transform, terrain.shape);
+            physics.rigidBody.setMotionState(null);
+            physics.rigidBody.setWorldTransform(terrain.bodyTransform(new Matrix4()));
+
+            entity.add(engine.createComponent(NameComponent.class).set("terrain"));
+            entity.add(modelInstance);
+            entity.add(physics);
+            entity.add(terrain);
+        }
+        engine.addEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Calculate the physics body transform for a tile, the same as the one that {@link #createTile} gives its body
+     */
+    public static Matrix4 tileBodyTransform(int tileX, int tileY, float yRotation, Matrix4 out) {
+        var offset = TILE_SIZE / 2f;
+        return out.setToTranslation(offset + tileX * TILE_SIZE, 0, offset + tileY * TILE_SIZE)
+                .rotate(Vector3.Y, yRotation)
+                .rotate(Vector3.X, -90f);
+    }
+
+    /**
+     * @return the body transform for a tile centred on the specified position, ie. while it's being moved in the editor
+     */
+    public static Matrix4 tileBodyTransform(Vector3 position, float yRotation, Matrix4 out) {
+        return out.setToTranslation(position)
+                .rotate(Vector3.Y, yRotation)
+                .rotate(Vector3.X, -90f);
+    }
+
+    private static PhysicsComponent createTilePhysics(Matrix4 transform, btCollisionShape collisionShape, float yRotation) {
+        var physics = new PhysicsComponent(0f, transform, collisionShape);
+
+        // TODO - make things like this into construction parameters of the physics component
+        // manage the rigidBody translation manually
+        // instead of letting bullet do it with the motion state
+        physics.rigidBody.setMotionState(null);
+
+        // NOTE - exporting a model as z-up orients the model instance correctly,
+        //  but the collision shape built from the model's triangles is still oriented as z-up
+        //  so either the physics body needs to be re-oriented or both physics and model instance do
+        //  easier to do the physics body separately in case we don't need a physics body
+        //  for any particular model
+        // set initial position and orientation of physics body
+        var bodyTransform = physics.rigidBody.getWorldTransform();
+        bodyTransform
+                .rotate(Vector3.Y, yRotation)
+                .rotate(Vector3.X, -90f)
+        ;
+        physics.rigidBody.setWorldTransform(bodyTransform);
+        return physics;
+    }
+
     // ------------------------------------------------------------------------
 
 }
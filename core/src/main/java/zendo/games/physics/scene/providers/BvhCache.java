@@ -0,0 +1,202 @@
+package zendo.games.physics.scene.providers;
+
+import com.badlogic.gdx.Files;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btBvhTriangleMeshShape;
+import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
+import com.badlogic.gdx.physics.bullet.collision.btOptimizedBvh;
+import com.badlogic.gdx.physics.bullet.collision.btStridingMeshInterface;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Persists optimized bvh data for triangle mesh shapes to a local cache directory
+ * so that subsequent runs can skip rebuilding the bvh for unchanged models.
+ * Cache entries are keyed by a content hash of the source model file plus the mesh scaling,
+ * an entry whose hash doesn't match the current source is silently discarded and rebuilt.
+ */
+public class BvhCache implements Disposable {
+
+    private static final String TAG = BvhCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "cache/bvh/";
+    private static final String EXTENSION = ".bvh";
+    private static final int MAGIC = 0x42564843; // 'BVHC'
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    // deserialized bvhs reference their data 'in place', so the backing buffer
+    // has to be kept alive for as long as the shape that uses it
+    private final ObjectMap<btBvhTriangleMeshShape, ByteBuffer> inPlaceBuffers = new ObjectMap<>();
+
+    public boolean enabled = true;
+
+    @Override
+    public void dispose() {
+        for (var buffer : inPlaceBuffers.values()) {
+            BufferUtils.disposeUnsafeByteBuffer(buffer);
+        }
+        inPlaceBuffers.clear();
+    }
+
+    /**
+     * Build a triangle mesh shape for the specified mesh, loading its bvh from the cache if possible
+     * or building it and writing it to the cache if not
+     * @param name a readable name for the cache entry, ie. the model name
+     * @param source the source file that the mesh was loaded from, used to compute the content hash
+     * @param scaling the scaling applied to the mesh interface
+     * @param meshInterface the triangle mesh to build the shape from
+     * @return a triangle mesh shape with an optimized bvh
+     */
+    public btBvhTriangleMeshShape getOrBuild(String name, FileHandle source, Vector3 scaling, btStridingMeshInterface meshInterface) {
+        if (!enabled || source == null || !source.exists()) {
+            return new btBvhTriangleMeshShape(meshInterface, true, true);
+        }
+
+        var hash = hash(source, scaling);
+        var file = cacheFile(name, hash);
+
+        var shape = load(file, meshInterface);
+        if (shape == null) {
+            removeStaleEntries(name, file);
+            shape = new btBvhTriangleMeshShape(meshInterface, true, true);
+            save(file, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Release any in-place bvh data associated with the specified shape,
+     * must be called after the shape itself has been disposed
+     * @param shape the shape that was returned from {@link #getOrBuild(String, FileHandle, Vector3, btStridingMeshInterface)}
+     */
+    public void free(btCollisionShape shape) {
+        if (!(shape instanceof btBvhTriangleMeshShape bvhShape)) return;
+
+        var buffer = inPlaceBuffers.remove(bvhShape);
+        if (buffer != null) {
+            BufferUtils.disposeUnsafeByteBuffer(buffer);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private btBvhTriangleMeshShape load(FileHandle file, btStridingMeshInterface meshInterface) {
+        if (!file.exists()) return null;
+
+        try {
+            var bytes = file.readBytes();
+            var header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (bytes.length < HEADER_SIZE
+             || header.getInt() != MAGIC
+             || header.getInt() != VERSION) {
+                return null;
+            }
+            var size = header.getInt();
+            if (size != bytes.length - HEADER_SIZE) {
+                return null;
+            }
+
+            var buffer = BufferUtils.newUnsafeByteBuffer(size);
+            buffer.put(bytes, HEADER_SIZE, size);
+            buffer.flip();
+
+            var address = BufferUtils.getUnsafeBufferAddress(buffer);
+            var bvh = btOptimizedBvh.deSerializeInPlace(address, size, false);
+            if (bvh == null) {
+                BufferUtils.disposeUnsafeByteBuffer(buffer);
+                return null;
+            }
+
+            // build the shape without a bvh, then attach the deserialized one
+            var shape = new btBvhTriangleMeshShape(meshInterface, true, false);
+            shape.setOptimizedBvh(bvh);
+            inPlaceBuffers.put(shape, buffer);
+            return shape;
+        } catch (GdxRuntimeException e) {
+            Gdx.app.log(TAG, "Failed to load cached bvh '" + file.path() + "', rebuilding: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(FileHandle file, btBvhTriangleMeshShape shape) {
+        var bvh = shape.getOptimizedBvh();
+        if (bvh == null) return;
+
+        var size = (int) bvh.calculateSerializeBufferSize();
+        var buffer = BufferUtils.newUnsafeByteBuffer(size);
+        try {
+            var address = BufferUtils.getUnsafeBufferAddress(buffer);
+            if (!bvh.serializeInPlace(address, size, false)) {
+                Gdx.app.log(TAG, "Failed to serialize bvh for '" + file.path() + "'");
+                return;
+            }
+
+            var bytes = new byte[HEADER_SIZE + size];
+            var header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(size);
+            buffer.position(0);
+            buffer.get(bytes, HEADER_SIZE, size);
+
+            file.writeBytes(bytes, false);
+        } catch (GdxRuntimeException e) {
+            Gdx.app.log(TAG, "Failed to write cached bvh '" + file.path() + "': " + e.getMessage());
+        } finally {
+            BufferUtils.disposeUnsafeByteBuffer(buffer);
+        }
+    }
+
+    private void removeStaleEntries(String name, FileHandle current) {
+        var dir = Gdx.files.getFileHandle(CACHE_DIR, Files.FileType.Local);
+        if (!dir.exists()) return;
+
+        // NOTE - model names can share a prefix (ie. 'bump-up' and 'bump-up-walls')
+        //  so only match entries where the remainder of the name is just the hash
+        var prefix = name + "-";
+        for (var file : dir.list(EXTENSION)) {
+            var filename = file.nameWithoutExtension();
+            if (!filename.startsWith(prefix)) continue;
+
+            var hash = filename.substring(prefix.length());
+            if (hash.indexOf('-') == -1 && !file.name().equals(current.name())) {
+                file.delete();
+            }
+        }
+    }
+
+    private FileHandle cacheFile(String name, String hash) {
+        return Gdx.files.getFileHandle(CACHE_DIR + name + "-" + hash + EXTENSION, Files.FileType.Local);
+    }
+
+    private static String hash(FileHandle source, Vector3 scaling) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1");
+            digest.update(source.readBytes());
+
+            var scale = ByteBuffer.allocate(3 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            scale.putFloat(scaling.x).putFloat(scaling.y).putFloat(scaling.z);
+            digest.update(scale.array());
+
+            var str = new StringBuilder();
+            for (var b : digest.digest()) {
+                str.append(Character.forDigit((b >> 4) & 0xf, 16));
+                str.append(Character.forDigit(b & 0xf, 16));
+            }
+            return str.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new GdxRuntimeException("Failed to hash bvh source '" + source.path() + "'", e);
+        }
+    }
+
+}
@@ -1,12 +1,18 @@
 package zendo.games.physics.scene.providers;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.g3d.Model;
 import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.model.data.ModelData;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.physics.bullet.collision.*;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.ObjectSet;
 
 import java.util.Objects;
 
@@ -20,6 +26,27 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
 
     private final ObjectMap<Type, btCollisionShape> shapes = new ObjectMap<>();
     private final ObjectMap<String, btCollisionShape> customShapes = new ObjectMap<>();
+    private final ObjectMap<String, SharedShape> sharedShapes = new ObjectMap<>();
+    private final ObjectMap<btCollisionShape, SharedShape> scaledShapes = new ObjectMap<>();
+    private final ObjectMap<btCollisionShape, btTriangleIndexVertexArray> meshInterfaces = new ObjectMap<>();
+
+    public final BvhCache bvhCache = new BvhCache();
+
+    /**
+     * A single triangle mesh + bvh built from a model,
+     * shared by every scaled wrapper shape that references it
+     */
+    private static class SharedShape {
+        final String key;
+        final btBvhTriangleMeshShape shape;
+        int refCount;
+
+        SharedShape(String key, btBvhTriangleMeshShape shape) {
+            this.key = key;
+            this.shape = shape;
+            this.refCount = 0;
+        }
+    }
 
     public CollisionShapeProvider() {
         shapes.put(rect,     new btBox2dShape(new Vector3(10f, 0f, 10f)));
@@ -32,19 +59,28 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
 
     @Override
     public void dispose() {
-        for (var shape : shapes.values()) {
+        // dispose scaled wrappers before the shared shapes they reference
+        for (var shape : scaledShapes.keys()) {
             if (!shape.isDisposed()) {
                 shape.dispose();
             }
         }
-        shapes.clear();
+        scaledShapes.clear();
+        sharedShapes.clear();
 
-        for (var shape : customShapes.values()) {
+        for (var shape : shapes.values()) {
             if (!shape.isDisposed()) {
                 shape.dispose();
             }
         }
+        shapes.clear();
+
+        for (var shape : customShapes.values()) {
+            disposeCustomShape(shape);
+        }
         customShapes.clear();
+
+        bvhCache.dispose();
     }
 
     /**
@@ -71,6 +107,77 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
 
     // ------------------------------------------------------------------------
 
+    /**
+     * Obtain a lightweight scaled shape that wraps the triangle mesh bvh for the specified model.
+     * The bvh is built once per key and shared between all wrappers obtained for that key,
+     * each wrapper must be returned with {@link #release(btCollisionShape)} when it's no longer used
+     * @param key the identifier for the shared shape, ie. the model's asset key
+     * @param model the model to build the shared shape from if it doesn't already exist
+     * @param scaling the local scaling to apply to this wrapper
+     * @return a new scaled shape referencing the shared bvh
+     */
+    public btCollisionShape obtainScaled(String key, Model model, Vector3 scaling) {
+        return obtainScaled(key, model, null, scaling);
+    }
+
+    /**
+     * Obtain a scaled shape like {@link #obtainScaled(String, Model, Vector3)},
+     * building the shared bvh straight from the model's data so that no meshes (or graphics context) are needed
+     */
+    public btCollisionShape obtainScaled(String key, ModelData modelData, Vector3 scaling) {
+        return obtainScaled(key, null, modelData, scaling);
+    }
+
+    private btCollisionShape obtainScaled(String key, Model model, ModelData modelData, Vector3 scaling) {
+        var shared = sharedShapes.get(key);
+        if (shared == null) {
+            var builder = builder(custom, key);
+            if (model != null) {
+                // the key is the model's asset path, if it resolves to a file the bvh can be cached on disk
+                // NOTE - cached bvhs are laid out for the model's mesh parts, so they're not used for model data
+                var source = Gdx.files.internal(key);
+                builder.model(model);
+                if (source.exists()) {
+                    builder.source(source);
+                }
+            } else {
+                builder.modelData(modelData);
+            }
+            var shape = (btBvhTriangleMeshShape) builder.build();
+            shared = new SharedShape(key, shape);
+            sharedShapes.put(key, shared);
+        }
+        shared.refCount++;
+
+        var scaledShape = new btScaledBvhTriangleMeshShape(shared.shape, scaling);
+        scaledShapes.put(scaledShape, shared);
+        return scaledShape;
+    }
+
+    /**
+     * Release a shape previously obtained from one of the obtainScaled() methods.
+     * The shared bvh is disposed once the last wrapper referencing it is released.
+     * Shapes that weren't obtained as scaled wrappers are ignored.
+     * @param shape the scaled shape to release
+     */
+    public void release(btCollisionShape shape) {
+        var shared = scaledShapes.remove(shape);
+        if (shared == null) return;
+
+        if (!shape.isDisposed()) {
+            shape.dispose();
+        }
+
+        shared.refCount--;
+        if (shared.refCount <= 0) {
+            sharedShapes.remove(shared.key);
+            customShapes.remove(shared.key);
+            disposeCustomShape(shared.shape);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
     public CollisionShapeBuilder builder(Type type, String key) {
         return new CollisionShapeBuilder(type, key);
     }
@@ -82,8 +189,11 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
         private final Type type;
         private final String key;
         private final Vector3 halfExtents = new Vector3();
+        private final Vector3 meshScaling = new Vector3(1f, 1f, 1f);
 
         private Model model = null;
+        private ModelData modelData = null;
+        private FileHandle source = null;
         private String nodeId = null;
         private float radius = 0.5f;
         private float height = 1f;
@@ -99,6 +209,28 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
             return this;
         }
 
+        /**
+         * Build a custom shape from unloaded model data rather than a model, ie. when running headless
+         */
+        public CollisionShapeBuilder modelData(ModelData modelData) {
+            this.modelData = modelData;
+            return this;
+        }
+
+        /**
+         * Set the file the model was loaded from, custom shapes with a source
+         * load their bvh from the on-disk cache when the source hasn't changed
+         */
+        public CollisionShapeBuilder source(FileHandle source) {
+            this.source = source;
+            return this;
+        }
+
+        public CollisionShapeBuilder meshScaling(float x, float y, float z) {
+            this.meshScaling.set(x, y, z);
+            return this;
+        }
+
         public CollisionShapeBuilder node(String nodeId) {
             this.nodeId = nodeId;
             return this;
@@ -126,6 +258,14 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
                 case capsule  -> new btCapsuleShape(radius, height);
                 case cylinder -> new btCylinderShape(halfExtents);
                 case custom   -> {
+                    if (model == null && modelData != null) {
+                        var meshInterface = triangleMesh(modelData, nodeId);
+                        meshInterface.setScaling(meshScaling);
+                        var shape = new btBvhTriangleMeshShape(meshInterface, true);
+                        meshInterfaces.put(shape, meshInterface);
+                        customShapes.put(key, shape);
+                        yield shape;
+                    }
                     Objects.requireNonNull(model, "Unable to build collision shape, missing required value 'model'");
 
                     // collect mesh parts from the specified node if there is one
@@ -136,7 +276,17 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
                         }
                     }
 
-                    var shape = new btBvhTriangleMeshShape(meshParts);
+                    btBvhTriangleMeshShape shape;
+                    if (source == null) {
+                        shape = new btBvhTriangleMeshShape(meshParts);
+                        shape.setLocalScaling(meshScaling);
+                    } else {
+                        var meshInterface = new btTriangleIndexVertexArray(meshParts);
+                        meshInterface.setScaling(meshScaling);
+                        shape = bvhCache.getOrBuild(source.nameWithoutExtension(), source, meshScaling, meshInterface);
+                        meshInterfaces.put(shape, meshInterface);
+                    }
+
                     customShapes.put(key, shape);
                     yield shape;
                 }
@@ -146,6 +296,66 @@ public class CollisionShapeProvider implements Provider<btCollisionShape> {
 
     // ------------------------------------------------------------------------
 
+    private void disposeCustomShape(btCollisionShape shape) {
+        if (!shape.isDisposed()) {
+            shape.dispose();
+        }
+
+        // the mesh interface and any cached bvh data have to outlive the shape that references them
+        var meshInterface = meshInterfaces.remove(shape);
+        if (meshInterface != null && !meshInterface.isDisposed()) {
+            meshInterface.dispose();
+        }
+        bvhCache.free(shape);
+    }
+
+    /**
+     * Copy the triangles out of the model data's mesh parts, optionally only those used by the specified node
+     */
+    private static btTriangleMesh triangleMesh(ModelData modelData, String nodeId) {
+        ObjectSet<String> partIds = null;
+        if (nodeId != null) {
+            partIds = new ObjectSet<>();
+            for (var node : modelData.nodes) {
+                if (!nodeId.equals(node.id) || node.parts == null) continue;
+                for (var part : node.parts) {
+                    partIds.add(part.meshPartId);
+                }
+            }
+        }
+
+        var mesh = new btTriangleMesh();
+        var v0 = new Vector3();
+        var v1 = new Vector3();
+        var v2 = new Vector3();
+        for (var modelMesh : modelData.meshes) {
+            var attributes = new VertexAttributes(modelMesh.attributes);
+            var position = attributes.findByUsage(VertexAttributes.Usage.Position);
+            if (position == null) continue;
+
+            var stride = attributes.vertexSize / Float.BYTES;
+            var offset = position.offset / Float.BYTES;
+            var vertices = modelMesh.vertices;
+            for (var part : modelMesh.parts) {
+                if (part.primitiveType != GL20.GL_TRIANGLES) continue;
+                if (partIds != null && !partIds.contains(part.id)) continue;
+
+                var indices = part.indices;
+                for (int i = 0; i + 2 < indices.length; i += 3) {
+                    vertex(v0, vertices, (indices[i]     & 0xffff) * stride + offset);
+                    vertex(v1, vertices, (indices[i + 1] & 0xffff) * stride + offset);
+                    vertex(v2, vertices, (indices[i + 2] & 0xffff) * stride + offset);
+                    mesh.addTriangle(v0, v1, v2);
+                }
+            }
+        }
+        return mesh;
+    }
+
+    private static void vertex(Vector3 out, float[] vertices, int index) {
+        out.set(vertices[index], vertices[index + 1], vertices[index + 2]);
+    }
+
     private void throwIfKeyInUse(String key) {
         if (customShapes.containsKey(key)) {
             throw new GdxRuntimeException("Failed to create collision shape, key '" + key + "' is already in use");
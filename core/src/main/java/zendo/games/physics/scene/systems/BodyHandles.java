@@ -0,0 +1,124 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+/**
+ * Maps physics bodies to their entities through dense generational int handles.
+ *
+ * A handle packs a slot index in its low bits and that slot's generation in its high bits,
+ * it's stored as the body's user value so native callbacks and queries can get back to the entity in O(1).
+ * Slots are reused after removal, bumping the generation so that stale handles to a reused slot are rejected.
+ */
+public class BodyHandles implements ContactEvents.EntityLookup {
+
+    public static final int INVALID = 0;
+
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+
+    private Entity[] entities;
+    private int[] generations;
+    private int[] freeSlots;
+    private int numFreeSlots;
+    private int numSlots;
+    private int count;
+
+    public BodyHandles() {
+        this(64);
+    }
+
+    public BodyHandles(int initialCapacity) {
+        entities = new Entity[initialCapacity];
+        generations = new int[initialCapacity];
+        freeSlots = new int[initialCapacity];
+    }
+
+    /**
+     * Allocate a handle for the specified entity
+     * @return the new handle, never {@link #INVALID}
+     */
+    public int create(Entity entity) {
+        int index;
+        if (numFreeSlots > 0) {
+            index = freeSlots[--numFreeSlots];
+        } else {
+            if (numSlots == INDEX_MASK) {
+                throw new GdxRuntimeException("Out of body handles, max: " + INDEX_MASK);
+            }
+            index = numSlots++;
+            ensureCapacity(numSlots);
+        }
+
+        // generation zero is never used so that a zeroed user value is always invalid
+        if (generations[index] == 0) {
+            generations[index] = 1;
+        }
+        entities[index] = entity;
+        count++;
+
+        return (generations[index] << INDEX_BITS) | index;
+    }
+
+    /**
+     * Release the specified handle, its slot will be reused by a later {@link #create(Entity)}
+     * @return the entity the handle referred to, or null if the handle was already stale
+     */
+    public Entity remove(int handle) {
+        if (!isValid(handle)) return null;
+
+        var index = handle & INDEX_MASK;
+        var entity = entities[index];
+        entities[index] = null;
+
+        var generation = (generations[index] + 1) & GENERATION_MASK;
+        generations[index] = (generation == 0) ? 1 : generation;
+
+        if (numFreeSlots == freeSlots.length) {
+            var newFreeSlots = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+            freeSlots = newFreeSlots;
+        }
+        freeSlots[numFreeSlots++] = index;
+        count--;
+
+        return entity;
+    }
+
+    public boolean isValid(int handle) {
+        if (handle == INVALID) return false;
+
+        var index = handle & INDEX_MASK;
+        var generation = (handle >>> INDEX_BITS) & GENERATION_MASK;
+        return index < numSlots
+            && generations[index] == generation
+            && entities[index] != null;
+    }
+
+    /**
+     * @return the entity for the specified handle, or null if the handle is invalid or stale
+     */
+    @Override
+    public Entity get(int handle) {
+        if (!isValid(handle)) return null;
+        return entities[handle & INDEX_MASK];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (entities.length >= capacity) return;
+
+        var newCapacity = Math.max(capacity, entities.length * 2);
+        var newEntities = new Entity[newCapacity];
+        var newGenerations = new int[newCapacity];
+        System.arraycopy(entities, 0, newEntities, 0, entities.length);
+        System.arraycopy(generations, 0, newGenerations, 0, generations.length);
+        entities = newEntities;
+        generations = newGenerations;
+    }
+
+}
@@ -0,0 +1,167 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.physics.bullet.collision.btCollisionShape;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+import zendo.games.physics.scene.components.PhysicsComponent;
+
+/**
+ * Pools of pre-constructed physics components (motion state, construction info and rigid body)
+ * for frequently spawned objects, one pool for each combination of shared collision shape and mass.
+ *
+ * Components obtained from a pool are returned to it by {@link PhysicsSystem#entityRemoved} instead of being disposed,
+ * then reset when they're next obtained. Each pool keeps at most {@link BodyPool#maxFree} free components,
+ * anything freed beyond that high-water mark is disposed.
+ * Components are freed on the thread that steps the world, so access is synchronized.
+ */
+public class BodyPools implements Disposable {
+
+    public static class BodyPool {
+        public final btCollisionShape shape;
+        public final float mass;
+        public int maxFree;
+
+        // stats
+        public int numCreated;
+        public int numObtained;
+        public int numMisses;
+        public int numDiscarded;
+        public int numInUse;
+        public int peakInUse;
+
+        private final Array<PhysicsComponent> free = new Array<>(false, 16);
+
+        BodyPool(btCollisionShape shape, float mass, int maxFree) {
+            this.shape = shape;
+            this.mass = mass;
+            this.maxFree = maxFree;
+        }
+
+        public int numFree() {
+            return free.size;
+        }
+
+        /**
+         * @return the fraction of obtains that were served from the pool rather than constructing a new component
+         */
+        public float hitRate() {
+            if (numObtained == 0) return 0f;
+            return 1f - numMisses / (float) numObtained;
+        }
+
+        private PhysicsComponent create() {
+            var component = new PhysicsComponent(mass, new Matrix4(), shape);
+            component.pool = this;
+            numCreated++;
+            return component;
+        }
+    }
+
+    public int defaultMaxFree = 128;
+
+    private final ObjectMap<btCollisionShape, Array<BodyPool>> pools = new ObjectMap<>();
+
+    @Override
+    public synchronized void dispose() {
+        for (var list : pools.values()) {
+            for (var pool : list) {
+                for (var component : pool.free) {
+                    component.dispose();
+                }
+                pool.free.clear();
+            }
+        }
+        pools.clear();
+    }
+
+    /**
+     * Get the pool for the specified shape and mass, creating it if necessary
+     */
+    public synchronized BodyPool get(btCollisionShape shape, float mass) {
+        var list = pools.get(shape);
+        if (list == null) {
+            list = new Array<>(false, 2);
+            pools.put(shape, list);
+        }
+        for (var pool : list) {
+            if (pool.mass == mass) {
+                return pool;
+            }
+        }
+        var pool = new BodyPool(shape, mass, defaultMaxFree);
+        list.add(pool);
+        return pool;
+    }
+
+    /**
+     * Construct components up front so that the first spawns don't have to
+     * @param count the number of free components the pool should hold afterwards
+     * @param maxFree the high-water mark for free components in this pool
+     */
+    public synchronized BodyPool warmUp(btCollisionShape shape, float mass, int count, int maxFree) {
+        var pool = get(shape, mass);
+        pool.maxFree = Math.max(maxFree, count);
+        while (pool.free.size < count) {
+            pool.free.add(pool.create());
+        }
+        return pool;
+    }
+
+    /**
+     * Get a component for the specified shape and mass, reused from the pool if one is free,
+     * reset to the specified transform with no velocity and its default flags
+     * @param transform the render transform for the component, ie. the model instance transform
+     */
+    public synchronized PhysicsComponent obtain(btCollisionShape shape, float mass, Matrix4 transform) {
+        var pool = get(shape, mass);
+        PhysicsComponent component;
+        if (pool.free.isEmpty()) {
+            component = pool.create();
+            pool.numMisses++;
+        } else {
+            component = pool.free.pop();
+        }
+        component.reset(transform);
+
+        pool.numObtained++;
+        pool.numInUse++;
+        pool.peakInUse = Math.max(pool.peakInUse, pool.numInUse);
+        return component;
+    }
+
+    /**
+     * Return a component to its pool, the body must already have been removed from the world
+     * @return false if the component was disposed rather than pooled
+     */
+    synchronized boolean free(PhysicsComponent component) {
+        var pool = component.pool;
+        pool.numInUse--;
+        if (pool.free.size >= pool.maxFree) {
+            pool.numDiscarded++;
+            component.dispose();
+            return false;
+        }
+        pool.free.add(component);
+        return true;
+    }
+
+    public synchronized void describe(StringBuilder str) {
+        for (var list : pools.values()) {
+            for (var pool : list) {
+                str.append(pool.shape.getClass().getSimpleName())
+                   .append(" (mass ").append(pool.mass).append(")")
+                   .append(": in use ").append(pool.numInUse)
+                   .append(", peak ").append(pool.peakInUse)
+                   .append(", free ").append(pool.free.size).append("/").append(pool.maxFree)
+                   .append(", obtained ").append(pool.numObtained)
+                   .append(", created ").append(pool.numCreated)
+                   .append(", hit rate ").append(Math.round(pool.hitRate() * 100f)).append("%")
+                   .append(", discarded ").append(pool.numDiscarded)
+                   .append('\n');
+            }
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+
+/**
+ * Continuous collision detection settings for a body, so that fast bodies can't tunnel through thin geometry.
+ *
+ * Bullet sweeps a sphere of the swept sphere radius along a body's motion whenever the body moves further than
+ * the motion threshold in a single step, and stops the body at the first hit. The sphere should fit inside the body's shape,
+ * otherwise the sweep stops the body short of things that the shape itself wouldn't touch.
+ * A motion threshold of zero disables it.
+ */
+public record CcdProfile(float motionThreshold, float sweptSphereRadius) {
+
+    public static final CcdProfile NONE = new CcdProfile(0f, 0f);
+
+    // the sweep only kicks in once a body moves more than this fraction of its inner radius in a step
+    // since anything slower will always be caught by the discrete collision test the step after it touches
+    private static final float THRESHOLD_SCALE = 0.5f;
+    // keep the sweep inside the shape so it doesn't catch on things the shape wouldn't
+    private static final float RADIUS_SCALE = 0.9f;
+
+    public boolean enabled() {
+        return motionThreshold > 0f;
+    }
+
+    /**
+     * Derive a profile from the largest sphere that fits inside the shape and how fast the body can go,
+     * bodies that can never move far enough in one step to tunnel get {@link #NONE}
+     * @param maxSpeed the expected maximum speed of the body in units per second
+     * @param timeStep the longest fixed step the body will be simulated with, ie. at the lowest tick rate
+     */
+    public static CcdProfile derive(btCollisionShape shape, float maxSpeed, float timeStep) {
+        var innerRadius = innerRadius(shape);
+        var threshold = THRESHOLD_SCALE * innerRadius;
+        if (innerRadius <= 0f || maxSpeed * timeStep <= threshold) {
+            return NONE;
+        }
+        return new CcdProfile(threshold, RADIUS_SCALE * innerRadius);
+    }
+
+    /**
+     * @return the radius of the largest sphere centred on the shape's origin that fits inside it, approximately for non primitive shapes
+     */
+    public static float innerRadius(btCollisionShape shape) {
+        if (shape instanceof btSphereShape sphere) {
+            return sphere.getRadius();
+        } else if (shape instanceof btCapsuleShape capsule) {
+            return capsule.getRadius();
+        } else if (shape instanceof btBoxShape box) {
+            var halfExtents = box.getHalfExtentsWithMargin();
+            return Math.min(halfExtents.x, Math.min(halfExtents.y, halfExtents.z));
+        } else if (shape instanceof btCylinderShape cylinder) {
+            var halfExtents = cylinder.getHalfExtentsWithMargin();
+            return Math.min(cylinder.getRadius(), halfExtents.y);
+        }
+
+        // fall back to half the bounding sphere, which is close enough for roughly round shapes
+        var radius = shape.getBoundingSphere(center);
+        return 0.5f * radius;
+    }
+
+    private static final Vector3 center = new Vector3();
+
+}
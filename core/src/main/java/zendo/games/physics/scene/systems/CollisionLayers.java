@@ -0,0 +1,80 @@
+package zendo.games.physics.scene.systems;
+
+/**
+ * Named collision layers and the matrix of which layer pairs can collide,
+ * passed to bullet as each body's collision filter group and mask when it's added to the world.
+ * Pairs that are filtered out here never make it into the broadphase pair cache, let alone the narrowphase.
+ *
+ * NOTE - changes to the matrix only apply to bodies added to the world afterwards
+ */
+public class CollisionLayers {
+
+    public enum Layer {
+          course    // tiles and the floor, static or manually positioned
+        , prop      // dynamic scenery, ie. crates
+        , ball      // shots and golf balls
+        , trigger   // volumes that detect bodies without blocking them
+        ;
+
+        public final short bit;
+
+        Layer() {
+            this.bit = (short) (1 << ordinal());
+        }
+    }
+
+    private final short[] masks = new short[Layer.values().length];
+
+    public CollisionLayers() {
+        // course pieces never need to collide with each other, they're all static and always overlap their neighbours
+        collide(Layer.course, Layer.course,  false);
+        collide(Layer.course, Layer.prop,    true);
+        collide(Layer.course, Layer.ball,    true);
+        collide(Layer.course, Layer.trigger, false);
+
+        collide(Layer.prop, Layer.prop,    true);
+        collide(Layer.prop, Layer.ball,    true);
+        collide(Layer.prop, Layer.trigger, true);
+
+        collide(Layer.ball, Layer.ball,    true);
+        collide(Layer.ball, Layer.trigger, true);
+
+        collide(Layer.trigger, Layer.trigger, false);
+    }
+
+    /**
+     * Set whether bodies in the specified layers collide with each other, the matrix is always symmetric
+     */
+    public void collide(Layer a, Layer b, boolean collides) {
+        if (collides) {
+            masks[a.ordinal()] |= b.bit;
+            masks[b.ordinal()] |= a.bit;
+        } else {
+            masks[a.ordinal()] &= (short) ~b.bit;
+            masks[b.ordinal()] &= (short) ~a.bit;
+        }
+    }
+
+    public boolean collides(Layer a, Layer b) {
+        return (masks[a.ordinal()] & b.bit) != 0;
+    }
+
+    /**
+     * @return the collision filter mask for bodies in the specified layer
+     */
+    public short mask(Layer layer) {
+        return masks[layer.ordinal()];
+    }
+
+    /**
+     * @return a filter mask matching any of the specified layers, ie. for queries
+     */
+    public static short maskOf(Layer... layers) {
+        var mask = 0;
+        for (var layer : layers) {
+            mask |= layer.bit;
+        }
+        return (short) mask;
+    }
+
+}
@@ -0,0 +1,288 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btDispatcher;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * Contact events recorded during a physics step and dispatched to subscribers afterwards.
+ *
+ * The contact callback only copies primitive values into fixed size ring buffers,
+ * then the buffer is drained once per tick and each contact is handed to the subscribers
+ * of the bodies involved through a single reused {@link Contact} instance, so nothing is allocated per contact.
+ * The ring buffer has a single writer (the thread stepping the world) and a single reader,
+ * so the write and read indices are all that's needed to hand contacts across threads.
+ * Contacts are added before the solver runs, so they're held back until {@link #publish(btDispatcher)}
+ * fills in the impulse the solver applied to each of them once the step is done,
+ * the held back contacts are indexed by body pair so each manifold in the world costs a single lookup.
+ */
+public class ContactEvents {
+
+    public static class Contact {
+        public Entity entity;
+        public Entity other;
+        public int partId;
+        public int otherPartId;
+        // the impulse the solver applied at the contact point in the step it was added
+        public float impulse;
+        public final Vector3 point = new Vector3();
+    }
+
+    @FunctionalInterface
+    public interface Subscriber {
+        /**
+         * Called once per recorded contact involving the subscribed entity
+         * @param contact the contact details, only valid for the duration of this call
+         */
+        void onContact(Contact contact);
+    }
+
+    @FunctionalInterface
+    public interface EntityLookup {
+        Entity get(int handle);
+    }
+
+    private static final int MATCH_0 = 1;
+    private static final int MATCH_1 = 1 << 1;
+
+    private final int capacity;
+    private final int mask;
+
+    private final int[] handle0;
+    private final int[] handle1;
+    private final int[] partId0;
+    private final int[] partId1;
+    private final int[] matches;
+    private final float[] impulses;
+    private final float[] points;
+
+    // pending contacts by body pair, each pair's slots are chained through 'next'
+    private final LongMap<Integer> pendingPairs = new LongMap<>();
+    private final int[] next;
+    // boxed slot indices, so indexing pending contacts doesn't allocate
+    private final Integer[] slots;
+
+    private volatile int writeIndex;
+    private volatile int readIndex;
+    // contacts recorded during the current step, past the write index until they're published
+    private int pendingIndex;
+
+    // contacts that arrived while the buffer was full
+    public int numDropped;
+
+    private final IntMap<Array<Subscriber>> subscribers = new IntMap<>();
+    private final Contact contact = new Contact();
+
+    public ContactEvents() {
+        this(4096);
+    }
+
+    /**
+     * @param capacity the max number of contacts held between drains, rounded up to a power of two
+     */
+    public ContactEvents(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+
+        handle0    = new int[this.capacity];
+        handle1    = new int[this.capacity];
+        partId0    = new int[this.capacity];
+        partId1    = new int[this.capacity];
+        matches    = new int[this.capacity];
+        impulses   = new float[this.capacity];
+        points     = new float[this.capacity * 3];
+        next       = new int[this.capacity];
+
+        slots = new Integer[this.capacity];
+        for (int i = 0; i < this.capacity; i++) {
+            slots[i] = i;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // subscriptions
+    // ------------------------------------------------------------------------
+
+    public boolean hasSubscribers(int handle) {
+        return subscribers.containsKey(handle);
+    }
+
+    /**
+     * @return true if this is the first subscriber for the specified body
+     */
+    boolean subscribe(int handle, Subscriber subscriber) {
+        var list = subscribers.get(handle);
+        var isFirst = (list == null);
+        if (isFirst) {
+            list = new Array<>(false, 2);
+            subscribers.put(handle, list);
+        }
+        list.add(subscriber);
+        return isFirst;
+    }
+
+    /**
+     * @return true if the specified body no longer has any subscribers
+     */
+    boolean unsubscribe(int handle, Subscriber subscriber) {
+        var list = subscribers.get(handle);
+        if (list == null) return false;
+
+        list.removeValue(subscriber, true);
+        if (list.isEmpty()) {
+            subscribers.remove(handle);
+            return true;
+        }
+        return false;
+    }
+
+    void unsubscribeAll(int handle) {
+        subscribers.remove(handle);
+    }
+
+    // ------------------------------------------------------------------------
+    // writer (called from the contact callback while stepping)
+    // ------------------------------------------------------------------------
+
+    void record(int handle0, int partId0, boolean match0,
+                int handle1, int partId1, boolean match1,
+                float x, float y, float z) {
+        var write = pendingIndex;
+        if (write - readIndex >= capacity) {
+            numDropped++;
+            return;
+        }
+
+        var i = write & mask;
+        this.handle0[i] = handle0;
+        this.handle1[i] = handle1;
+        this.partId0[i] = partId0;
+        this.partId1[i] = partId1;
+        this.matches[i] = (match0 ? MATCH_0 : 0) | (match1 ? MATCH_1 : 0);
+        this.impulses[i] = 0f;
+        this.points[3 * i]     = x;
+        this.points[3 * i + 1] = y;
+        this.points[3 * i + 2] = z;
+
+        var key = pairKey(handle0, handle1);
+        var first = pendingPairs.get(key);
+        this.next[i] = (first != null) ? first : -1;
+        pendingPairs.put(key, slots[i]);
+
+        pendingIndex = write + 1;
+    }
+
+    // the same key whichever way round the bodies are
+    private static long pairKey(int handleA, int handleB) {
+        var lo = Math.min(handleA, handleB);
+        var hi = Math.max(handleA, handleB);
+        return ((long) lo << 32) | (hi & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Fill in the impulses for the contacts recorded during the step that just finished, then hand them to the reader.
+     * Each contact takes the applied impulse of the nearest point in its pair's manifold,
+     * after a step with several substeps that's the impulse from the last substep.
+     * NOTE - called by the thread stepping the world, after each call to stepSimulation
+     */
+    void publish(btDispatcher dispatcher) {
+        var write = writeIndex;
+        var pending = pendingIndex;
+        if (pending == write) return;
+
+        var numManifolds = dispatcher.getNumManifolds();
+        for (int m = 0; m < numManifolds; m++) {
+            var manifold = dispatcher.getManifoldByIndexInternal(m);
+            var numPoints = manifold.getNumContacts();
+            if (numPoints == 0) continue;
+
+            var body0 = manifold.getBody0().getUserValue();
+            var body1 = manifold.getBody1().getUserValue();
+            var first = pendingPairs.get(pairKey(body0, body1));
+            if (first == null) continue;
+
+            for (int i = first; i != -1; i = next[i]) {
+                var swapped = (handle0[i] != body0);
+
+                // the recorded point is on the callback's second body, which is the manifold's first if they're swapped
+                var nearest = Float.MAX_VALUE;
+                for (int j = 0; j < numPoints; j++) {
+                    var point = manifold.getContactPoint(j);
+                    if (swapped) {
+                        point.getPositionWorldOnA(position);
+                    } else {
+                        point.getPositionWorldOnB(position);
+                    }
+                    var dist2 = position.dst2(points[3 * i], points[3 * i + 1], points[3 * i + 2]);
+                    if (dist2 < nearest) {
+                        nearest = dist2;
+                        impulses[i] = point.getAppliedImpulse();
+                    }
+                }
+            }
+        }
+
+        pendingPairs.clear();
+
+        // publish only after the slots are fully written
+        writeIndex = pending;
+    }
+
+    private final Vector3 position = new Vector3();
+
+    // ------------------------------------------------------------------------
+    // reader
+    // ------------------------------------------------------------------------
+
+    /**
+     * Hand every contact recorded since the last drain to the subscribers of the bodies involved
+     * @param lookup resolves a body handle to its entity
+     * @return the number of contacts drained
+     */
+    public int drain(EntityLookup lookup) {
+        var read = readIndex;
+        var write = writeIndex;
+        var count = write - read;
+
+        for (; read != write; read++) {
+            var i = read & mask;
+            var match = matches[i];
+
+            if ((match & MATCH_0) != 0) {
+                dispatch(lookup, handle0[i], partId0[i], handle1[i], partId1[i], i);
+            }
+            if ((match & MATCH_1) != 0) {
+                dispatch(lookup, handle1[i], partId1[i], handle0[i], partId0[i], i);
+            }
+        }
+
+        readIndex = write;
+        return count;
+    }
+
+    private void dispatch(EntityLookup lookup, int self, int selfPartId, int other, int otherPartId, int index) {
+        var list = subscribers.get(self);
+        if (list == null) return;
+
+        var entity = lookup.get(self);
+        if (entity == null) return;
+
+        contact.entity = entity;
+        contact.other = lookup.get(other);
+        contact.partId = selfPartId;
+        contact.otherPartId = otherPartId;
+        contact.impulse = impulses[index];
+        contact.point.set(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
+
+        for (int j = 0; j < list.size; j++) {
+            list.get(j).onContact(contact);
+        }
+
+        contact.entity = null;
+        contact.other = null;
+    }
+
+}
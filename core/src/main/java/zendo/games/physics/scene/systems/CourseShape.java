@@ -0,0 +1,163 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.btCompoundShape;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import zendo.games.physics.scene.components.PhysicsComponent;
+import zendo.games.physics.scene.factories.EntityFactory;
+
+import static com.badlogic.gdx.physics.bullet.dynamics.btRigidBody.btRigidBodyConstructionInfo;
+
+/**
+ * All of the course tiles merged into the children of a single compound shape on a single static body,
+ * so the whole course is one broadphase proxy rather than one per tile.
+ *
+ * Tiles are added, moved and removed as individual children, the compound's dynamic aabb tree
+ * is updated incrementally so nothing is ever rebuilt from scratch. Bullet removes a child by moving
+ * the last child into its slot, the child arrays here mirror that so any tile's child index is known in O(1).
+ * NOTE - only accessed from the thread that owns the world, except {@link #tileAt(float, float)} which is read under the world lock
+ */
+public class CourseShape implements Disposable {
+
+    /**
+     * The course body's user value, distinguishes it from bodies with handles
+     */
+    public static final int USER_VALUE = -1;
+
+    private final btCompoundShape compound;
+    private final btRigidBodyConstructionInfo constructionInfo;
+    public final btRigidBody body;
+
+    // parallel to the compound's children
+    private final Array<PhysicsComponent> children = new Array<>();
+    // packed tile coordinates, see TileIndex#key(int, int)
+    private final LongArray childKeys = new LongArray();
+    private final ObjectIntMap<PhysicsComponent> childIndices = new ObjectIntMap<>();
+
+    private final LongMap<Entity> tiles = new LongMap<>();
+    private final Matrix4 childTransform = new Matrix4();
+
+    public CourseShape() {
+        compound = new btCompoundShape(true);
+        constructionInfo = new btRigidBodyConstructionInfo(0f, null, compound, Vector3.Zero);
+        body = new btRigidBody(constructionInfo);
+        body.setUserValue(USER_VALUE);
+        body.setContactCallbackFlag(PhysicsSystem.Flags.ground);
+        body.setContactCallbackFilter(0);
+    }
+
+    @Override
+    public void dispose() {
+        body.dispose();
+        constructionInfo.dispose();
+        compound.dispose();
+    }
+
+    public int size() {
+        return children.size;
+    }
+
+    public boolean contains(PhysicsComponent physics) {
+        return childIndices.containsKey(physics);
+    }
+
+    /**
+     * Add a tile's collision shape as a child, positioned by its body's current world transform
+     */
+    public void add(Entity entity, PhysicsComponent physics, int tileX, int tileZ) {
+        if (contains(physics)) return;
+
+        physics.rigidBody.getWorldTransform(childTransform);
+        compound.addChildShape(childTransform, physics.shape());
+
+        var key = TileIndex.key(tileX, tileZ);
+        childIndices.put(physics, children.size);
+        children.add(physics);
+        childKeys.add(key);
+        tiles.put(key, entity);
+    }
+
+    /**
+     * @return false if the tile wasn't part of the course
+     */
+    public boolean remove(PhysicsComponent physics) {
+        var index = childIndices.remove(physics, -1);
+        if (index == -1) return false;
+
+        compound.removeChildShapeByIndex(index);
+        tiles.remove(childKeys.get(index));
+
+        // mirror bullet moving the last child into the removed slot
+        var last = children.size - 1;
+        if (index != last) {
+            var moved = children.get(last);
+            children.set(index, moved);
+            childKeys.set(index, childKeys.get(last));
+            childIndices.put(moved, index);
+        }
+        children.removeIndex(last);
+        childKeys.removeIndex(last);
+        return true;
+    }
+
+    /**
+     * Update a tile's child transform from its body's current world transform
+     */
+    public void update(PhysicsComponent physics) {
+        var index = childIndices.get(physics, -1);
+        if (index == -1) return;
+
+        physics.rigidBody.getWorldTransform(childTransform);
+        compound.updateChildTransform(index, childTransform, true);
+    }
+
+    /**
+     * @return the tile entity covering the specified world position, or null if there isn't one
+     */
+    public Entity tileAt(float x, float z) {
+        var tileX = MathUtils.floor(x / EntityFactory.TILE_SIZE);
+        var tileZ = MathUtils.floor(z / EntityFactory.TILE_SIZE);
+        return tiles.get(TileIndex.key(tileX, tileZ));
+    }
+
+    /**
+     * Append every tile entity whose tile overlaps the specified xz range
+     */
+    public void tilesIn(float minX, float minZ, float maxX, float maxZ, Array<Entity> out) {
+        var x0 = MathUtils.floor(minX / EntityFactory.TILE_SIZE);
+        var z0 = MathUtils.floor(minZ / EntityFactory.TILE_SIZE);
+        var x1 = MathUtils.floor(maxX / EntityFactory.TILE_SIZE);
+        var z1 = MathUtils.floor(maxZ / EntityFactory.TILE_SIZE);
+
+        // a large range is better served by walking the tiles than the range
+        if ((long) (x1 - x0 + 1) * (z1 - z0 + 1) > tiles.size) {
+            for (int i = 0; i < childKeys.size; i++) {
+                var key = childKeys.get(i);
+                var tileX = TileIndex.keyX(key);
+                var tileZ = TileIndex.keyZ(key);
+                if (tileX >= x0 && tileX <= x1 && tileZ >= z0 && tileZ <= z1) {
+                    out.add(tiles.get(key));
+                }
+            }
+            return;
+        }
+
+        for (int x = x0; x <= x1; x++) {
+            for (int z = z0; z <= z1; z++) {
+                var entity = tiles.get(TileIndex.key(x, z));
+                if (entity != null) {
+                    out.add(entity);
+                }
+            }
+        }
+    }
+
+}
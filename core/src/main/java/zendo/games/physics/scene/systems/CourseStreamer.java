@@ -0,0 +1,338 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Engine;
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.ashley.core.EntitySystem;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.LongMap;
+import zendo.games.physics.Assets;
+import zendo.games.physics.Config;
+import zendo.games.physics.scene.SystemScheduler;
+import zendo.games.physics.scene.components.TileComponent;
+import zendo.games.physics.scene.components.utils.ComponentFamilies;
+import zendo.games.physics.scene.components.utils.ComponentMappers;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.systems.UserInterfaceSystem.LevelFileInfo;
+import zendo.games.physics.scene.systems.UserInterfaceSystem.TileInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Keeps only the part of a course near the camera and the ball alive as tile entities.
+ *
+ * A loaded course is split into square chunks of tiles, each chunk holds the tile records for its area
+ * and only becomes entities (with their bodies and model instances) when a focus point comes within
+ * {@link Config.Streaming#loadRadius} chunks of it. Chunks further than {@link Config.Streaming#unloadRadius} are released,
+ * recording whatever tiles are in their area at the time so that edits made while they were loaded are kept.
+ * The level file is read and split into chunks on a background thread, the entities themselves are created
+ * on the render thread at most {@link Config.Streaming#tilesPerFrame} per frame so that crossing into a new chunk doesn't hitch.
+ * NOTE - the engine and the shape providers aren't thread safe, so only the file is handled off the render thread
+ */
+public class CourseStreamer extends EntitySystem implements SystemScheduler.Declared {
+
+    private static final String TAG = CourseStreamer.class.getSimpleName();
+
+    private enum State { unloaded, loading, loaded }
+
+    private static class Chunk {
+        final int x;
+        final int z;
+        // every tile record in this chunk's area that isn't currently an entity
+        final Array<TileInfo> tiles = new Array<>();
+        State state = State.unloaded;
+        // the next record to materialize while loading
+        int next;
+
+        Chunk(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    public static class Stats {
+        public int numChunks;
+        public int numTiles;
+        public int numLoadedChunks;
+        public int numLoads;
+        public int numUnloads;
+        public int numMaterialized;
+        public int numReleased;
+        public float readMillis;
+
+        @Override
+        public String toString() {
+            return numLoadedChunks + "/" + numChunks + " chunks loaded, " + numTiles + " tiles"
+                 + " | loads " + numLoads + " (" + numMaterialized + " tiles)"
+                 + " | unloads " + numUnloads + " (" + numReleased + " tiles)"
+                 + " | read in " + String.format("%.1f", readMillis) + "ms";
+        }
+    }
+
+    // creates and removes tile entities, using the shape and model providers which aren't thread safe
+    private static final SystemScheduler.Access ACCESS = new SystemScheduler.Access()
+            .reads(TileComponent.class)
+            .structural()
+            .renderThread();
+
+    public final Stats stats = new Stats();
+
+    // set every frame by the screen, the ball focus is only used while there is one
+    public final Vector3 cameraFocus = new Vector3();
+    public final Vector3 ballFocus = new Vector3();
+    public boolean hasBall;
+
+    private final Assets assets;
+    private final TileIndex tileIndex;
+    private Engine engine;
+
+    private final LongMap<Chunk> chunks = new LongMap<>();
+    // chunks that are loading or loaded, in the order they were requested
+    private final Array<Chunk> active = new Array<>();
+    private final Array<Entity> chunkEntities = new Array<>();
+    private int chunkSize = Config.Streaming.chunkSize;
+
+    // bumped by every load so that a slow read finishing after a newer one started is dropped
+    private volatile int loadGeneration;
+
+    public CourseStreamer(Assets assets, TileIndex tileIndex) {
+        this.assets = assets;
+        this.tileIndex = tileIndex;
+    }
+
+    @Override
+    public void addedToEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void removedFromEngine(Engine engine) {
+        this.engine = null;
+    }
+
+    public boolean hasCourse() {
+        return chunks.size > 0;
+    }
+
+    /**
+     * Read a level file on a background thread, then replace the current course with it.
+     * Any existing tile entities are removed once the new course is ready rather than right away,
+     * and if the file can't be read or parsed the current course is left as it is.
+     * @param onLoaded called on the render thread with the level data once the course has been replaced
+     * @param onFailed called on the render thread with the reason if the file couldn't be loaded
+     */
+    public void load(FileHandle file, Consumer<LevelFileInfo> onLoaded, Consumer<RuntimeException> onFailed) {
+        var generation = ++loadGeneration;
+        var size = chunkSize = Config.Streaming.chunkSize;
+
+        var thread = new Thread(() -> {
+            var start = System.nanoTime();
+            LevelFileInfo levelData;
+            var loadedChunks = new LongMap<Chunk>();
+            try {
+                levelData = new Json().fromJson(LevelFileInfo.class, file.readString(StandardCharsets.UTF_8.name()));
+                if (levelData == null) {
+                    throw new GdxRuntimeException("Level file is empty: " + file.path());
+                }
+                if (levelData.tileInfos != null) {
+                    for (var tileInfo : levelData.tileInfos) {
+                        var chunkX = Math.floorDiv(tileInfo.x, size);
+                        var chunkZ = Math.floorDiv(tileInfo.z, size);
+                        var key = TileIndex.key(chunkX, chunkZ);
+                        var chunk = loadedChunks.get(key);
+                        if (chunk == null) {
+                            chunk = new Chunk(chunkX, chunkZ);
+                            loadedChunks.put(key, chunk);
+                        }
+                        chunk.tiles.add(tileInfo);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // NOTE - reported on the render thread like a successful load, so callers only deal with one thread
+                Gdx.app.postRunnable(() -> {
+                    if (generation != loadGeneration) return;
+                    Gdx.app.error(TAG, "failed to load " + file.name() + ", keeping the current course", e);
+                    if (onFailed != null) {
+                        onFailed.accept(e);
+                    }
+                });
+                return;
+            }
+            var readMillis = (System.nanoTime() - start) / 1_000_000f;
+
+            Gdx.app.postRunnable(() -> {
+                if (generation != loadGeneration) return;
+                install(loadedChunks, readMillis);
+                Gdx.app.log(TAG, "loaded " + file.name() + ": " + stats);
+                if (onLoaded != null) {
+                    onLoaded.accept(levelData);
+                }
+            });
+        }, "course-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Forget the current course without touching any entities, eg. when the tiles are being removed some other way
+     */
+    public void clear() {
+        loadGeneration++;
+        chunks.clear();
+        active.clear();
+        stats.numChunks = 0;
+        stats.numTiles = 0;
+        stats.numLoadedChunks = 0;
+    }
+
+    /**
+     * Append a record for every tile in the course that isn't currently an entity,
+     * live tiles are left to the caller since they may have been edited
+     */
+    public void collectUnloaded(Array<TileInfo> out) {
+        for (var chunk : chunks.values()) {
+            for (int i = (chunk.state == State.unloaded) ? 0 : chunk.next; i < chunk.tiles.size; i++) {
+                out.add(chunk.tiles.get(i));
+            }
+        }
+    }
+
+    @Override
+    public SystemScheduler.Access access() {
+        return ACCESS;
+    }
+
+    @Override
+    public void update(float delta) {
+        if (chunks.size == 0) return;
+
+        var cameraX = chunkCoord(cameraFocus.x);
+        var cameraZ = chunkCoord(cameraFocus.z);
+        var ballX = hasBall ? chunkCoord(ballFocus.x) : cameraX;
+        var ballZ = hasBall ? chunkCoord(ballFocus.z) : cameraZ;
+
+        // release chunks that both focus points have moved away from
+        var unloadRadius = Math.max(Config.Streaming.unloadRadius, Config.Streaming.loadRadius);
+        for (int i = active.size - 1; i >= 0; i--) {
+            var chunk = active.get(i);
+            var distance = Math.min(distance(chunk, cameraX, cameraZ), distance(chunk, ballX, ballZ));
+            if (distance > unloadRadius) {
+                release(chunk);
+                active.removeIndex(i);
+            }
+        }
+
+        // request chunks around each focus point, nearest first
+        var loadRadius = Config.Streaming.loadRadius;
+        for (int radius = 0; radius <= loadRadius; radius++) {
+            request(cameraX, cameraZ, radius);
+            if (hasBall) {
+                request(ballX, ballZ, radius);
+            }
+        }
+
+        // materialize requested chunks within this frame's budget
+        var budget = Config.Streaming.tilesPerFrame;
+        for (int i = 0; i < active.size && budget > 0; i++) {
+            var chunk = active.get(i);
+            if (chunk.state != State.loading) continue;
+
+            while (chunk.next < chunk.tiles.size && budget > 0) {
+                materialize(chunk.tiles.get(chunk.next++));
+                budget--;
+            }
+            if (chunk.next == chunk.tiles.size) {
+                // the records are recaptured from the live tiles when this chunk is released
+                chunk.tiles.clear();
+                chunk.next = 0;
+                chunk.state = State.loaded;
+            }
+        }
+
+        stats.numLoadedChunks = active.size;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void install(LongMap<Chunk> loadedChunks, float readMillis) {
+        engine.removeAllEntities(ComponentFamilies.tiles);
+
+        chunks.clear();
+        active.clear();
+        stats.numTiles = 0;
+        for (var chunk : loadedChunks.values()) {
+            chunks.put(TileIndex.key(chunk.x, chunk.z), chunk);
+            stats.numTiles += chunk.tiles.size;
+        }
+        stats.numChunks = chunks.size;
+        stats.numLoadedChunks = 0;
+        stats.readMillis = readMillis;
+    }
+
+    /**
+     * Request every chunk on the square ring at the specified chunk distance around a chunk coordinate
+     */
+    private void request(int centerX, int centerZ, int radius) {
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                if (Math.max(Math.abs(x - centerX), Math.abs(z - centerZ)) != radius) continue;
+
+                var chunk = chunks.get(TileIndex.key(x, z));
+                if (chunk != null && chunk.state == State.unloaded) {
+                    chunk.state = State.loading;
+                    chunk.next = 0;
+                    active.add(chunk);
+                    stats.numLoads++;
+                }
+            }
+        }
+    }
+
+    private void materialize(TileInfo tileInfo) {
+        // a tile placed in the editor may already be there
+        if (tileIndex.isOccupied(tileInfo.x, tileInfo.z)) return;
+
+        var modelType = MinigolfModels.valueOf(tileInfo.modelType);
+        EntityFactory.createTile(modelType, engine, assets, tileInfo.x, tileInfo.z, tileInfo.yRotation);
+        stats.numMaterialized++;
+    }
+
+    private void release(Chunk chunk) {
+        // keep the records that weren't materialized yet, then record and remove whatever is live in the chunk's area
+        if (chunk.state == State.loading && chunk.next > 0) {
+            chunk.tiles.removeRange(0, chunk.next - 1);
+        }
+
+        var minX = chunk.x * chunkSize;
+        var minZ = chunk.z * chunkSize;
+        chunkEntities.clear();
+        tileIndex.query(minX, minZ, minX + chunkSize - 1, minZ + chunkSize - 1, chunkEntities);
+        for (var entity : chunkEntities) {
+            var tile = ComponentMappers.tiles.get(entity);
+            chunk.tiles.add(new TileInfo(tile));
+            engine.removeEntity(entity);
+        }
+        stats.numReleased += chunkEntities.size;
+        chunkEntities.clear();
+
+        chunk.state = State.unloaded;
+        chunk.next = 0;
+        stats.numUnloads++;
+    }
+
+    private int chunkCoord(float world) {
+        return Math.floorDiv(MathUtils.floor(world / EntityFactory.TILE_SIZE), chunkSize);
+    }
+
+    private static int distance(Chunk chunk, int x, int z) {
+        return Math.max(Math.abs(chunk.x - x), Math.abs(chunk.z - z));
+    }
+
+}
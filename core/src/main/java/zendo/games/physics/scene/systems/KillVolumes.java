@@ -0,0 +1,151 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Engine;
+
+/**
+ * Axis aligned volumes that remove any dynamic body that moves into them, ie. everything below the course.
+ *
+ * Bodies are tested from their motion state as bullet moves them during the step, so only bodies that actually moved
+ * are ever checked. A body that enters a volume has its handle pushed onto a ring buffer that's drained once per frame,
+ * removing all of the queued entities in one batch. Like {@link ContactEvents} the buffer has a single writer
+ * (the thread stepping the world) and a single reader (the thread updating the engine).
+ */
+public class KillVolumes {
+
+    public static final int FLOATS_PER_VOLUME = 6;
+
+    // how far below the lowest static body the default volume starts
+    public static final float MARGIN = 5f;
+
+    // the default, used when a level doesn't define any volumes of its own, everything below the course
+    // NOTE - kept up to date with the course bounds by the physics system as the course changes, see setCourseFloor(),
+    //  while there aren't any static bodies the course is assumed to be at ground level
+    private final float[] below = below(0f);
+
+    // min x,y,z then max x,y,z per volume
+    // NOTE - only read and written by the thread stepping the world, see PhysicsSystem.setKillVolumes()
+    private float[] volumes = below;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] handles;
+    private volatile int writeIndex;
+    private volatile int readIndex;
+
+    // bodies that left the world while the queue was full, they'll be picked up again if they move
+    public int numDropped;
+    public int numRemoved;
+
+    public KillVolumes() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity the max number of removals queued between drains, rounded up to a power of two
+     */
+    public KillVolumes(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.handles = new int[this.capacity];
+    }
+
+    public int numVolumes() {
+        return volumes.length / FLOATS_PER_VOLUME;
+    }
+
+    public float[] volumes() {
+        return volumes;
+    }
+
+    /**
+     * @return true if the level didn't define any volumes, so everything below the course is used
+     */
+    public boolean isDefault() {
+        return volumes == below;
+    }
+
+    void set(float[] volumes) {
+        this.volumes = (volumes == null || volumes.length == 0) ? below : volumes;
+    }
+
+    /**
+     * Move the default volume so it starts {@link #MARGIN} below the specified height, ie. the bottom of the course bounds
+     */
+    void setCourseFloor(float minY) {
+        below[4] = minY - MARGIN;
+    }
+
+    /**
+     * @return a single volume containing everything more than {@link #MARGIN} below the specified height
+     */
+    public static float[] below(float minY) {
+        return new float[] {
+                -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE,
+                 Float.MAX_VALUE, minY - MARGIN,     Float.MAX_VALUE
+        };
+    }
+
+    // ------------------------------------------------------------------------
+    // writer (called from motion states while stepping)
+    // ------------------------------------------------------------------------
+
+    public boolean contains(float x, float y, float z) {
+        return contains(volumes, x, y, z);
+    }
+
+    /**
+     * @param volumes min x,y,z then max x,y,z for each volume, like {@link #below(float)}
+     */
+    public static boolean contains(float[] volumes, float x, float y, float z) {
+        for (int i = 0; i < volumes.length; i += FLOATS_PER_VOLUME) {
+            if (x >= volumes[i]     && y >= volumes[i + 1] && z >= volumes[i + 2]
+             && x <= volumes[i + 3] && y <= volumes[i + 4] && z <= volumes[i + 5]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue the body with the specified handle for removal
+     * @return false if the queue is full
+     */
+    public boolean report(int handle) {
+        var write = writeIndex;
+        if (write - readIndex >= capacity) {
+            numDropped++;
+            return false;
+        }
+        handles[write & mask] = handle;
+        writeIndex = write + 1;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // reader
+    // ------------------------------------------------------------------------
+
+    /**
+     * Remove the entities for every body queued since the last drain,
+     * stale handles (ie. entities that were already removed) are skipped
+     * @return the number of entities removed
+     */
+    int drain(BodyHandles bodies, Engine engine) {
+        var read = readIndex;
+        var write = writeIndex;
+        var count = 0;
+
+        for (; read != write; read++) {
+            var entity = bodies.get(handles[read & mask]);
+            if (entity != null) {
+                engine.removeEntity(entity);
+                count++;
+            }
+        }
+
+        readIndex = write;
+        numRemoved += count;
+        return count;
+    }
+
+}
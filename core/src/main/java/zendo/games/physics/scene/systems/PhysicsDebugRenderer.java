@@ -0,0 +1,448 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.*;
+import com.badlogic.gdx.graphics.glutils.ImmediateModeRenderer20;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.physics.bullet.linearmath.btIDebugDraw;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.ObjectMap;
+import zendo.games.physics.scene.components.PhysicsComponent;
+
+/**
+ * Draws physics bodies as wireframes in a single draw call, a replacement for bullet's DebugDrawer
+ * which calls back into java for every line of every body every frame.
+ *
+ * Bullet is only asked to draw each collision shape once, into a local space wireframe that's cached by shape.
+ * Static bodies (ie. tiles) have their wireframes transformed into world space once and cached by body,
+ * dynamic bodies are transformed each frame using their render transforms.
+ * Lines for bodies inside the camera frustum are packed into a reused vertex array which is uploaded as one mesh.
+ * NOTE - nothing native or gl related is created until the first frame is drawn, so this is safe to construct headless
+ */
+public class PhysicsDebugRenderer implements Disposable {
+
+    private static final String TAG = PhysicsDebugRenderer.class.getSimpleName();
+
+    // position and packed color
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int FLOATS_PER_LINE = 2 * FLOATS_PER_VERTEX;
+    private static final float CONTACT_NORMAL_LENGTH = 0.5f;
+
+    private static final float STATIC_COLOR   = new Color(0.6f, 0.6f, 0.6f, 1f).toFloatBits();
+    private static final float ACTIVE_COLOR   = Color.LIME.toFloatBits();
+    private static final float SLEEPING_COLOR = Color.SKY.toFloatBits();
+    private static final float AABB_COLOR     = Color.YELLOW.toFloatBits();
+    private static final float CONTACT_COLOR  = Color.RED.toFloatBits();
+
+    public static class Options {
+        public boolean staticBodies = true;
+        public boolean dynamicBodies = true;
+        public boolean aabbs = false;
+        public boolean contacts = false;
+        public boolean culling = true;
+    }
+
+    public static class Stats {
+        public int numBodies;
+        public int numCulled;
+        public int numContacts;
+        public int numLines;
+        public int numCachedShapes;
+        public int numCachedStatics;
+
+        @Override
+        public String toString() {
+            return "bodies " + numBodies + " (culled " + numCulled + ")"
+                 + " | contacts " + numContacts
+                 + " | lines " + numLines
+                 + " | cached shapes " + numCachedShapes + ", statics " + numCachedStatics;
+        }
+    }
+
+    public final Options options = new Options();
+    public final Stats stats = new Stats();
+
+    /**
+     * A shape's lines in its local space, as pairs of x,y,z positions, along with a bounding sphere for culling
+     */
+    private static class ShapeWireframe {
+        btCollisionShape shape;
+        float[] lines;
+        final Vector3 center = new Vector3();
+        float radius;
+    }
+
+    /**
+     * A static body's lines already transformed into world space and colored, ready to copy straight into the vertex array
+     */
+    private static class StaticWireframe {
+        ShapeWireframe shape;
+        float[] vertices;
+        final BoundingBox bounds = new BoundingBox();
+        int frame;
+    }
+
+    // NOTE - bullet objects compare by native pointer, so the cached shape is checked against the shape being drawn
+    //  in case a disposed shape's memory has been reused for another one
+    private final ObjectMap<btCollisionShape, ShapeWireframe> shapes = new ObjectMap<>();
+    private final ObjectMap<PhysicsComponent, StaticWireframe> statics = new ObjectMap<>();
+    private final ObjectMap<PhysicsComponent, Matrix4> movedStatics = new ObjectMap<>();
+
+    private float[] vertices = new float[FLOATS_PER_LINE * 4096];
+    private int numFloats;
+    private int numStaticsDrawn;
+    private int frame;
+    private Camera camera;
+
+    private Mesh mesh;
+    private ShaderProgram shader;
+    private Capture capture;
+
+    private final Matrix4 transform = new Matrix4();
+    private final Vector3 center = new Vector3();
+    private final Vector3 min = new Vector3();
+    private final Vector3 max = new Vector3();
+    private final Vector3 point = new Vector3();
+    private final Vector3 normal = new Vector3();
+    private final BoundingBox bounds = new BoundingBox();
+
+    @Override
+    public void dispose() {
+        if (mesh != null) mesh.dispose();
+        if (shader != null) shader.dispose();
+        if (capture != null) capture.release();
+        shapes.clear();
+        statics.clear();
+        movedStatics.clear();
+    }
+
+    /**
+     * Let the renderer know that a static body has been moved, so its cached wireframe is rebuilt the next time it's drawn
+     * @param transform the body's new world transform, the body itself may not have been updated yet in threaded mode
+     */
+    public void moved(PhysicsComponent physics, Matrix4 transform) {
+        statics.remove(physics);
+        movedStatics.put(physics, transform.cpy());
+    }
+
+    /**
+     * Let the renderer know that a static body's shape has changed (ie. sculpted terrain), so it's drawn again from scratch
+     */
+    public void changed(PhysicsComponent physics) {
+        statics.remove(physics);
+        shapes.remove(physics.shape());
+    }
+
+    public void begin(Camera camera) {
+        this.camera = camera;
+        frame++;
+        numFloats = 0;
+        numStaticsDrawn = 0;
+        stats.numBodies = 0;
+        stats.numCulled = 0;
+        stats.numContacts = 0;
+    }
+
+    public void add(PhysicsComponent physics) {
+        var isStatic = (physics.mass == 0f);
+        if (isStatic ? !options.staticBodies : !options.dynamicBodies) return;
+        if (physics.rigidBody.isDisposed()) return;
+
+        stats.numBodies++;
+        if (isStatic) {
+            addStatic(physics);
+        } else {
+            addDynamic(physics);
+        }
+    }
+
+    /**
+     * Add a line along the normal of each contact point in the world
+     * NOTE - must be called from the thread that owns the world, or while holding the world lock
+     */
+    public void addContacts(btDispatcher dispatcher) {
+        var numManifolds = dispatcher.getNumManifolds();
+        for (int i = 0; i < numManifolds; i++) {
+            var manifold = dispatcher.getManifoldByIndexInternal(i);
+            var numContacts = manifold.getNumContacts();
+            for (int j = 0; j < numContacts; j++) {
+                var contact = manifold.getContactPoint(j);
+                contact.getPositionWorldOnB(point);
+                if (options.culling && !camera.frustum.pointInFrustum(point)) continue;
+
+                contact.getNormalWorldOnB(normal);
+                normal.scl(CONTACT_NORMAL_LENGTH).add(point);
+                line(point.x, point.y, point.z, normal.x, normal.y, normal.z, CONTACT_COLOR);
+                stats.numContacts++;
+            }
+        }
+    }
+
+    public void end() {
+        if (shader == null) {
+            shader = ImmediateModeRenderer20.createDefaultShader(false, true, 0);
+        }
+
+        var numVertices = numFloats / FLOATS_PER_VERTEX;
+        if (mesh == null || mesh.getMaxVertices() < numVertices) {
+            if (mesh != null) mesh.dispose();
+            mesh = new Mesh(false, vertices.length / FLOATS_PER_VERTEX, 0,
+                    VertexAttribute.Position(), VertexAttribute.ColorPacked());
+        }
+
+        // drop cached statics for bodies that weren't drawn this frame, they've likely been removed
+        if (statics.size > numStaticsDrawn) {
+            var entries = statics.entries();
+            while (entries.hasNext()) {
+                if (entries.next().value.frame != frame) entries.remove();
+            }
+        }
+        // and likewise for shapes that have since been disposed
+        if (shapes.size > 0 && (frame % 60) == 0) {
+            var entries = shapes.entries();
+            while (entries.hasNext()) {
+                if (entries.next().value.shape.isDisposed()) entries.remove();
+            }
+        }
+
+        stats.numLines = numVertices / 2;
+        stats.numCachedShapes = shapes.size;
+        stats.numCachedStatics = statics.size;
+        if (numVertices == 0) return;
+
+        mesh.setVertices(vertices, 0, numFloats);
+        shader.bind();
+        shader.setUniformMatrix("u_projModelView", camera.combined);
+        mesh.render(shader, GL20.GL_LINES, 0, numVertices);
+    }
+
+    // ------------------------------------------------------------------------
+
+    private void addStatic(PhysicsComponent physics) {
+        var cached = statics.get(physics);
+        var shape = physics.shape();
+        if (cached == null || cached.shape.shape != shape || cached.shape.shape.isDisposed()) {
+            cached = cacheStatic(physics, shape);
+        }
+        cached.frame = frame;
+        numStaticsDrawn++;
+
+        if (options.culling && !camera.frustum.boundsInFrustum(cached.bounds)) {
+            stats.numCulled++;
+            return;
+        }
+
+        ensureCapacity(cached.vertices.length);
+        System.arraycopy(cached.vertices, 0, vertices, numFloats, cached.vertices.length);
+        numFloats += cached.vertices.length;
+
+        if (options.aabbs) {
+            box(cached.bounds.min, cached.bounds.max);
+        }
+    }
+
+    private StaticWireframe cacheStatic(PhysicsComponent physics, btCollisionShape shape) {
+        var moved = movedStatics.remove(physics);
+        if (moved != null) {
+            transform.set(moved);
+        } else {
+            physics.rigidBody.getWorldTransform(transform);
+        }
+
+        var wireframe = wireframe(shape);
+        var lines = wireframe.lines;
+        var cached = new StaticWireframe();
+        cached.shape = wireframe;
+        cached.vertices = new float[(lines.length / 3) * FLOATS_PER_VERTEX];
+        cached.bounds.inf();
+
+        var m = transform.val;
+        for (int i = 0, v = 0; i < lines.length; i += 3, v += FLOATS_PER_VERTEX) {
+            var x = lines[i], y = lines[i + 1], z = lines[i + 2];
+            var wx = m[Matrix4.M00] * x + m[Matrix4.M01] * y + m[Matrix4.M02] * z + m[Matrix4.M03];
+            var wy = m[Matrix4.M10] * x + m[Matrix4.M11] * y + m[Matrix4.M12] * z + m[Matrix4.M13];
+            var wz = m[Matrix4.M20] * x + m[Matrix4.M21] * y + m[Matrix4.M22] * z + m[Matrix4.M23];
+            cached.vertices[v]     = wx;
+            cached.vertices[v + 1] = wy;
+            cached.vertices[v + 2] = wz;
+            cached.vertices[v + 3] = STATIC_COLOR;
+            cached.bounds.ext(wx, wy, wz);
+        }
+
+        statics.put(physics, cached);
+        return cached;
+    }
+
+    private void addDynamic(PhysicsComponent physics) {
+        var wireframe = wireframe(physics.shape());
+        var m = physics.renderTransform().val;
+
+        if (options.culling) {
+            var c = wireframe.center;
+            center.set(c.x, c.y, c.z).mul(physics.renderTransform());
+            if (!camera.frustum.sphereInFrustum(center, wireframe.radius)) {
+                stats.numCulled++;
+                return;
+            }
+        }
+
+        // NOTE - reading the activation state from here is a harmless race in threaded mode, it's only used for color
+        var color = physics.rigidBody.isActive() ? ACTIVE_COLOR : SLEEPING_COLOR;
+        var lines = wireframe.lines;
+        ensureCapacity((lines.length / 3) * FLOATS_PER_VERTEX);
+
+        min.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        var out = vertices;
+        var v = numFloats;
+        for (int i = 0; i < lines.length; i += 3, v += FLOATS_PER_VERTEX) {
+            var x = lines[i], y = lines[i + 1], z = lines[i + 2];
+            var wx = m[Matrix4.M00] * x + m[Matrix4.M01] * y + m[Matrix4.M02] * z + m[Matrix4.M03];
+            var wy = m[Matrix4.M10] * x + m[Matrix4.M11] * y + m[Matrix4.M12] * z + m[Matrix4.M13];
+            var wz = m[Matrix4.M20] * x + m[Matrix4.M21] * y + m[Matrix4.M22] * z + m[Matrix4.M23];
+            out[v]     = wx;
+            out[v + 1] = wy;
+            out[v + 2] = wz;
+            out[v + 3] = color;
+            if (wx < min.x) min.x = wx; if (wx > max.x) max.x = wx;
+            if (wy < min.y) min.y = wy; if (wy > max.y) max.y = wy;
+            if (wz < min.z) min.z = wz; if (wz > max.z) max.z = wz;
+        }
+        numFloats = v;
+
+        if (options.aabbs && lines.length > 0) {
+            box(min, max);
+        }
+    }
+
+    /**
+     * @return the cached local space wireframe for a shape, asking bullet to draw it if it hasn't been seen before
+     */
+    private ShapeWireframe wireframe(btCollisionShape shape) {
+        var wireframe = shapes.get(shape);
+        if (wireframe != null && wireframe.shape == shape) {
+            return wireframe;
+        }
+
+        if (capture == null) {
+            capture = new Capture();
+        }
+        var lines = capture.draw(shape);
+
+        wireframe = new ShapeWireframe();
+        wireframe.shape = shape;
+        wireframe.lines = lines;
+
+        bounds.inf();
+        for (int i = 0; i < lines.length; i += 3) {
+            bounds.ext(lines[i], lines[i + 1], lines[i + 2]);
+        }
+        if (lines.length > 0) {
+            bounds.getCenter(wireframe.center);
+            wireframe.radius = 0.5f * bounds.getDimensions(point).len();
+        }
+
+        shapes.put(shape, wireframe);
+        return wireframe;
+    }
+
+    private void box(Vector3 min, Vector3 max) {
+        ensureCapacity(12 * FLOATS_PER_LINE);
+        // bottom
+        line(min.x, min.y, min.z, max.x, min.y, min.z, AABB_COLOR);
+        line(max.x, min.y, min.z, max.x, min.y, max.z, AABB_COLOR);
+        line(max.x, min.y, max.z, min.x, min.y, max.z, AABB_COLOR);
+        line(min.x, min.y, max.z, min.x, min.y, min.z, AABB_COLOR);
+        // top
+        line(min.x, max.y, min.z, max.x, max.y, min.z, AABB_COLOR);
+        line(max.x, max.y, min.z, max.x, max.y, max.z, AABB_COLOR);
+        line(max.x, max.y, max.z, min.x, max.y, max.z, AABB_COLOR);
+        line(min.x, max.y, max.z, min.x, max.y, min.z, AABB_COLOR);
+        // sides
+        line(min.x, min.y, min.z, min.x, max.y, min.z, AABB_COLOR);
+        line(max.x, min.y, min.z, max.x, max.y, min.z, AABB_COLOR);
+        line(max.x, min.y, max.z, max.x, max.y, max.z, AABB_COLOR);
+        line(min.x, min.y, max.z, min.x, max.y, max.z, AABB_COLOR);
+    }
+
+    private void line(float x1, float y1, float z1, float x2, float y2, float z2, float color) {
+        ensureCapacity(FLOATS_PER_LINE);
+        var v = vertices;
+        var i = numFloats;
+        v[i]     = x1; v[i + 1] = y1; v[i + 2] = z1; v[i + 3] = color;
+        v[i + 4] = x2; v[i + 5] = y2; v[i + 6] = z2; v[i + 7] = color;
+        numFloats += FLOATS_PER_LINE;
+    }
+
+    private void ensureCapacity(int numMoreFloats) {
+        var required = numFloats + numMoreFloats;
+        if (required <= vertices.length) return;
+
+        var resized = new float[Math.max(required, 2 * vertices.length)];
+        System.arraycopy(vertices, 0, resized, 0, numFloats);
+        vertices = resized;
+    }
+
+    /**
+     * Collects the lines bullet draws for a shape, using a collision world of its own
+     * so that it never touches the physics system's world (which may be stepping on another thread)
+     */
+    private static class Capture extends btIDebugDraw {
+        private final btDefaultCollisionConfiguration collisionConfig = new btDefaultCollisionConfiguration();
+        private final btCollisionDispatcher dispatcher = new btCollisionDispatcher(collisionConfig);
+        private final btDbvtBroadphase broadphase = new btDbvtBroadphase();
+        private final btCollisionWorld world = new btCollisionWorld(dispatcher, broadphase, collisionConfig);
+        private final FloatArray lines = new FloatArray();
+        private final Matrix4 identity = new Matrix4();
+        private final Vector3 color = new Vector3(1, 1, 1);
+
+        Capture() {
+            world.setDebugDrawer(this);
+        }
+
+        float[] draw(btCollisionShape shape) {
+            lines.clear();
+            world.debugDrawObject(identity, shape, color);
+            return lines.toArray();
+        }
+
+        @Override
+        public void drawLine(Vector3 from, Vector3 to, Vector3 color) {
+            lines.add(from.x, from.y, from.z);
+            lines.add(to.x, to.y, to.z);
+        }
+
+        @Override
+        public void drawContactPoint(Vector3 pointOnB, Vector3 normalOnB, float distance, int lifeTime, Vector3 color) {}
+
+        @Override
+        public void reportErrorWarning(String warningString) {
+            Gdx.app.error(TAG, warningString);
+        }
+
+        @Override
+        public void draw3dText(Vector3 location, String textString) {}
+
+        @Override
+        public void setDebugMode(int debugMode) {}
+
+        @Override
+        public int getDebugMode() {
+            return DebugDrawModes.DBG_DrawWireframe;
+        }
+
+        void release() {
+            world.dispose();
+            broadphase.dispose();
+            dispatcher.dispose();
+            collisionConfig.dispose();
+            dispose();
+        }
+    }
+
+}
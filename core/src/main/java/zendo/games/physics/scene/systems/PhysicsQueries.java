@@ -0,0 +1,395 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.physics.bullet.collision.*;
+import com.badlogic.gdx.physics.bullet.linearmath.btScalarArray;
+import com.badlogic.gdx.physics.bullet.linearmath.btVector3Array;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Ray, sweep and overlap queries against the physics world that resolve their results to entities.
+ *
+ * Every query reuses a single native callback of its kind, and results are written into caller owned
+ * objects or arrays, so nothing is allocated per query. The batched ray test holds the world lock
+ * for the whole batch rather than once per ray, prefer it when issuing many rays at once.
+ * Queries must be made from the thread that updates the engine, since that's the only thread that touches the body handles.
+ */
+public class PhysicsQueries implements Disposable {
+
+    /**
+     * Matches every collision filter group
+     */
+    public static final short ALL = -1;
+
+    public static final int FLOATS_PER_RAY = 6;
+    public static final int FLOATS_PER_POINT = 3;
+
+    public static class Hit {
+        public Entity entity;
+        public btCollisionObject body;
+        public float fraction;
+        public final Vector3 point = new Vector3();
+        public final Vector3 normal = new Vector3();
+
+        public void clear() {
+            entity = null;
+            body = null;
+            fraction = 1f;
+            point.setZero();
+            normal.setZero();
+        }
+    }
+
+    /**
+     * Fixed capacity results of an all-hits ray test, sorted by distance along the ray
+     */
+    public static class Hits {
+        public final Entity[] entities;
+        public final float[] fractions;
+        public final float[] points;
+        public int count;
+
+        // hits that didn't fit
+        public int numDropped;
+
+        public Hits(int capacity) {
+            entities = new Entity[capacity];
+            fractions = new float[capacity];
+            points = new float[capacity * FLOATS_PER_POINT];
+        }
+
+        public void clear() {
+            for (int i = 0; i < count; i++) {
+                entities[i] = null;
+            }
+            count = 0;
+            numDropped = 0;
+        }
+
+        public Vector3 getPoint(int index, Vector3 out) {
+            var i = index * FLOATS_PER_POINT;
+            return out.set(points[i], points[i + 1], points[i + 2]);
+        }
+
+        void insert(Entity entity, float fraction, float x, float y, float z) {
+            if (count == entities.length) {
+                numDropped++;
+                // keep the closest hits
+                if (fraction >= fractions[count - 1]) return;
+                count--;
+            }
+
+            // bullet reports hits in no particular order, insertion sort is fine for the handful a ray usually has
+            var index = count;
+            while (index > 0 && fractions[index - 1] > fraction) {
+                entities[index] = entities[index - 1];
+                fractions[index] = fractions[index - 1];
+                System.arraycopy(points, (index - 1) * FLOATS_PER_POINT, points, index * FLOATS_PER_POINT, FLOATS_PER_POINT);
+                index--;
+            }
+            entities[index] = entity;
+            fractions[index] = fraction;
+            points[index * FLOATS_PER_POINT]     = x;
+            points[index * FLOATS_PER_POINT + 1] = y;
+            points[index * FLOATS_PER_POINT + 2] = z;
+            count++;
+        }
+    }
+
+    // NOTE - replaced by the physics system when it rebuilds the world or the broadphase
+    btCollisionWorld world;
+    btBroadphaseInterface broadphase;
+    private final BodyHandles handles;
+    private final CourseShape course;
+    private final Lock lock;
+
+    private final ClosestRayResultCallback closestRay;
+    private final AllHitsRayResultCallback allHitsRay;
+    // NOTE - the wrappers for the callback's native arrays are created once up front, getting them per query allocates
+    private final btCollisionObjectConstArray allHitsObjects;
+    private final btScalarArray allHitsFractions;
+    private final btVector3Array allHitsPoints;
+    private final btVector3Array allHitsNormals;
+    private final ClosestConvexResultCallback closestConvex;
+    private final btSphereShape sweepSphere;
+    private final OverlapCallback overlap;
+
+    private final Vector3 from = new Vector3();
+    private final Vector3 to = new Vector3();
+
+    PhysicsQueries(btCollisionWorld world, btBroadphaseInterface broadphase, BodyHandles handles, CourseShape course, Lock lock) {
+        this.world = world;
+        this.broadphase = broadphase;
+        this.handles = handles;
+        this.course = course;
+        this.lock = lock;
+
+        closestRay = new ClosestRayResultCallback(Vector3.Zero, Vector3.Zero);
+        allHitsRay = new AllHitsRayResultCallback(Vector3.Zero, Vector3.Zero);
+        allHitsObjects = allHitsRay.getCollisionObjects();
+        allHitsFractions = allHitsRay.getHitFractions();
+        allHitsPoints = allHitsRay.getHitPointWorld();
+        allHitsNormals = allHitsRay.getHitNormalWorld();
+        closestConvex = new ClosestConvexResultCallback(Vector3.Zero, Vector3.Zero);
+        sweepSphere = new btSphereShape(1f);
+        overlap = new OverlapCallback();
+    }
+
+    @Override
+    public void dispose() {
+        closestRay.dispose();
+        allHitsRay.dispose();
+        closestConvex.dispose();
+        sweepSphere.dispose();
+        overlap.dispose();
+    }
+
+    // ------------------------------------------------------------------------
+    // ray tests
+    // ------------------------------------------------------------------------
+
+    /**
+     * Find the closest body along the ray between the specified points
+     * @return true if anything was hit, the hit entity may still be null for bodies that aren't owned by an entity
+     */
+    public boolean rayTest(Vector3 from, Vector3 to, Hit hit) {
+        return rayTest(from, to, ALL, hit);
+    }
+
+    /**
+     * Find the closest body along the ray between the specified points whose collision filter group matches the mask
+     * @return true if anything was hit, the hit entity may still be null for bodies that aren't owned by an entity
+     */
+    public boolean rayTest(Vector3 from, Vector3 to, int mask, Hit hit) {
+        hit.clear();
+        lock.lock();
+        try {
+            if (!closestRayTest(from, to, mask)) return false;
+
+            hit.body = closestRay.getCollisionObject();
+            hit.fraction = closestRay.getClosestHitFraction();
+            closestRay.getHitPointWorld(hit.point);
+            closestRay.getHitNormalWorld(hit.normal);
+            hit.entity = resolve(hit.body, hit.point.x, hit.point.z);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find every body along the ray between the specified points whose collision filter group matches the mask
+     * @param hits cleared, then filled with the hits sorted from closest to furthest
+     * @return the number of hits
+     */
+    public int rayTestAll(Vector3 from, Vector3 to, int mask, Hits hits) {
+        hits.clear();
+        lock.lock();
+        try {
+            allHitsObjects.clear();
+            allHitsFractions.clear();
+            allHitsPoints.clear();
+            allHitsNormals.clear();
+            allHitsRay.setCollisionObject(null);
+            allHitsRay.setClosestHitFraction(1f);
+            allHitsRay.setCollisionFilterGroup(ALL);
+            allHitsRay.setCollisionFilterMask((short) mask);
+            allHitsRay.setRayFromWorld(from);
+            allHitsRay.setRayToWorld(to);
+            world.rayTest(from, to, allHitsRay);
+
+            var count = allHitsObjects.size();
+            for (int i = 0; i < count; i++) {
+                var body = allHitsObjects.atConst(i);
+                var fraction = allHitsFractions.atConst(i);
+                // the hit point is just the fraction along the ray, cheaper than copying it out of the native array
+                var x = from.x + (to.x - from.x) * fraction;
+                var y = from.y + (to.y - from.y) * fraction;
+                var z = from.z + (to.z - from.z) * fraction;
+                hits.insert(resolve(body, x, z), fraction, x, y, z);
+            }
+            return hits.count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closest hit ray tests for a batch of rays
+     * @param rays packed ray end points, {@link #FLOATS_PER_RAY} per ray: from x,y,z then to x,y,z
+     * @param numRays the number of rays to test
+     * @param mask the collision filter mask applied to every ray
+     * @param outEntities the hit entity per ray, null for a miss (or a hit on a body with no entity)
+     * @param outFractions the hit fraction per ray, 1 for a miss, may be null
+     * @param outPoints the hit point per ray, {@link #FLOATS_PER_POINT} per ray, left untouched for a miss, may be null
+     * @return the number of rays that hit something
+     */
+    public int rayTestBatch(float[] rays, int numRays, int mask, Entity[] outEntities, float[] outFractions, float[] outPoints) {
+        var numHits = 0;
+        lock.lock();
+        try {
+            for (int i = 0; i < numRays; i++) {
+                var r = i * FLOATS_PER_RAY;
+                from.set(rays[r],     rays[r + 1], rays[r + 2]);
+                to  .set(rays[r + 3], rays[r + 4], rays[r + 5]);
+
+                if (!closestRayTest(from, to, mask)) {
+                    outEntities[i] = null;
+                    if (outFractions != null) outFractions[i] = 1f;
+                    continue;
+                }
+
+                numHits++;
+                var fraction = closestRay.getClosestHitFraction();
+                var x = from.x + (to.x - from.x) * fraction;
+                var y = from.y + (to.y - from.y) * fraction;
+                var z = from.z + (to.z - from.z) * fraction;
+                outEntities[i] = resolve(closestRay.getCollisionObject(), x, z);
+                if (outFractions != null) {
+                    outFractions[i] = fraction;
+                }
+                if (outPoints != null) {
+                    var p = i * FLOATS_PER_POINT;
+                    outPoints[p]     = x;
+                    outPoints[p + 1] = y;
+                    outPoints[p + 2] = z;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return numHits;
+    }
+
+    // NOTE - caller must hold the lock
+    private boolean closestRayTest(Vector3 from, Vector3 to, int mask) {
+        closestRay.setCollisionObject(null);
+        closestRay.setClosestHitFraction(1f);
+        closestRay.setCollisionFilterGroup(ALL);
+        closestRay.setCollisionFilterMask((short) mask);
+        closestRay.setRayFromWorld(from);
+        closestRay.setRayToWorld(to);
+        world.rayTest(from, to, closestRay);
+        return closestRay.hasHit();
+    }
+
+    // ------------------------------------------------------------------------
+    // convex sweeps
+    // ------------------------------------------------------------------------
+
+    /**
+     * Find the first body hit by sweeping the specified shape between the specified transforms
+     * @return true if anything was hit
+     */
+    public boolean sweepTest(btConvexShape shape, Matrix4 from, Matrix4 to, int mask, Hit hit) {
+        hit.clear();
+        lock.lock();
+        try {
+            closestConvex.setHitCollisionObject(null);
+            closestConvex.setClosestHitFraction(1f);
+            closestConvex.setCollisionFilterGroup(ALL);
+            closestConvex.setCollisionFilterMask((short) mask);
+            closestConvex.setConvexFromWorld(from.getTranslation(this.from));
+            closestConvex.setConvexToWorld(to.getTranslation(this.to));
+            world.convexSweepTest(shape, from, to, closestConvex);
+            if (!closestConvex.hasHit()) return false;
+
+            hit.body = closestConvex.getHitCollisionObject();
+            hit.fraction = closestConvex.getClosestHitFraction();
+            closestConvex.getHitPointWorld(hit.point);
+            closestConvex.getHitNormalWorld(hit.normal);
+            hit.entity = resolve(hit.body, hit.point.x, hit.point.z);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the first body hit by sweeping a sphere of the specified radius between the specified points,
+     * ie. to check where a ball would end up along a straight path
+     * @return true if anything was hit
+     */
+    public boolean sweepSphere(float radius, Vector3 from, Vector3 to, int mask, Hit hit) {
+        sweepFrom.setToTranslation(from);
+        sweepTo.setToTranslation(to);
+        sweepSphere.setUnscaledRadius(radius);
+        return sweepTest(sweepSphere, sweepFrom, sweepTo, mask, hit);
+    }
+
+    private final Matrix4 sweepFrom = new Matrix4();
+    private final Matrix4 sweepTo = new Matrix4();
+
+    // ------------------------------------------------------------------------
+    // overlap
+    // ------------------------------------------------------------------------
+
+    /**
+     * Find every body whose bounding box overlaps the specified axis aligned box, straight from the broadphase.
+     * This is a bounding box test only, bodies are not tested against their actual shapes.
+     * @param out entities are appended to this array, bodies that aren't owned by an entity are skipped
+     * @return the number of entities appended
+     */
+    public int overlapAabb(Vector3 min, Vector3 max, int mask, Array<Entity> out) {
+        var size = out.size;
+        lock.lock();
+        try {
+            overlap.mask = mask;
+            overlap.out = out;
+            overlap.min = min;
+            overlap.max = max;
+            broadphase.aabbTest(min, max, overlap);
+        } finally {
+            overlap.out = null;
+            overlap.min = null;
+            overlap.max = null;
+            lock.unlock();
+        }
+        return out.size - size;
+    }
+
+    /**
+     * Get the entity for a query hit, a hit on the merged course shape resolves to the tile at the hit position
+     */
+    private Entity resolve(btCollisionObject body, float x, float z) {
+        var userValue = body.getUserValue();
+        if (userValue == CourseShape.USER_VALUE) {
+            return course.tileAt(x, z);
+        }
+        return handles.get(userValue);
+    }
+
+    private class OverlapCallback extends btBroadphaseAabbCallback {
+        int mask;
+        Array<Entity> out;
+        Vector3 min;
+        Vector3 max;
+
+        @Override
+        public boolean process(btBroadphaseProxy proxy) {
+            if ((proxy.getCollisionFilterGroup() & mask) == 0) return true;
+
+            var body = btCollisionObject.getInstance(proxy.getClientObject());
+            if (body == null) return true;
+
+            // the merged course shape is a single proxy, so narrow it down to the tiles within the box
+            if (body.getUserValue() == CourseShape.USER_VALUE) {
+                course.tilesIn(min.x, min.z, max.x, max.z, out);
+                return true;
+            }
+
+            var entity = handles.get(body.getUserValue());
+            if (entity != null) {
+                out.add(entity);
+            }
+            // keep going
+            return true;
+        }
+    }
+
+}
@@ -6,77 +6,223 @@ import com.badlogic.ashley.core.EntityListener;
 import com.badlogic.ashley.core.EntitySystem;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
-import com.badlogic.gdx.physics.bullet.DebugDrawer;
+import com.badlogic.gdx.math.collision.BoundingBox;
 import com.badlogic.gdx.physics.bullet.collision.*;
 import com.badlogic.gdx.physics.bullet.dynamics.btConstraintSolver;
+import com.badlogic.gdx.physics.bullet.dynamics.btDiscreteDynamicsWorld;
+import com.badlogic.gdx.physics.bullet.dynamics.btRigidBody;
 import com.badlogic.gdx.physics.bullet.dynamics.btSequentialImpulseConstraintSolver;
-import com.badlogic.gdx.physics.bullet.linearmath.btIDebugDraw;
 import com.badlogic.gdx.physics.bullet.linearmath.btVector3;
+import com.badlogic.gdx.physics.bullet.softbody.btSoftBody;
 import com.badlogic.gdx.physics.bullet.softbody.btSoftBodyRigidBodyCollisionConfiguration;
 import com.badlogic.gdx.physics.bullet.softbody.btSoftBodyWorldInfo;
 import com.badlogic.gdx.physics.bullet.softbody.btSoftRigidDynamicsWorld;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
-import zendo.games.physics.Game;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
+import zendo.games.physics.scene.SystemScheduler;
+import zendo.games.physics.scene.components.ModelInstanceComponent;
 import zendo.games.physics.scene.components.PhysicsComponent;
 import zendo.games.physics.scene.components.utils.ComponentFamilies;
 import zendo.games.physics.scene.components.utils.ComponentMappers;
+import zendo.games.physics.scene.factories.EntityFactory;
 
-public class PhysicsSystem extends EntitySystem implements EntityListener, Disposable {
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.badlogic.gdx.physics.bullet.collision.btCollisionObject.CollisionFlags;
+
+public class PhysicsSystem extends EntitySystem implements EntityListener, Disposable, SystemScheduler.Declared {
 
     private static final String TAG = PhysicsSystem.class.getSimpleName();
 
+    // contact subscribers are promised the render thread, and kill volumes remove entities
+    private static final SystemScheduler.Access ACCESS = new SystemScheduler.Access()
+            .writes(PhysicsComponent.class, ModelInstanceComponent.class)
+            .structural()
+            .renderThread();
+
+    public static final float GRAVITY = -9.8f;
+
     public static class Flags {
         public static int ground = 1 << 9;
         public static int object = 1 << 8;
     }
 
+    /**
+     * variable: step by the frame delta, letting bullet subdivide it into fixed substeps
+     * fixed:    step in whole fixed steps from an accumulator, interpolating render transforms
+     * threaded: step in fixed steps on a dedicated simulation thread, publishing transforms to the render thread
+     */
+    public enum StepMode { variable, fixed, threaded }
+
+    public static class Stepping {
+        // the lowest tick rate that continuous collision is set up for, see CcdProfile
+        public static final float MIN_TICK_RATE = 30f;
+
+        private StepMode mode = StepMode.fixed;
+        public volatile float tickRate = 60f;
+        public volatile int maxSubSteps = 5;
+
+        // stats
+        public int stepsLastFrame;
+        // NOTE - only ever written by the thread that steps the world, which is the simulation thread in threaded mode
+        public volatile int droppedTimeCount;
+        public volatile float droppedTime;
+        public float alpha;
+
+        private float accumulator;
+
+        public float timeStep() {
+            return 1f / tickRate;
+        }
+
+        public StepMode mode() {
+            return mode;
+        }
+    }
+    public final Stepping stepping = new Stepping();
+
+    /**
+     * dbvt:      dynamic aabb trees, unbounded and cheap to insert into
+     * axisSweep: sweep and prune within a fixed world aabb derived from the course bounds, rebuilt when the course grows
+     */
+    public enum BroadphaseType { dbvt, axisSweep }
+
+    public static class BroadphaseInfo {
+        private BroadphaseType type = BroadphaseType.dbvt;
+        // padding around the course bounds for the axis sweep world aabb, so that placing a tile at the edge doesn't force a rebuild
+        public float margin = 4 * EntityFactory.TILE_SIZE;
+        // NOTE - btAxisSweep3 uses 16 bit handles and corrupts memory rather than failing when it runs out of them,
+        //  so switching to axis sweep is refused when the world is close to this and it falls back to dbvt if it's reached
+        public int maxHandles = 16384;
+        // the fraction of handles that has to be left free to switch to axis sweep, so it doesn't fall straight back
+        public float headroom = 0.1f;
+
+        // stats
+        public int numRebuilds;
+        public int numFallbacks;
+        // the union of the bounds of every static body in the world,
+        // grown as they're added and recalculated before the next step once any are removed or moved
+        public final BoundingBox courseBounds = new BoundingBox().inf();
+        public final BoundingBox worldBounds = new BoundingBox().inf();
+
+        private volatile boolean rebuildPending;
+        // NOTE - only touched by the thread that owns the world
+        private boolean courseBoundsStale;
+
+        public BroadphaseType type() {
+            return type;
+        }
+
+        /**
+         * @return the number of objects an axis sweep broadphase can hold
+         */
+        public int handleCapacity() {
+            return Math.min(maxHandles, AXIS_SWEEP_MAX_HANDLES);
+        }
+    }
+    public final BroadphaseInfo broadphaseInfo = new BroadphaseInfo();
+
+    // the most handles btAxisSweep3 can have, they're unsigned shorts and bullet keeps one back as a sentinel
+    public static final int AXIS_SWEEP_MAX_HANDLES = 32766;
+
+    /**
+     * bodies:   each tile is its own kinematic body with its own broadphase proxy
+     * compound: tiles are children of a single static compound shape, see {@link CourseShape}
+     * NOTE - the mode applies to tiles as they're added, reload the level to convert existing tiles
+     */
+    public enum CourseMode { bodies, compound }
+    public CourseMode courseMode = CourseMode.bodies;
+
+    /**
+     * rigid:     a plain discrete dynamics world with the default collision configuration
+     * softRigid: a soft-rigid world, with the soft body collision algorithms and world info that go with it
+     * NOTE - the world starts out rigid and is switched over the first time a soft body is needed
+     */
+    public enum WorldType { rigid, softRigid }
+
+    public static class WorldInfo {
+        private WorldType type = WorldType.rigid;
+
+        // stats
+        public int numRebuilds;
+
+        public WorldType type() {
+            return type;
+        }
+    }
+    public final WorldInfo worldInfo = new WorldInfo();
+
     private final ComponentMapper<PhysicsComponent> mapper = ComponentMappers.physics;
+    private final Array<PhysicsComponent> interpolated = new Array<>();
+
+    public final ContactEvents contacts = new ContactEvents();
+    public final BodyHandles handles = new BodyHandles();
+    public final PhysicsQueries queries;
+    public final KillVolumes killVolumes = new KillVolumes();
+    public final BodyPools pools = new BodyPools();
+    public final CollisionLayers layers = new CollisionLayers();
+    public final CourseShape course = new CourseShape();
+    public final PhysicsDebugRenderer debug = new PhysicsDebugRenderer();
+    public final StepMetrics metrics = new StepMetrics();
+    public final WorldSnapshot.Ring snapshots = new WorldSnapshot.Ring(16);
 
-    private final btDispatcher dispatcher;
+    private btDispatcher dispatcher;
     private final btConstraintSolver constraintSolver;
-    private final btCollisionConfiguration collisionConfig;
-    private final btSoftBodyWorldInfo softBodyWorldInfo;
-    private final btBroadphaseInterface broadphase;
-    // TODO - more general? btCollisionWorld?
-    private final btSoftRigidDynamicsWorld dynamicsWorld;
+    private btCollisionConfiguration collisionConfig;
+    // only exists once the world has been switched to soft-rigid
+    private btSoftBodyWorldInfo softBodyWorldInfo;
+    private btBroadphaseInterface broadphase;
+    // NOTE - replaced when the world type changes, either a plain discrete world or a soft-rigid one
+    private btDiscreteDynamicsWorld dynamicsWorld;
 
     private final Contacts contactListener;
-    private final DebugDrawer debugDrawer;
 
-    public PhysicsSystem() {
-        collisionConfig = new btSoftBodyRigidBodyCollisionConfiguration();
-        dispatcher = new btCollisionDispatcher(collisionConfig);
-        broadphase = new btDbvtBroadphase();
-        constraintSolver = new btSequentialImpulseConstraintSolver();
+    // only exists while running in threaded mode
+    private Simulation simulation;
 
-        softBodyWorldInfo = new btSoftBodyWorldInfo();
-        softBodyWorldInfo.setDispatcher(dispatcher);
-        softBodyWorldInfo.setBroadphase(broadphase);
-        softBodyWorldInfo.getSparsesdf().Initialize();
-        softBodyWorldInfo.setGravity(new btVector3(0f, -9.8f, 0f));
+    // held by the simulation thread while it steps, so queries from the engine thread never see the world mid-step
+    private final ReentrantLock worldLock = new ReentrantLock();
 
-        dynamicsWorld = new btSoftRigidDynamicsWorld(dispatcher, broadphase, constraintSolver, collisionConfig);
-        // TODO - set gravity here and in softBodyWorldInfo, or just one place?
-        dynamicsWorld.setGravity(new Vector3(0f, -9.8f, 0f));
+    public PhysicsSystem() {
+        this(WorldType.rigid);
+    }
 
+    public PhysicsSystem(WorldType worldType) {
+        broadphase = createBroadphase(broadphaseInfo.type, broadphaseInfo.worldBounds, broadphaseInfo.handleCapacity());
+        constraintSolver = new btSequentialImpulseConstraintSolver();
+
+        createWorld(worldType);
         contactListener = new Contacts();
-        debugDrawer = new DebugDrawer();
-        debugDrawer.setSpriteBatch(Game.instance.assets.batch);
-        debugDrawer.setShapeRenderer(Game.instance.assets.shapeRenderer);
-        debugDrawer.setDebugMode(btIDebugDraw.DebugDrawModes.DBG_DrawWireframe | btIDebugDraw.DebugDrawModes.DBG_DrawContactPoints);
-        dynamicsWorld.setDebugDrawer(debugDrawer);
+
+        queries = new PhysicsQueries(dynamicsWorld, broadphase, handles, course, worldLock);
     }
 
     @Override
     public void dispose() {
+        stopSimulationThread();
+
+        queries.dispose();
+        pools.dispose();
+        if (course.body.isInWorld()) {
+            dynamicsWorld.removeRigidBody(course.body);
+        }
+        course.dispose();
         collisionConfig.dispose();
         dispatcher.dispose();
         broadphase.dispose();
         constraintSolver.dispose();
-        softBodyWorldInfo.dispose();
+        if (softBodyWorldInfo != null) {
+            softBodyWorldInfo.dispose();
+        }
         contactListener.dispose();
-        debugDrawer.dispose();
+        debug.dispose();
 
         // TODO - crash on world dispose, not sure why yet
 //        dynamicsWorld.dispose();
@@ -85,69 +231,930 @@ public class PhysicsSystem extends EntitySystem implements EntityListener, Dispo
     @Override
     public void entityAdded(Entity entity) {
         var component = mapper.get(entity);
-        dynamicsWorld.addRigidBody(component.rigidBody);
+
+        // the body's user value is its handle, so anything that gets a body from bullet can get back to the entity
+        component.handle = handles.create(entity);
+        component.rigidBody.setUserValue(component.handle);
+        component.killVolumes = killVolumes;
+
+        var tile = ComponentMappers.tiles.get(entity);
+        if (tile != null && courseMode == CourseMode.compound) {
+            var tileX = tile.xCoord;
+            var tileZ = tile.zCoord;
+            execute(() -> addToCourse(entity, component, tileX, tileZ));
+            return;
+        }
+
+        execute(() -> {
+            addBody(component);
+
+            if (component.mass > 0) {
+                interpolated.add(component);
+            }
+        });
     }
 
     @Override
     public void entityRemoved(Entity entity) {
         var component = mapper.get(entity);
-        if (component.rigidBody.isInWorld()) {
-            dynamicsWorld.removeRigidBody(component.rigidBody);
-        }
-        if (!component.rigidBody.isDisposed()) {
-            component.dispose();
-        }
+        var engine = getEngine();
+        var providers = (engine != null) ? engine.getSystem(ProviderSystem.class) : null;
+        var terrain = ComponentMappers.terrain.get(entity);
+
+        contacts.unsubscribeAll(component.handle);
+        handles.remove(component.handle);
+        component.handle = BodyHandles.INVALID;
+        component.killVolumes = null;
+
+        execute(() -> {
+            interpolated.removeValue(component, true);
+            if (!removeFromCourse(component) && component.rigidBody.isInWorld()) {
+                dynamicsWorld.removeRigidBody(component.rigidBody);
+                if (component.mass == 0) {
+                    broadphaseInfo.courseBoundsStale = true;
+                }
+            }
+
+            // pooled components keep their shape, they're reset when they're next obtained
+            if (component.pool != null) {
+                pools.free(component);
+                return;
+            }
+
+            if (!component.rigidBody.isDisposed()) {
+                component.dispose();
+            }
+
+            // terrain owns its shape and model, which is disposed along with its body
+            // NOTE - the model is a gl resource, so hand this back to the render thread if necessary
+            if (terrain != null) {
+                if (isThreaded()) {
+                    Gdx.app.postRunnable(terrain::dispose);
+                } else {
+                    terrain.dispose();
+                }
+                return;
+            }
+
+            // return shared collision shapes (ie. tile bvh wrappers) to the provider
+            // NOTE - providers aren't thread safe, so hand this back to the render thread if necessary
+            if (providers != null) {
+                var shape = component.shape();
+                if (isThreaded()) {
+                    Gdx.app.postRunnable(() -> providers.collisionShapeProvider.release(shape));
+                } else {
+                    providers.collisionShapeProvider.release(shape);
+                }
+            }
+        });
+    }
+
+    @Override
+    public SystemScheduler.Access access() {
+        return ACCESS;
     }
 
     @Override
     public void update(float delta) {
-        var engine = getEngine();
-        var entities = engine.getEntitiesFor(ComponentFamilies.physics);
-        for (var entity : entities) {
-            var physics = mapper.get(entity);
-            if (physics.outOfBounds) {
-                engine.removeEntity(entity);
+        if (simulation == null) {
+            recalculateCourseBounds();
+        }
+        if (broadphaseInfo.rebuildPending) {
+            broadphaseInfo.rebuildPending = false;
+            execute(() -> rebuildBroadphase(broadphaseInfo.type));
+        }
+
+        switch (stepping.mode) {
+            case variable -> {
+                var start = System.nanoTime();
+                stepping.stepsLastFrame = dynamicsWorld.stepSimulation(delta, stepping.maxSubSteps, stepping.timeStep());
+                stepped(System.nanoTime() - start, stepping.stepsLastFrame);
+                contacts.publish(dispatcher);
+                stepping.alpha = 1f;
+                contacts.drain(handles);
+                for (var component : interpolated) {
+                    component.syncRenderTransform();
+                }
+            }
+            case fixed -> stepFixed(delta);
+            // stepping happens on the simulation thread, transforms are picked up by syncRenderTransforms()
+            case threaded -> {
+                stepping.stepsLastFrame = simulation.stepsSinceLastFrame.getAndSet(0);
+                // contacts are recorded on the simulation thread, but subscribers are always notified on this one
+                contacts.drain(handles);
+            }
+        }
+
+        // bodies are queued for removal during the step, the engine removes them all together after this update
+        killVolumes.drain(handles, getEngine());
+    }
+
+    /**
+     * @return the entity that owns the specified body handle, or null if the handle is stale
+     */
+    public Entity getEntity(int handle) {
+        return handles.get(handle);
+    }
+
+    /**
+     * @return the entity that owns the specified body, or null if the body isn't managed by this system
+     */
+    public Entity getEntity(btCollisionObject body) {
+        return handles.get(body.getUserValue());
+    }
+
+    /**
+     * Replace the current kill volumes, takes effect before the next step
+     * @param volumes min x,y,z then max x,y,z for each volume, or null to use everything below the course
+     */
+    public void setKillVolumes(float[] volumes) {
+        var copy = (volumes != null) ? volumes.clone() : null;
+        execute(() -> killVolumes.set(copy));
+    }
+
+    public void setBroadphase(BroadphaseType type) {
+        execute(() -> {
+            if (broadphaseInfo.type == type) return;
+            rebuildBroadphase(type);
+        });
+    }
+
+    /**
+     * @param maxHandles the most objects the broadphase will ever hold, only used for axis sweep
+     *  which can't hold more than {@link #AXIS_SWEEP_MAX_HANDLES}
+     */
+    public static btBroadphaseInterface createBroadphase(BroadphaseType type, BoundingBox worldBounds, int maxHandles) {
+        return switch (type) {
+            case dbvt -> new btDbvtBroadphase();
+            case axisSweep -> {
+                if (maxHandles > AXIS_SWEEP_MAX_HANDLES) {
+                    throw new GdxRuntimeException("Axis sweep broadphase can't hold " + maxHandles + " objects, max: " + AXIS_SWEEP_MAX_HANDLES);
+                }
+                yield new btAxisSweep3(worldBounds.min, worldBounds.max, maxHandles);
             }
+        };
+    }
+
+    /**
+     * Move every object in the world into a new broadphase of the specified type,
+     * for axis sweep the world bounds are recalculated from the current course bounds first.
+     * NOTE - must be called from the thread that owns the world
+     */
+    private void rebuildBroadphase(BroadphaseType type) {
+        var info = broadphaseInfo;
+
+        // leave room to add objects before running out of handles, falling back if already on axis sweep
+        var numObjects = dynamicsWorld.getNumCollisionObjects();
+        var capacity = info.handleCapacity();
+        if (type == BroadphaseType.axisSweep && numObjects > (1f - info.headroom) * capacity) {
+            Gdx.app.log(TAG, "can't use axis sweep broadphase with " + numObjects + " objects, it only has " + capacity + " handles");
+            if (info.type == BroadphaseType.dbvt) return;
+            type = BroadphaseType.dbvt;
+            info.numFallbacks++;
+        }
+
+        recalculateCourseBounds();
+        if (info.courseBounds.isValid()) {
+            tempMin.set(info.courseBounds.min).sub(info.margin);
+            tempMax.set(info.courseBounds.max).add(info.margin);
+        } else {
+            tempMin.set(-info.margin, -info.margin, -info.margin);
+            tempMax.set( info.margin,  info.margin,  info.margin);
         }
+        info.worldBounds.set(tempMin, tempMax);
+
+        var count = removeAllObjects();
+
+        var previous = broadphase;
+        broadphase = createBroadphase(type, info.worldBounds, capacity);
+        dynamicsWorld.setBroadphase(broadphase);
+        if (softBodyWorldInfo != null) {
+            softBodyWorldInfo.setBroadphase(broadphase);
+        }
+        queries.broadphase = broadphase;
+        previous.dispose();
+
+        restoreAllObjects();
 
-        dynamicsWorld.stepSimulation(delta, 5, 1f / 60f);
+        info.type = type;
+        info.numRebuilds++;
+        // fitted to the current course bounds, so anything that asked for a rebuild before now is covered
+        info.rebuildPending = false;
+        Gdx.app.log(TAG, "rebuilt broadphase: " + type + " with " + count + " objects"
+                + ((type == BroadphaseType.axisSweep) ? ", bounds " + info.worldBounds : ""));
+    }
+
+    public void setWorldType(WorldType type) {
+        execute(() -> {
+            if (worldInfo.type == type) return;
+            rebuildWorld(type);
+        });
+    }
+
+    /**
+     * Switch to the soft-rigid world if necessary and add the specified soft body to it
+     * NOTE - create soft bodies with {@link #getSoftBodyWorldInfo()}, which must be called from a command
+     */
+    public void addSoftBody(btSoftBody body) {
+        execute(() -> {
+            if (worldInfo.type != WorldType.softRigid) {
+                rebuildWorld(WorldType.softRigid);
+            }
+            reserveHandle();
+            ((btSoftRigidDynamicsWorld) dynamicsWorld).addSoftBody(body);
+        });
+    }
+
+    public void removeSoftBody(btSoftBody body) {
+        execute(() -> {
+            if (dynamicsWorld instanceof btSoftRigidDynamicsWorld softWorld) {
+                softWorld.removeSoftBody(body);
+            }
+        });
+    }
+
+    /**
+     * @return the world info soft bodies are created with, switching to the soft-rigid world first if necessary
+     * NOTE - must be called from the thread that owns the world, ie. from a command passed to {@link #execute(Runnable)}
+     */
+    public btSoftBodyWorldInfo getSoftBodyWorldInfo() {
+        if (worldInfo.type != WorldType.softRigid) {
+            rebuildWorld(WorldType.softRigid);
+        }
+        return softBodyWorldInfo;
+    }
+
+    /**
+     * Create the dynamics world and the collision configuration and dispatcher that it needs for the specified type,
+     * sharing the broadphase and constraint solver between world types
+     */
+    private void createWorld(WorldType type) {
+        var gravity = new Vector3(0f, GRAVITY, 0f);
+        switch (type) {
+            case rigid -> {
+                collisionConfig = new btDefaultCollisionConfiguration();
+                dispatcher = new btCollisionDispatcher(collisionConfig);
+                dynamicsWorld = new btDiscreteDynamicsWorld(dispatcher, broadphase, constraintSolver, collisionConfig);
+            }
+            case softRigid -> {
+                collisionConfig = new btSoftBodyRigidBodyCollisionConfiguration();
+                dispatcher = new btCollisionDispatcher(collisionConfig);
+
+                if (softBodyWorldInfo == null) {
+                    softBodyWorldInfo = new btSoftBodyWorldInfo();
+                    softBodyWorldInfo.getSparsesdf().Initialize();
+                    softBodyWorldInfo.setGravity(new btVector3(gravity.x, gravity.y, gravity.z));
+                }
+                softBodyWorldInfo.setDispatcher(dispatcher);
+                softBodyWorldInfo.setBroadphase(broadphase);
+
+                dynamicsWorld = new btSoftRigidDynamicsWorld(dispatcher, broadphase, constraintSolver, collisionConfig);
+            }
+        }
+        dynamicsWorld.setGravity(gravity);
+        worldInfo.type = type;
+    }
+
+    /**
+     * Move every object into a new world of the specified type, the broadphase and solver carry over unchanged.
+     * Switching back to rigid is refused while the soft-rigid world still has soft bodies in it.
+     * NOTE - must be called from the thread that owns the world
+     */
+    private void rebuildWorld(WorldType type) {
+        if (dynamicsWorld instanceof btSoftRigidDynamicsWorld softWorld && softWorld.getSoftBodyArray().size() > 0) {
+            Gdx.app.log(TAG, "can't switch world to " + type + " while it has soft bodies");
+            return;
+        }
+
+        var count = removeAllObjects();
+
+        // the old world has to go before the dispatcher and configuration that it was created with
+        var previousWorld = dynamicsWorld;
+        var previousDispatcher = dispatcher;
+        var previousConfig = collisionConfig;
+        createWorld(type);
+        queries.world = dynamicsWorld;
+        previousWorld.dispose();
+        previousDispatcher.dispose();
+        previousConfig.dispose();
+
+        restoreAllObjects();
+
+        worldInfo.numRebuilds++;
+        Gdx.app.log(TAG, "rebuilt world: " + type + " with " + count + " objects");
+    }
+
+    /**
+     * Pull every object out of the world, keeping each one's collision filter so it can be restored as it was
+     * @return the number of objects removed
+     */
+    private int removeAllObjects() {
+        var objects = dynamicsWorld.getCollisionObjectArray();
+        var count = objects.size();
+        rebuildObjects.clear();
+        rebuildFilters.clear();
+        for (int i = 0; i < count; i++) {
+            var object = objects.atConst(i);
+            var proxy = object.getBroadphaseHandle();
+            rebuildObjects.add(object);
+            rebuildFilters.add(proxy.getCollisionFilterGroup());
+            rebuildFilters.add(proxy.getCollisionFilterMask());
+        }
+        for (var object : rebuildObjects) {
+            if (object instanceof btRigidBody body) {
+                dynamicsWorld.removeRigidBody(body);
+            } else {
+                dynamicsWorld.removeCollisionObject(object);
+            }
+        }
+        return count;
+    }
+
+    private void restoreAllObjects() {
+        for (int i = 0; i < rebuildObjects.size; i++) {
+            var object = rebuildObjects.get(i);
+            var group = (short) rebuildFilters.get(2 * i);
+            var mask = (short) rebuildFilters.get(2 * i + 1);
+            if (object instanceof btRigidBody body) {
+                dynamicsWorld.addRigidBody(body, group, mask);
+            } else {
+                dynamicsWorld.addCollisionObject(object, group, mask);
+            }
+        }
+        rebuildObjects.clear();
+    }
+
+    private final Array<btCollisionObject> rebuildObjects = new Array<>();
+    private final IntArray rebuildFilters = new IntArray();
+
+    public void setStepMode(StepMode mode) {
+        if (stepping.mode == mode) return;
+
+        if (mode == StepMode.threaded) {
+            startSimulationThread();
+        } else if (stepping.mode == StepMode.threaded) {
+            stopSimulationThread();
+        }
+        stepping.accumulator = 0f;
+        stepping.mode = mode;
+    }
+
+    public boolean isThreaded() {
+        return simulation != null;
+    }
+
+    /**
+     * Copy the most recently published body transforms from the simulation thread into render transforms,
+     * only does anything in threaded mode since the other modes update render transforms while stepping
+     */
+    public void syncRenderTransforms() {
+        if (simulation == null) return;
+
+        var buffer = simulation.snapshot.acquire();
+        if (buffer == null) return;
+
+        for (int i = 0; i < buffer.count; i++) {
+            // skip bodies removed since the buffer was written, their pooled component may belong to another body by now
+            if (!buffer.isCurrent(i)) continue;
+
+            var component = buffer.components[i];
+            component.setRenderTransform(buffer.transforms, i * TransformSnapshot.FLOATS_PER_TRANSFORM);
+        }
+    }
+
+    /**
+     * Advance the simulation in whole fixed steps, carrying leftover time over to the next frame,
+     * then interpolate render transforms between the last two physics states using the leftover fraction
+     */
+    private void stepFixed(float delta) {
+        var timeStep = stepping.timeStep();
+
+        // guard against the 'spiral of death': if a frame takes long enough that catching up would
+        // need more than the allowed number of steps, drop the excess time rather than trying to simulate it
+        stepping.accumulator += delta;
+        var maxAccumulated = stepping.maxSubSteps * timeStep;
+        if (stepping.accumulator > maxAccumulated) {
+            stepping.droppedTime += stepping.accumulator - maxAccumulated;
+            stepping.droppedTimeCount++;
+            stepping.accumulator = maxAccumulated;
+        }
+
+        var steps = 0;
+        var stepNanos = 0L;
+        while (stepping.accumulator >= timeStep) {
+            for (var component : interpolated) {
+                component.storePreviousTransform();
+            }
+
+            // a max substep count of zero steps exactly once by 'timeStep'
+            var start = System.nanoTime();
+            dynamicsWorld.stepSimulation(timeStep, 0);
+            stepNanos += System.nanoTime() - start;
+            stepping.accumulator -= timeStep;
+            steps++;
+
+            contacts.publish(dispatcher);
+            contacts.drain(handles);
+        }
+        stepping.stepsLastFrame = steps;
+        stepped(stepNanos, steps);
+
+        stepping.alpha = stepping.accumulator / timeStep;
+        for (var component : interpolated) {
+            component.interpolate(stepping.alpha);
+        }
     }
     
+    /**
+     * Called from the thread that owns the world right after each update that stepped it,
+     * counts steps and takes the regular snapshots for rewinding
+     */
+    private void stepped(long stepNanos, int substeps) {
+        if (substeps == 0) return;
+
+        numSteps += substeps;
+        var interval = snapshots.interval;
+        if (interval > 0 && numSteps - lastSnapshotStep >= interval) {
+            lastSnapshotStep = numSteps;
+            snapshots.capture(interpolated, numSteps);
+        }
+
+        if (metrics.enabled) {
+            recordMetrics(stepNanos, substeps);
+        }
+    }
+
+    // only touched by the thread that owns the world
+    private long numSteps;
+    private long lastSnapshotStep;
+
+    /**
+     * Record a sample of what the last update cost and what's in the world after it, see {@link StepMetrics}
+     */
+    private void recordMetrics(long stepNanos, int substeps) {
+
+        var numActive = 0;
+        var numSleeping = 0;
+        for (var component : interpolated) {
+            if (component.rigidBody.isActive()) {
+                numActive++;
+            } else {
+                numSleeping++;
+            }
+        }
+
+        var numPairs = broadphase.getOverlappingPairCache().getNumOverlappingPairs();
+        var numManifolds = dispatcher.getNumManifolds();
+        var numContacts = 0;
+        for (int i = 0; i < numManifolds; i++) {
+            numContacts += dispatcher.getManifoldByIndexInternal(i).getNumContacts();
+        }
+
+        metrics.record(stepNanos / 1_000_000f, substeps, numActive, numSleeping, numPairs, numManifolds, numContacts);
+    }
+
+    // ------------------------------------------------------------------------
+    // world commands
+    //   these run immediately, or between steps on the simulation thread in threaded mode,
+    //   so anything that modifies bodies in the world should go through here
+    // ------------------------------------------------------------------------
+
+    /**
+     * Run the specified command against the physics world,
+     * immediately or queued to run before the next step if the simulation is running on its own thread
+     */
+    public void execute(Runnable command) {
+        if (simulation != null) {
+            simulation.commands.add(command);
+        } else {
+            command.run();
+        }
+    }
+
     public void removeFromWorld(PhysicsComponent physics) {
-        if (!physics.rigidBody.isInWorld()) return;
-        dynamicsWorld.removeRigidBody(physics.rigidBody);
+        execute(() -> {
+            if (removeFromCourse(physics)) return;
+            if (!physics.rigidBody.isInWorld()) return;
+            dynamicsWorld.removeRigidBody(physics.rigidBody);
+            if (physics.mass == 0) {
+                broadphaseInfo.courseBoundsStale = true;
+            }
+        });
     }
-    
+
     public void addToWorld(PhysicsComponent physics) {
-        if (physics.rigidBody.isInWorld()) {
-            Gdx.app.log(TAG, "Tried to add physics component to world when it was already added!");
+        var entity = handles.get(physics.handle);
+        var tile = (entity != null) ? ComponentMappers.tiles.get(entity) : null;
+        if (tile != null && courseMode == CourseMode.compound) {
+            var tileX = tile.xCoord;
+            var tileZ = tile.zCoord;
+            execute(() -> addToCourse(entity, physics, tileX, tileZ));
             return;
         }
-        dynamicsWorld.addRigidBody(physics.rigidBody);
+
+        execute(() -> {
+            if (physics.rigidBody.isInWorld()) {
+                Gdx.app.log(TAG, "Tried to add physics component to world when it was already added!");
+                return;
+            }
+            addBody(physics);
+        });
     }
 
+    // NOTE - must be called from the thread that owns the world
+    private void addBody(PhysicsComponent physics) {
+        reserveHandle();
+        var layer = physics.layer;
+        dynamicsWorld.addRigidBody(physics.rigidBody, layer.bit, layers.mask(layer));
+
+        if (physics.mass == 0) {
+            includeInCourseBounds(physics.rigidBody);
+        }
+    }
+
+    // NOTE - must be called from the thread that owns the world
+    private void addToCourse(Entity entity, PhysicsComponent physics, int tileX, int tileZ) {
+        course.add(entity, physics, tileX, tileZ);
+
+        var layer = CollisionLayers.Layer.course;
+        if (!course.body.isInWorld()) {
+            reserveHandle();
+            dynamicsWorld.addRigidBody(course.body, layer.bit, layers.mask(layer));
+        } else {
+            dynamicsWorld.updateSingleAabb(course.body);
+        }
+        includeInCourseBounds(course.body);
+    }
+
+    /**
+     * @return false if the component wasn't part of the course shape
+     * NOTE - must be called from the thread that owns the world
+     */
+    private boolean removeFromCourse(PhysicsComponent physics) {
+        if (!course.remove(physics)) return false;
+        broadphaseInfo.courseBoundsStale = true;
+
+        // an empty compound has no valid bounds to put in the broadphase
+        if (course.size() == 0) {
+            dynamicsWorld.removeRigidBody(course.body);
+        } else {
+            dynamicsWorld.updateSingleAabb(course.body);
+        }
+        return true;
+    }
+
+    /**
+     * Make sure the broadphase has room for one more object, an axis sweep broadphase that's out of handles
+     * is replaced with dbvt since adding another object to it would overwrite memory that it doesn't own
+     * NOTE - must be called from the thread that owns the world, before adding an object to it
+     */
+    private void reserveHandle() {
+        var info = broadphaseInfo;
+        if (info.type != BroadphaseType.axisSweep) return;
+
+        var numObjects = dynamicsWorld.getNumCollisionObjects();
+        if (numObjects < info.handleCapacity()) return;
+
+        Gdx.app.log(TAG, "axis sweep broadphase is out of handles with " + numObjects + " objects, falling back to dbvt");
+        info.numFallbacks++;
+        rebuildBroadphase(BroadphaseType.dbvt);
+    }
+
+    // track the course bounds from its static bodies, growing the axis sweep bounds
+    // and lowering the default kill volume with them if necessary
+    private void includeInCourseBounds(btRigidBody body) {
+        body.getAabb(tempMin, tempMax);
+        broadphaseInfo.courseBounds.ext(tempMin).ext(tempMax);
+        killVolumes.setCourseFloor(broadphaseInfo.courseBounds.min.y);
+        if (broadphaseInfo.type == BroadphaseType.axisSweep
+         && !broadphaseInfo.worldBounds.contains(broadphaseInfo.courseBounds)) {
+            // deferred so that adding a whole level only rebuilds once
+            broadphaseInfo.rebuildPending = true;
+        }
+    }
+
+    /**
+     * Rebuild the course bounds from the static bodies still in the world if any were removed or moved,
+     * moving the default kill volume with them and refitting the axis sweep bounds
+     * if the course has outgrown them or shrunk well inside them.
+     * NOTE - must be called from the thread that owns the world, before stepping
+     */
+    private void recalculateCourseBounds() {
+        var info = broadphaseInfo;
+        if (!info.courseBoundsStale) return;
+        info.courseBoundsStale = false;
+
+        var bounds = info.courseBounds.inf();
+        var objects = dynamicsWorld.getCollisionObjectArray();
+        for (int i = 0; i < objects.size(); i++) {
+            if (objects.atConst(i) instanceof btRigidBody body && body.isStaticObject()) {
+                body.getAabb(tempMin, tempMax);
+                bounds.ext(tempMin).ext(tempMax);
+            }
+        }
+        // back to ground level without any static bodies, same as before the first one was added
+        killVolumes.setCourseFloor(bounds.isValid() ? bounds.min.y : 0f);
+
+        if (info.type == BroadphaseType.axisSweep && bounds.isValid()) {
+            // allow up to twice the margin before shrinking, so moving a tile back and forth doesn't keep rebuilding
+            tempMin.set(bounds.min).sub(2 * info.margin);
+            tempMax.set(bounds.max).add(2 * info.margin);
+            if (!info.worldBounds.contains(bounds) || !tempBounds.set(tempMin, tempMax).contains(info.worldBounds)) {
+                info.rebuildPending = true;
+            }
+        }
+    }
+
+    private final Vector3 tempMin = new Vector3();
+    private final Vector3 tempMax = new Vector3();
+    private final BoundingBox tempBounds = new BoundingBox();
+
+    public void applyImpulse(PhysicsComponent physics, float x, float y, float z) {
+        execute(() -> {
+            physics.rigidBody.activate();
+            physics.rigidBody.applyCentralImpulse(tempImpulse.set(x, y, z));
+        });
+    }
+
+    /**
+     * Raise or lower terrain around a world position, waking any bodies nearby so they react to the new surface
+     * @see TerrainComponent#sculpt(float, float, float, float)
+     */
+    public void sculptTerrain(Entity entity, float x, float z, float radius, float amount) {
+        var terrain = ComponentMappers.terrain.get(entity);
+        var physics = mapper.get(entity);
+        if (terrain == null || physics == null) return;
+
+        execute(() -> {
+            if (!terrain.sculpt(x, z, radius, amount)) return;
+
+            tempMin.set(x - radius, terrain.minHeight, z - radius);
+            tempMax.set(x + radius, terrain.maxHeight, z + radius);
+            sculptedEntities.clear();
+            queries.overlapAabb(tempMin, tempMax, PhysicsQueries.ALL, sculptedEntities);
+            for (var nearby : sculptedEntities) {
+                var component = mapper.get(nearby);
+                if (component != null && component.mass > 0) {
+                    component.rigidBody.activate();
+                }
+            }
+
+            // NOTE - the debug renderer's caches belong to the render thread
+            if (isThreaded()) {
+                Gdx.app.postRunnable(() -> debug.changed(physics));
+            } else {
+                debug.changed(physics);
+            }
+        });
+    }
+
+    private final Array<Entity> sculptedEntities = new Array<>();
+
+    /**
+     * Capture every dynamic body's state into the specified snapshot, before the next step in threaded mode
+     */
+    public void captureSnapshot(WorldSnapshot snapshot) {
+        execute(() -> snapshot.capture(interpolated, numSteps));
+    }
+
+    /**
+     * Put every dynamic body in the snapshot back the way it was, without adding or removing anything,
+     * bodies that have been removed since are skipped and bodies that have been added since are left alone
+     */
+    public void restoreSnapshot(WorldSnapshot snapshot) {
+        if (snapshot.isEmpty()) return;
+        execute(() -> {
+            snapshot.restore(this);
+            // forget warm starting impulses from the state that was just thrown away
+            constraintSolver.reset();
+        });
+    }
+
+    /**
+     * Restore one of the regularly captured snapshots, dropping any newer ones
+     * @param age how many snapshots back, 0 being the most recent
+     */
+    public void rewind(int age) {
+        execute(() -> {
+            var snapshot = snapshots.get(age);
+            if (snapshot == null) return;
+
+            snapshot.restore(this);
+            constraintSolver.reset();
+            snapshots.truncate(age);
+            lastSnapshotStep = numSteps;
+        });
+    }
+
+    /**
+     * Called by {@link WorldSnapshot} for each body it restores
+     */
+    void restored(PhysicsComponent physics, Matrix4 transform) {
+        var body = physics.rigidBody;
+        // drop cached contacts, they're from wherever the body was before
+        broadphase.getOverlappingPairCache().cleanProxyFromPairs(body.getBroadphaseHandle(), dispatcher);
+        dynamicsWorld.updateSingleAabb(body);
+        // in threaded mode the render transform catches up when the next step is published
+        physics.restoreTransform(transform, !isThreaded());
+    }
+
+    public void setWorldTransform(PhysicsComponent physics, Matrix4 transform) {
+        var copy = transform.cpy();
+        if (physics.mass == 0) {
+            debug.moved(physics, copy);
+        }
+        execute(() -> {
+            physics.rigidBody.setWorldTransform(copy);
+            // the body may have moved away from the edge of the course, so the bounds could shrink as well as grow
+            if (course.contains(physics)) {
+                course.update(physics);
+                dynamicsWorld.updateSingleAabb(course.body);
+                broadphaseInfo.courseBoundsStale = true;
+            } else if (physics.mass == 0) {
+                broadphaseInfo.courseBoundsStale = true;
+            }
+        });
+    }
+
+    private final Vector3 tempImpulse = new Vector3();
+
+    /**
+     * Listen for contacts involving the specified entity's physics body.
+     * Only bodies with at least one subscriber generate contact callbacks.
+     * Subscribers are notified once per tick (or once per frame in threaded mode) on the thread that updates the engine.
+     */
+    public void subscribeContacts(Entity entity, ContactEvents.Subscriber subscriber) {
+        var physics = mapper.get(entity);
+        if (physics == null) return;
+
+        if (contacts.subscribe(physics.handle, subscriber)) {
+            execute(() -> {
+                var body = physics.rigidBody;
+                body.setCollisionFlags(body.getCollisionFlags() | CollisionFlags.CF_CUSTOM_MATERIAL_CALLBACK);
+                body.setContactCallbackFilter(Flags.ground | Flags.object);
+            });
+        }
+    }
+
+    public void unsubscribeContacts(Entity entity, ContactEvents.Subscriber subscriber) {
+        var physics = mapper.get(entity);
+        if (physics == null) return;
+
+        if (contacts.unsubscribe(physics.handle, subscriber)) {
+            execute(() -> {
+                var body = physics.rigidBody;
+                if (body.isDisposed()) return;
+                body.setCollisionFlags(body.getCollisionFlags() & ~CollisionFlags.CF_CUSTOM_MATERIAL_CALLBACK);
+            });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Draw every physics body's wireframe, see {@link PhysicsDebugRenderer} and its options
+     */
     public void renderDebug(Camera camera) {
-        debugDrawer.begin(camera);
-        dynamicsWorld.debugDrawWorld();
-        debugDrawer.end();
+        debug.begin(camera);
+        for (var entity : getEngine().getEntitiesFor(ComponentFamilies.physics)) {
+            debug.add(mapper.get(entity));
+        }
+        if (debug.options.contacts) {
+            // NOTE - contacts come straight from the world, so wait for the simulation thread to finish any step it's in
+            worldLock.lock();
+            try {
+                debug.addContacts(dispatcher);
+            } finally {
+                worldLock.unlock();
+            }
+        }
+        debug.end();
     }
 
-    static class Contacts extends ContactListener {
+    // ------------------------------------------------------------------------
+    // simulation thread
+    // ------------------------------------------------------------------------
+
+    private void startSimulationThread() {
+        if (simulation != null) return;
+
+        simulation = new Simulation();
+        simulation.thread.start();
+        Gdx.app.log(TAG, "started simulation thread");
+    }
+
+    private void stopSimulationThread() {
+        if (simulation == null) return;
+
+        // NOTE - wait however long the current step or command takes, nothing here can touch the world
+        //  (or dispose it) until the simulation thread is done with it
+        simulation.running = false;
+        var interrupted = false;
+        while (simulation.thread.isAlive()) {
+            try {
+                simulation.thread.join(1000);
+                if (simulation.thread.isAlive()) {
+                    Gdx.app.log(TAG, "waiting for the simulation thread to finish its step");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // pick up the final transforms and run anything still queued now that this thread owns the world again
+        syncRenderTransforms();
+        var commands = simulation.commands;
+        simulation = null;
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+        Gdx.app.log(TAG, "stopped simulation thread");
+    }
+
+    private class Simulation implements Runnable {
+        final Thread thread;
+        final TransformSnapshot snapshot = new TransformSnapshot();
+        final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+        final AtomicInteger stepsSinceLastFrame = new AtomicInteger();
+        volatile boolean running = true;
+
+        Simulation() {
+            thread = new Thread(this, "physics-simulation");
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            var nextStepTime = System.nanoTime();
+            while (running) {
+                var timeStep = stepping.timeStep();
+                var stepNanos = (long) (timeStep * 1_000_000_000L);
+
+                var now = System.nanoTime();
+                if (now < nextStepTime) {
+                    LockSupport.parkNanos(nextStepTime - now);
+                    continue;
+                }
+
+                // same 'spiral of death' guard as fixed mode, drop time rather than falling further behind
+                var maxBehind = stepping.maxSubSteps * stepNanos;
+                var behind = now - nextStepTime;
+                if (behind > maxBehind) {
+                    stepping.droppedTime += (behind - maxBehind) / 1_000_000_000f;
+                    stepping.droppedTimeCount++;
+                    nextStepTime = now - maxBehind;
+                }
+
+                worldLock.lock();
+                try {
+                    Runnable command;
+                    while ((command = commands.poll()) != null) {
+                        command.run();
+                    }
+                    recalculateCourseBounds();
+
+                    var start = System.nanoTime();
+                    dynamicsWorld.stepSimulation(timeStep, 0);
+                    stepped(System.nanoTime() - start, 1);
+                    contacts.publish(dispatcher);
+                } finally {
+                    worldLock.unlock();
+                }
+                nextStepTime += stepNanos;
+                stepsSinceLastFrame.incrementAndGet();
+
+                var buffer = snapshot.begin(interpolated.size);
+                for (var component : interpolated) {
+                    snapshot.write(buffer, component);
+                }
+                snapshot.publish();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    private class Contacts extends ContactListener {
+        private final Vector3 point = new Vector3();
+
+        // NOTE - only called for pairs where at least one body has CF_CUSTOM_MATERIAL_CALLBACK
+        //  and a contact callback filter that matches the other body's flag,
+        //  just copy the values out so the step isn't held up by whatever subscribers do with them,
+        //  the impulse isn't known until the solver has run so it's filled in after the step, see ContactEvents#publish
         @Override
-        public boolean onContactAdded(int userValue0, int partId0, int index0, boolean match0,
+        public boolean onContactAdded(btManifoldPoint cp,
+                                      int userValue0, int partId0, int index0, boolean match0,
                                       int userValue1, int partId1, int index1, boolean match1) {
-//            var object0 = gameObjects.get(userValue0);
-//            var object1 = gameObjects.get(userValue1);
-//
-//            if (match0) {
-//                ((ColorAttribute) object0.materials.first()
-//                        .get(ColorAttribute.Diffuse))
-//                        .color.set(1f, 1f, 1f, 0.9f);
-//            } else if (match1) {
-//                ((ColorAttribute) object1.materials.first()
-//                        .get(ColorAttribute.Diffuse))
-//                        .color.set(1f, 1f, 1f, 0.9f);
-//            }
+            // NOTE - user values are body handles, see BodyHandles
+            cp.getPositionWorldOnB(point);
+            contacts.record(
+                    userValue0, partId0, match0,
+                    userValue1, partId1, match1,
+                    point.x, point.y, point.z);
             return true;
         }
     }
@@ -3,10 +3,14 @@ package zendo.games.physics.scene.systems;
 import com.badlogic.ashley.core.EntitySystem;
 import com.badlogic.gdx.utils.Disposable;
 import zendo.games.physics.Assets;
+import zendo.games.physics.scene.SystemScheduler;
 import zendo.games.physics.scene.providers.CollisionShapeProvider;
 import zendo.games.physics.scene.providers.ModelProvider;
 
-public class ProviderSystem extends EntitySystem implements Disposable {
+public class ProviderSystem extends EntitySystem implements Disposable, SystemScheduler.Declared {
+
+    // nothing happens in update, the providers are used by whoever creates entities
+    private static final SystemScheduler.Access ACCESS = new SystemScheduler.Access();
 
     public final ModelProvider modelProvider;
     public final CollisionShapeProvider collisionShapeProvider;
@@ -16,6 +20,11 @@ public class ProviderSystem extends EntitySystem implements Disposable {
         this.collisionShapeProvider = new CollisionShapeProvider();
     }
 
+    @Override
+    public SystemScheduler.Access access() {
+        return ACCESS;
+    }
+
     @Override
     public void dispose() {
         modelProvider.dispose();
@@ -10,10 +10,20 @@ import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.environment.DirectionalShadowLight;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.ObjectSet;
+import zendo.games.physics.scene.SystemScheduler;
 import zendo.games.physics.scene.components.ModelInstanceComponent;
+import zendo.games.physics.scene.components.PhysicsComponent;
+import zendo.games.physics.scene.components.TerrainComponent;
+import zendo.games.physics.scene.components.utils.ComponentFamilies;
 import zendo.games.physics.scene.components.utils.ComponentMappers;
 
-public class RenderSystem extends EntitySystem implements EntityListener {
+public class RenderSystem extends EntitySystem implements EntityListener, SystemScheduler.Declared {
+
+    // terrain mesh uploads are gl calls
+    private static final SystemScheduler.Access ACCESS = new SystemScheduler.Access()
+            .reads(PhysicsComponent.class)
+            .writes(ModelInstanceComponent.class, TerrainComponent.class)
+            .renderThread();
 
     private final ObjectSet<Entity> entities = new ObjectSet<>();
     private final ObjectSet<ModelInstanceComponent> components = new ObjectSet<>();
@@ -33,6 +43,25 @@ public class RenderSystem extends EntitySystem implements EntityListener {
         entities.remove(entity);
     }
 
+    @Override
+    public SystemScheduler.Access access() {
+        return ACCESS;
+    }
+
+    @Override
+    public void update(float delta) {
+        // in threaded mode physics transforms are published from another thread, pick up the latest ones
+        var physics = getEngine().getSystem(PhysicsSystem.class);
+        if (physics != null) {
+            physics.syncRenderTransforms();
+        }
+
+        // upload any terrain edits made since the last frame
+        for (var entity : getEngine().getEntitiesFor(ComponentFamilies.terrain)) {
+            ComponentMappers.terrain.get(entity).updateMesh();
+        }
+    }
+
     public void render(Camera camera, ModelBatch batch, Environment environment) {
         batch.begin(camera);
         batch.render(components, environment);
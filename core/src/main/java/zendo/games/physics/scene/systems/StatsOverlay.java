@@ -0,0 +1,276 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Engine;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.profiling.GLProfiler;
+import com.badlogic.gdx.utils.Align;
+import zendo.games.physics.Assets;
+import zendo.games.physics.Config;
+import zendo.games.physics.scene.components.utils.ComponentFamilies;
+import zendo.games.physics.utils.TextBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * The fps counter plus an optional overlay of frame, entity, physics and rendering stats with rolling graphs.
+ *
+ * Everything is drawn from preallocated buffers, text is built in {@link TextBuffer}s and laid out with the shared
+ * glyph layout, so once the fonts have their glyphs and the layout's pools are warm a frame allocates nothing here.
+ * The overlay shows how many bytes the render thread allocated over the last frame, which is the check for that.
+ * The stats are shown with {@link Config.Debug#hud}, the physics step graph with {@link Config.Debug#metrics}.
+ */
+public class StatsOverlay {
+
+    // four seconds at 60fps
+    public static final int FRAME_SAMPLES = 240;
+
+    private final Assets assets;
+    private final Engine engine;
+    private final GLProfiler profiler;
+    // null if the jvm can't count allocations per thread
+    private final com.sun.management.ThreadMXBean threads;
+
+    private final TextBuffer text = new TextBuffer(256);
+    private final Color graphBackground = new Color(0f, 0f, 0f, 0.5f);
+
+    // frame times in milliseconds, the next sample goes in at (numFrames % FRAME_SAMPLES)
+    private final float[] frameMillis = new float[FRAME_SAMPLES];
+    private final float[] sorted = new float[FRAME_SAMPLES];
+    private int numFrames;
+
+    private final StepMetrics.Summary stepSummary = new StepMetrics.Summary();
+
+    private long lastAllocatedBytes = -1;
+    public long allocatedBytes;
+    public int drawCalls;
+    public int textureBindings;
+    public int shaderSwitches;
+
+    public StatsOverlay(Assets assets, Engine engine) {
+        this.assets = assets;
+        this.engine = engine;
+        this.profiler = new GLProfiler(Gdx.graphics);
+
+        com.sun.management.ThreadMXBean threads = null;
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+         && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            threads = bean;
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Record the last frame's time, called once per frame
+     */
+    public void update() {
+        frameMillis[numFrames % FRAME_SAMPLES] = 1000f * Gdx.graphics.getDeltaTime();
+        numFrames++;
+    }
+
+    public void render(Camera camera, SpriteBatch batch) {
+        sampleFrame();
+
+        var font = assets.largeFont;
+        var top = camera.viewportHeight;
+
+        text.clear().append(Gdx.graphics.getFramesPerSecond());
+        top -= draw(batch, font, text, 0, top);
+
+        font = assets.smallFont;
+        text.clear().append("Entities: ").append(engine.getEntitiesFor(ComponentFamilies.names).size());
+        top -= 10f + draw(batch, font, text, 0, top - 10f);
+
+        if (Config.Debug.hud) {
+            renderStats(batch, font, top - 10f);
+            renderFrameGraph(camera, batch);
+        }
+        if (Config.Debug.metrics) {
+            renderStepGraph(batch);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+
+    /**
+     * Read and reset the counters that span a frame, so the overlay shows the last complete frame
+     */
+    private void sampleFrame() {
+        if (Config.Debug.hud != profiler.isEnabled()) {
+            if (Config.Debug.hud) {
+                profiler.enable();
+            } else {
+                profiler.disable();
+            }
+        }
+        if (profiler.isEnabled()) {
+            drawCalls = profiler.getDrawCalls();
+            textureBindings = profiler.getTextureBindings();
+            shaderSwitches = profiler.getShaderSwitches();
+            profiler.reset();
+        }
+
+        if (threads != null) {
+            var bytes = threads.getCurrentThreadAllocatedBytes();
+            allocatedBytes = (lastAllocatedBytes < 0) ? 0 : bytes - lastAllocatedBytes;
+            lastAllocatedBytes = bytes;
+        }
+    }
+
+    private void renderStats(SpriteBatch batch, BitmapFont font, float top) {
+        var lineSpacing = 4f;
+
+        // frame time percentiles
+        var size = Math.min(numFrames, FRAME_SAMPLES);
+        System.arraycopy(frameMillis, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        text.clear().append("frame ").append(frameMillis[Math.floorMod(numFrames - 1, FRAME_SAMPLES)], 2).append("ms");
+        if (size > 0) {
+            text.append("  p50 ").append(sorted[size / 2], 2)
+                .append("  p95 ").append(sorted[Math.min(size - 1, (int) (0.95f * size))], 2)
+                .append("  p99 ").append(sorted[Math.min(size - 1, (int) (0.99f * size))], 2)
+                .append("  max ").append(sorted[size - 1], 2);
+        }
+        top -= lineSpacing + draw(batch, font, text, 0, top);
+
+        // entities per family
+        text.clear()
+            .append("all ").append(engine.getEntities().size())
+            .append("  bodies ").append(engine.getEntitiesFor(ComponentFamilies.physics).size())
+            .append("  tiles ").append(engine.getEntitiesFor(ComponentFamilies.tiles).size())
+            .append("  models ").append(engine.getEntitiesFor(ComponentFamilies.modelInstances).size());
+        top -= lineSpacing + draw(batch, font, text, 0, top);
+
+        // physics
+        var physics = engine.getSystem(PhysicsSystem.class);
+        if (physics != null) {
+            physics.metrics.summarize(StepMetrics.Metric.stepMillis, stepSummary);
+            text.clear()
+                .append("step ").append(stepSummary.latest, 2).append("ms")
+                .append("  p95 ").append(stepSummary.p95, 2)
+                .append("  max ").append(stepSummary.max, 2)
+                .append("  active ").append((long) physics.metrics.get(StepMetrics.Metric.activeBodies, 0))
+                .append("  contacts ").append((long) physics.metrics.get(StepMetrics.Metric.contacts, 0));
+            if (physics.metrics.size() == 0) {
+                text.clear().append("no physics steps recorded");
+            }
+            top -= lineSpacing + draw(batch, font, text, 0, top);
+        }
+
+        // rendering and garbage
+        text.clear()
+            .append("draw calls ").append(drawCalls)
+            .append("  textures ").append(textureBindings)
+            .append("  shaders ").append(shaderSwitches)
+            .append("  alloc ");
+        if (threads != null) {
+            text.append(allocatedBytes).append(" B/frame");
+        } else {
+            text.append("n/a");
+        }
+        draw(batch, font, text, 0, top);
+    }
+
+    /**
+     * Graph frame times from the bottom right corner, against a line at the frame time for 60fps
+     */
+    private void renderFrameGraph(Camera camera, SpriteBatch batch) {
+        var width = 300f;
+        var height = 80f;
+        var x = camera.viewportWidth - width - 10f;
+        var y = 10f;
+        var target = 1000f / 60f;
+        var size = Math.min(numFrames, FRAME_SAMPLES);
+
+        var max = target;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, frameMillis[i]);
+        }
+        var scale = height / Math.max(1.5f * target, max);
+
+        var shapes = assets.shapes;
+        shapes.filledRectangle(x, y, width, height, graphBackground);
+        shapes.line(x, y + target * scale, x + width, y + target * scale, Color.RED, 1f);
+
+        // newest sample on the right
+        var step = width / FRAME_SAMPLES;
+        for (int age = 0; age < size - 1; age++) {
+            var x1 = x + width - age * step;
+            var y1 = y + frameMillis[Math.floorMod(numFrames - 1 - age, FRAME_SAMPLES)] * scale;
+            var y2 = y + frameMillis[Math.floorMod(numFrames - 2 - age, FRAME_SAMPLES)] * scale;
+            shapes.line(x1, y1, x1 - step, y2, Color.SKY, 1f);
+        }
+
+        text.clear().append("frame ms (max ").append(max, 1).append(')');
+        draw(batch, assets.smallFont, text, x, y + height + assets.smallFont.getCapHeight() + 5);
+    }
+
+    /**
+     * Graph physics step times from the bottom left corner, against a line at one fixed step's worth of time
+     * since stepping slower than that on average means the simulation can't keep up with real time
+     */
+    private void renderStepGraph(SpriteBatch batch) {
+        var physics = engine.getSystem(PhysicsSystem.class);
+        if (physics == null) return;
+
+        var metrics = physics.metrics;
+        var metric = StepMetrics.Metric.stepMillis;
+        var size = metrics.size();
+        metrics.summarize(metric, stepSummary);
+
+        var x = 10f;
+        var y = 10f;
+        var width = 300f;
+        var height = 80f;
+        var budget = 1000f * physics.stepping.timeStep();
+        var scale = height / Math.max(1.5f * budget, stepSummary.max);
+
+        var shapes = assets.shapes;
+        shapes.filledRectangle(x, y, width, height, graphBackground);
+        shapes.line(x, y + budget * scale, x + width, y + budget * scale, Color.RED, 1f);
+
+        // newest sample on the right
+        var step = width / StepMetrics.CAPACITY;
+        for (int age = 0; age < size - 1; age++) {
+            var x1 = x + width - age * step;
+            var y1 = y + metrics.get(metric, age) * scale;
+            var y2 = y + metrics.get(metric, age + 1) * scale;
+            shapes.line(x1, Math.min(y1, y + height), x1 - step, Math.min(y2, y + height), Color.LIME, 1f);
+        }
+
+        if (size == 0) {
+            text.clear().append("no physics steps recorded");
+        } else {
+            text.clear()
+                .append("step ").append(stepSummary.latest, 2).append("ms")
+                .append(" (p95 ").append(stepSummary.p95, 2)
+                .append(", max ").append(stepSummary.max, 2)
+                .append(", budget ").append(budget, 2).append(')')
+                .append("  active ").append((long) metrics.get(StepMetrics.Metric.activeBodies, 0))
+                .append("  sleeping ").append((long) metrics.get(StepMetrics.Metric.sleepingBodies, 0))
+                .append("  pairs ").append((long) metrics.get(StepMetrics.Metric.pairs, 0))
+                .append("  manifolds ").append((long) metrics.get(StepMetrics.Metric.manifolds, 0))
+                .append("  contacts ").append((long) metrics.get(StepMetrics.Metric.contacts, 0));
+        }
+        var layout = assets.layout;
+        layout.setText(assets.smallFont, text, 0, text.length(), Color.WHITE, 0, Align.left, false, null);
+        assets.smallFont.draw(batch, layout, x, y + height + layout.height + 5);
+    }
+
+    /**
+     * Draw a line of text with its top left corner at the specified position
+     * @return the height of the line
+     */
+    private float draw(SpriteBatch batch, BitmapFont font, TextBuffer str, float x, float top) {
+        var layout = assets.layout;
+        layout.setText(font, str, 0, str.length(), Color.WHITE, 0, Align.left, false, null);
+        font.draw(batch, layout, x, top);
+        return layout.height;
+    }
+
+}
@@ -0,0 +1,148 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import java.util.Arrays;
+
+/**
+ * What each physics update cost and what it was working with, kept in fixed size ring buffers so recording never allocates.
+ *
+ * One sample is recorded per update that actually stepped the world, ie. once per frame in fixed and variable mode
+ * (with the number of substeps it took) and once per step in threaded mode.
+ * NOTE - samples are written by whichever thread steps the world, reading them from another thread can see
+ *  the oldest sample being overwritten, which is fine for the graphs and summaries this is for
+ */
+public class StepMetrics {
+
+    // ten seconds at the default tick rate
+    public static final int CAPACITY = 600;
+
+    public enum Metric {
+          stepMillis
+        , substeps
+        , activeBodies
+        , sleepingBodies
+        , pairs
+        , manifolds
+        , contacts
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    public static class Summary {
+        public float latest;
+        public float average;
+        public float p95;
+        public float max;
+
+        @Override
+        public String toString() {
+            return String.format("%.2f (avg %.2f, p95 %.2f, max %.2f)", latest, average, p95, max);
+        }
+    }
+
+    public boolean enabled = true;
+
+    // one ring per metric, laid out back to back
+    private final float[] values = new float[METRICS.length * CAPACITY];
+    private final float[] sorted = new float[CAPACITY];
+    // total samples ever recorded, the next sample goes in at (count % CAPACITY)
+    private volatile int count;
+
+    void record(float stepMillis, int substeps, int activeBodies, int sleepingBodies, int pairs, int manifolds, int contacts) {
+        var index = count % CAPACITY;
+        values[Metric.stepMillis.ordinal()     * CAPACITY + index] = stepMillis;
+        values[Metric.substeps.ordinal()       * CAPACITY + index] = substeps;
+        values[Metric.activeBodies.ordinal()   * CAPACITY + index] = activeBodies;
+        values[Metric.sleepingBodies.ordinal() * CAPACITY + index] = sleepingBodies;
+        values[Metric.pairs.ordinal()          * CAPACITY + index] = pairs;
+        values[Metric.manifolds.ordinal()      * CAPACITY + index] = manifolds;
+        values[Metric.contacts.ordinal()       * CAPACITY + index] = contacts;
+        // publish the sample only once it's complete
+        count = count + 1;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return the number of samples available, up to {@link #CAPACITY}
+     */
+    public int size() {
+        return Math.min(count, CAPACITY);
+    }
+
+    /**
+     * @return the total number of samples recorded since the last clear, including ones that have been overwritten
+     */
+    public int total() {
+        return count;
+    }
+
+    /**
+     * @param age how many samples back from the most recent one, from 0 to size() - 1
+     */
+    public float get(Metric metric, int age) {
+        var index = Math.floorMod(count - 1 - age, CAPACITY);
+        return values[metric.ordinal() * CAPACITY + index];
+    }
+
+    /**
+     * Summarize every available sample of a metric into the specified summary
+     * NOTE - uses a shared scratch array, so only call this from one thread
+     */
+    public Summary summarize(Metric metric, Summary out) {
+        var size = size();
+        out.latest = out.average = out.p95 = out.max = 0f;
+        if (size == 0) return out;
+
+        var total = 0f;
+        for (int age = 0; age < size; age++) {
+            var value = get(metric, age);
+            sorted[age] = value;
+            total += value;
+        }
+        Arrays.sort(sorted, 0, size);
+
+        out.latest = get(metric, 0);
+        out.average = total / size;
+        out.p95 = sorted[Math.min(size - 1, (int) (0.95f * size))];
+        out.max = sorted[size - 1];
+        return out;
+    }
+
+    /**
+     * Write every available sample, oldest first, as csv with a column per metric
+     */
+    public void writeCsv(FileHandle file) {
+        var size = size();
+        var str = new StringBuilder("sample");
+        for (var metric : METRICS) {
+            str.append(',').append(metric.name());
+        }
+        str.append('\n');
+
+        var first = count - size;
+        for (int age = size - 1; age >= 0; age--) {
+            str.append(first + (size - 1 - age));
+            for (var metric : METRICS) {
+                str.append(',').append(get(metric, age));
+            }
+            str.append('\n');
+        }
+        file.writeString(str.toString(), false);
+    }
+
+    @Override
+    public String toString() {
+        var str = new StringBuilder();
+        str.append(size()).append(" samples (").append(count).append(" recorded)");
+        var summary = new Summary();
+        for (var metric : METRICS) {
+            str.append("\n  ").append(metric.name()).append(": ").append(summarize(metric, summary));
+        }
+        return str.toString();
+    }
+
+}
@@ -0,0 +1,244 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.ashley.core.Entity;
+import com.badlogic.ashley.core.EntityListener;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectLongMap;
+import zendo.games.physics.scene.components.utils.ComponentMappers;
+
+/**
+ * Which tile entity occupies each tile coordinate, so occupancy, neighbour and range lookups
+ * don't have to walk every coord entity in the engine.
+ *
+ * Coordinates are packed into a long key and stored in a linear probing open addressing table
+ * of primitive keys and entity values, so nothing is boxed on lookup or insert.
+ * Removal shifts the following entries of the probe run back instead of leaving tombstones,
+ * so lookups never get slower as tiles are moved around in the editor.
+ * Kept up to date as an entity listener on {@link zendo.games.physics.scene.components.utils.ComponentFamilies#tileCoords},
+ * a tile that's being held in the editor has its coord removed so it doesn't occupy anything until it's placed.
+ * NOTE - the engine notifies listeners on whichever thread adds or removes entities, which is always the render thread here
+ */
+public class TileIndex implements EntityListener {
+
+    private static final String TAG = TileIndex.class.getSimpleName();
+
+    private static final float MAX_LOAD = 0.5f;
+
+    // orthogonal neighbours first, then diagonals, as dx, dz pairs
+    private static final int[] NEIGHBOUR_OFFSETS = {
+          1,  0,   -1,  0,    0,  1,    0, -1
+        , 1,  1,   -1,  1,    1, -1,   -1, -1
+    };
+    public static final int NUM_NEIGHBOURS = NEIGHBOUR_OFFSETS.length / 2;
+
+    private long[] keys;
+    // a null value marks an empty slot, so every key is valid including zero
+    private Entity[] values;
+    private int mask;
+    private int shift;
+    private int size;
+    private int threshold;
+
+    // the key each entity was indexed under, needed because the coord component
+    // is already gone by the time the entity is removed from the family
+    private final ObjectLongMap<Entity> entityKeys = new ObjectLongMap<>();
+
+    public TileIndex() {
+        this(256);
+    }
+
+    public TileIndex(int initialCapacity) {
+        allocate(Math.max(16, nextPowerOfTwo((int) Math.ceil(initialCapacity / MAX_LOAD))));
+    }
+
+    @Override
+    public void entityAdded(Entity entity) {
+        var coord = ComponentMappers.coord2.get(entity);
+        var key = key(coord.x(), coord.y());
+
+        var existing = put(key, entity);
+        if (existing != null && existing != entity) {
+            // the editor checks occupancy before placing, so this means two tiles were loaded into the same space,
+            // the newer one wins and the older one is no longer indexed
+            entityKeys.remove(existing, 0);
+            Gdx.app.log(TAG, "Tile " + coord.x() + "," + coord.y() + " was already occupied, replaced it");
+        }
+        entityKeys.put(entity, key);
+    }
+
+    @Override
+    public void entityRemoved(Entity entity) {
+        if (!entityKeys.containsKey(entity)) return;
+
+        var key = entityKeys.remove(entity, 0);
+        var slot = find(key);
+        if (slot >= 0 && values[slot] == entity) {
+            removeSlot(slot);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        entityKeys.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the tile entity at the specified tile coordinate, or null if there isn't one
+     */
+    public Entity get(int tileX, int tileZ) {
+        var slot = find(key(tileX, tileZ));
+        return (slot >= 0) ? values[slot] : null;
+    }
+
+    public boolean isOccupied(int tileX, int tileZ) {
+        return find(key(tileX, tileZ)) >= 0;
+    }
+
+    /**
+     * Fill the output array with the tiles around the specified tile coordinate, null where there isn't one.
+     * The first four are the orthogonal neighbours (+x, -x, +z, -z) and the next four are the diagonals,
+     * so an array of length 4 gets just the orthogonal ones.
+     * @return the number of neighbours that aren't null
+     */
+    public int neighbours(int tileX, int tileZ, Entity[] out) {
+        var count = 0;
+        var n = Math.min(out.length, NUM_NEIGHBOURS);
+        for (int i = 0; i < n; i++) {
+            var entity = get(tileX + NEIGHBOUR_OFFSETS[2 * i], tileZ + NEIGHBOUR_OFFSETS[2 * i + 1]);
+            out[i] = entity;
+            if (entity != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Append every tile entity with a coordinate inside the specified inclusive range
+     */
+    public void query(int minX, int minZ, int maxX, int maxZ, Array<Entity> out) {
+        if (minX > maxX || minZ > maxZ) return;
+
+        // a large range is better served by walking the table than the range
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > values.length) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) continue;
+                var tileX = keyX(keys[i]);
+                var tileZ = keyZ(keys[i]);
+                if (tileX >= minX && tileX <= maxX && tileZ >= minZ && tileZ <= maxZ) {
+                    out.add(values[i]);
+                }
+            }
+            return;
+        }
+
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                var slot = find(key(x, z));
+                if (slot >= 0) {
+                    out.add(values[slot]);
+                }
+            }
+        }
+    }
+
+    public static long key(int tileX, int tileZ) {
+        return ((long) tileX << 32) | (tileZ & 0xffffffffL);
+    }
+
+    public static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int keyZ(long key) {
+        return (int) key;
+    }
+
+    // ------------------------------------------------------------------------
+    // Open addressing
+    // ------------------------------------------------------------------------
+
+    private int slot(long key) {
+        // fibonacci hashing spreads neighbouring coordinates across the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private int find(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == null) return -1;
+            if (keys[i] == key) return i;
+        }
+    }
+
+    private Entity put(long key, Entity entity) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                keys[i] = key;
+                values[i] = entity;
+                if (++size > threshold) {
+                    resize(values.length << 1);
+                }
+                return null;
+            }
+            if (keys[i] == key) {
+                var existing = values[i];
+                values[i] = entity;
+                return existing;
+            }
+        }
+    }
+
+    private void removeSlot(int slot) {
+        // shift later entries of the probe run back into the gap if that doesn't move them before their home slot
+        var gap = slot;
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            var home = slot(keys[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate(capacity);
+
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Entity[capacity];
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(mask);
+        threshold = (int) (capacity * MAX_LOAD);
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return (value <= 1) ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    @Override
+    public String toString() {
+        return size + " tiles in " + values.length + " slots";
+    }
+
+}
@@ -0,0 +1,128 @@
+package zendo.games.physics.scene.systems;
+
+import zendo.games.physics.scene.components.PhysicsComponent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free hand off of body transforms from the simulation thread to the render thread.
+ *
+ * The simulation thread fills the 'back' buffer then publishes it by swapping it with the 'ready' buffer,
+ * the render thread picks up the most recently published buffer by swapping the 'ready' buffer with its 'front' buffer.
+ * A third (ready) buffer is what keeps this lock-free: neither side ever writes to a buffer the other side may be reading.
+ *
+ * Each transform is stored along with its body's handle, physics components are pooled so by the time a buffer is read
+ * its component may have been removed and reused for another body, see {@link Buffer#isCurrent(int)}.
+ */
+public class TransformSnapshot {
+
+    public static final int FLOATS_PER_TRANSFORM = 16;
+
+    public static class Buffer {
+        public PhysicsComponent[] components;
+        public int[] handles;
+        public float[] transforms;
+        public int count;
+        public int step;
+
+        Buffer(int capacity) {
+            components = new PhysicsComponent[capacity];
+            handles = new int[capacity];
+            transforms = new float[capacity * FLOATS_PER_TRANSFORM];
+        }
+
+        void ensureCapacity(int capacity) {
+            if (components.length >= capacity) return;
+            var newCapacity = Math.max(capacity, components.length * 2);
+            var newComponents = new PhysicsComponent[newCapacity];
+            var newHandles = new int[newCapacity];
+            var newTransforms = new float[newCapacity * FLOATS_PER_TRANSFORM];
+            System.arraycopy(components, 0, newComponents, 0, count);
+            System.arraycopy(handles, 0, newHandles, 0, count);
+            System.arraycopy(transforms, 0, newTransforms, 0, count * FLOATS_PER_TRANSFORM);
+            components = newComponents;
+            handles = newHandles;
+            transforms = newTransforms;
+        }
+
+        /**
+         * Whether the component at the specified index still belongs to the body whose transform was written
+         */
+        public boolean isCurrent(int index) {
+            return components[index].handle == handles[index];
+        }
+    }
+
+    // low bits hold the index of the 'ready' buffer, the high bit flags it as unread
+    private static final int INDEX_MASK = 0b11;
+    private static final int FRESH_BIT = 0b100;
+
+    private final Buffer[] buffers;
+    private final AtomicInteger ready;
+    private int back;
+    private int front;
+
+    public TransformSnapshot() {
+        this(64);
+    }
+
+    public TransformSnapshot(int initialCapacity) {
+        buffers = new Buffer[] {
+                new Buffer(initialCapacity),
+                new Buffer(initialCapacity),
+                new Buffer(initialCapacity)
+        };
+        front = 0;
+        ready = new AtomicInteger(1);
+        back = 2;
+    }
+
+    // ------------------------------------------------------------------------
+    // writer (simulation thread)
+    // ------------------------------------------------------------------------
+
+    /**
+     * Start writing a new snapshot, the returned buffer is owned by the writer until {@link #publish()}
+     */
+    public Buffer begin(int count) {
+        var buffer = buffers[back];
+        buffer.count = 0;
+        buffer.ensureCapacity(count);
+        return buffer;
+    }
+
+    public void write(Buffer buffer, PhysicsComponent component) {
+        var index = buffer.count++;
+        buffer.components[index] = component;
+        buffer.handles[index] = component.handle;
+        component.writeCurrentTransform(buffer.transforms, index * FLOATS_PER_TRANSFORM);
+    }
+
+    public void publish() {
+        var previous = ready.getAndSet(back | FRESH_BIT);
+        back = previous & INDEX_MASK;
+
+        // drop references to components that may since have been removed
+        var stale = buffers[back];
+        for (int i = 0; i < stale.count; i++) {
+            stale.components[i] = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // reader (render thread)
+    // ------------------------------------------------------------------------
+
+    /**
+     * Get the most recently published snapshot, or null if nothing new has been published since the last call
+     */
+    public Buffer acquire() {
+        if ((ready.get() & FRESH_BIT) == 0) {
+            return null;
+        }
+        var previous = ready.getAndSet(front);
+        front = previous & INDEX_MASK;
+        return buffers[front];
+    }
+
+}
@@ -37,6 +37,8 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import zendo.games.physics.Assets;
+import zendo.games.physics.Config;
+import zendo.games.physics.scene.SystemScheduler;
 import zendo.games.physics.scene.components.TileComponent;
 import zendo.games.physics.scene.components.utils.ComponentFamilies;
 import zendo.games.physics.scene.components.utils.ComponentMappers;
@@ -47,10 +49,13 @@ import zendo.games.physics.utils.ConsoleCommandExecutor;
 
 import java.nio.charset.StandardCharsets;
 
-public class UserInterfaceSystem extends EntitySystem implements Disposable {
+public class UserInterfaceSystem extends EntitySystem implements Disposable, SystemScheduler.Declared {
 
     private static final String TAG = UserInterfaceSystem.class.getSimpleName();
 
+    // scene2d isn't thread safe
+    private static final SystemScheduler.Access ACCESS = new SystemScheduler.Access().renderThread();
+
     private final EditorScreen screen;
     private final Assets assets;
     private final Engine engine;
@@ -59,6 +64,7 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
     private TextureAtlas iconAtlas;
 
     public final GUIConsole console;
+    public final StatsOverlay overlay;
     public final ConsoleCommandExecutor commandExecutor;
 
     public VisImageTextButton activeModelButton;
@@ -118,6 +124,8 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
         console.setPosition(0, 0);
         console.setSizePercent(100, 20);
 
+        this.overlay = new StatsOverlay(assets, engine);
+
         this.commandExecutor = new ConsoleCommandExecutor(screen);
         console.setCommandExecutor(commandExecutor);
 
@@ -168,8 +176,14 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
         VisUI.dispose();
     }
 
+    @Override
+    public SystemScheduler.Access access() {
+        return ACCESS;
+    }
+
     @Override
     public void update(float delta) {
+        overlay.update();
         stage.act(delta);
     }
 
@@ -177,19 +191,7 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
         batch.setProjectionMatrix(camera.combined);
         batch.begin();
         {
-            var font = assets.largeFont;
-            var layout = assets.layout;
-
-            var text = Integer.toString(Gdx.graphics.getFramesPerSecond(), 10);
-            layout.setText(font, text, Color.WHITE, camera.viewportWidth, Align.left, false);
-            font.draw(batch, layout, 0, camera.viewportHeight);
-            var fpsHeight = layout.height;
-
-            font = assets.smallFont;
-            var namedEntities = engine.getEntitiesFor(ComponentFamilies.names);
-            text = "Entities: " + namedEntities.size();
-            layout.setText(font, text, Color.WHITE, camera.viewportWidth, Align.left, false);
-            font.draw(batch, layout, 0, camera.viewportHeight - fpsHeight - 10);
+            overlay.render(camera, batch);
         }
         batch.end();
 
@@ -535,15 +537,29 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
     }
 
     private void saveLevelData(String filename) {
+        var tileInfos = new Array<TileInfo>();
         var tileEntities = engine.getEntitiesFor(ComponentFamilies.tiles);
-        if (tileEntities.size() > 0) {
-            var tileInfos = new Array<TileInfo>();
-            for (var entity : tileEntities) {
-                var tile = ComponentMappers.tiles.get(entity);
-                var tileInfo = new TileInfo(tile);
-                tileInfos.add(tileInfo);
+        for (var entity : tileEntities) {
+            var tile = ComponentMappers.tiles.get(entity);
+            var tileInfo = new TileInfo(tile);
+            tileInfos.add(tileInfo);
+        }
+        // tiles in streamed out chunks aren't entities right now, but they're still part of the course
+        var streamer = engine.getSystem(CourseStreamer.class);
+        if (streamer != null) {
+            streamer.collectUnloaded(tileInfos);
+        }
+
+        if (tileInfos.size > 0) {
+            var killVolumeInfos = new Array<KillVolumeInfo>();
+            var physics = engine.getSystem(PhysicsSystem.class);
+            if (physics != null && !physics.killVolumes.isDefault()) {
+                var volumes = physics.killVolumes.volumes();
+                for (int i = 0; i < volumes.length; i += KillVolumes.FLOATS_PER_VOLUME) {
+                    killVolumeInfos.add(new KillVolumeInfo(volumes, i));
+                }
             }
-            var levelInfo = new LevelFileInfo(tileInfos);
+            var levelInfo = new LevelFileInfo(tileInfos, killVolumeInfos);
             var json = new Json(JsonWriter.OutputType.json);
             var jsonData = json.prettyPrint(levelInfo);//, LevelFileInfo.class)
             var path = "levels/" + filename;
@@ -560,18 +576,46 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
         var path = "levels/" + filename;
         var file = Gdx.files.local(path);
         if (file.exists()) {
+            // large courses are streamed in by chunk around the camera rather than all becoming entities at once
+            var streamer = engine.getSystem(CourseStreamer.class);
+            if (streamer != null && Config.Streaming.enabled) {
+                streamer.load(file, this::setKillVolumes, this::levelLoadFailed);
+                return;
+            }
+
             var json = new Json();
             var jsonData = file.readString(StandardCharsets.UTF_8.name());
             var levelData = json.fromJson(LevelFileInfo.class, jsonData);
             if (!levelData.tileInfos.isEmpty()) {
                 // clear existing tiles before loading a new one
                 engine.removeAllEntities(ComponentFamilies.tiles);
+                if (streamer != null) {
+                    streamer.clear();
+                }
 
                 for (var tileInfo : levelData.tileInfos) {
                     var modelType = MinigolfModels.valueOf(tileInfo.modelType);
                     EntityFactory.createTile(modelType, engine, assets, tileInfo.x, tileInfo.z, tileInfo.yRotation);
                 }
             }
+
+            setKillVolumes(levelData);
+        }
+    }
+
+    private void levelLoadFailed(RuntimeException e) {
+        // the streamer has already logged why, bring the file picker back so another level can be picked
+        if (filePicker.isShown) return;
+        filePicker.isShown = true;
+        filePicker.showAction.reset();
+        filePicker.window.addAction(filePicker.showAction);
+    }
+
+    private void setKillVolumes(LevelFileInfo levelData) {
+        // levels without kill volumes of their own get the default
+        var physics = engine.getSystem(PhysicsSystem.class);
+        if (physics != null) {
+            physics.setKillVolumes(KillVolumeInfo.toArray(levelData.killVolumes));
         }
     }
 
@@ -607,6 +651,34 @@ public class UserInterfaceSystem extends EntitySystem implements Disposable {
     @AllArgsConstructor
     public static class LevelFileInfo {
         Array<TileInfo> tileInfos;
+        Array<KillVolumeInfo> killVolumes;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class KillVolumeInfo {
+        float minX, minY, minZ;
+        float maxX, maxY, maxZ;
+        public KillVolumeInfo(float[] volumes, int offset) {
+            this(volumes[offset],     volumes[offset + 1], volumes[offset + 2],
+                 volumes[offset + 3], volumes[offset + 4], volumes[offset + 5]);
+        }
+        public static float[] toArray(Array<KillVolumeInfo> infos) {
+            if (infos == null || infos.isEmpty()) return null;
+            var volumes = new float[infos.size * KillVolumes.FLOATS_PER_VOLUME];
+            for (int i = 0; i < infos.size; i++) {
+                var info = infos.get(i);
+                var offset = i * KillVolumes.FLOATS_PER_VOLUME;
+                volumes[offset]     = info.minX;
+                volumes[offset + 1] = info.minY;
+                volumes[offset + 2] = info.minZ;
+                volumes[offset + 3] = info.maxX;
+                volumes[offset + 4] = info.maxY;
+                volumes[offset + 5] = info.maxZ;
+            }
+            return volumes;
+        }
     }
 
 }
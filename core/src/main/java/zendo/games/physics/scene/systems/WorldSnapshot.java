@@ -0,0 +1,207 @@
+package zendo.games.physics.scene.systems;
+
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Array;
+import zendo.games.physics.scene.components.PhysicsComponent;
+
+/**
+ * The state of every dynamic body at one step, packed into a float array so it can be captured and restored
+ * without allocating and without going through the engine.
+ *
+ * Each body takes {@link #FLOATS_PER_BODY} floats: the rotation and translation columns of its transform,
+ * its linear and angular velocities, its activation state and how long it's been still for.
+ * Bodies are matched up again by component and handle, so a body that has since been removed,
+ * or whose pooled component now belongs to another entity, is skipped rather than restored.
+ * Bodies added after the capture are left as they are.
+ * NOTE - only capture or restore from the thread that owns the world, ie. through {@link PhysicsSystem}
+ */
+public class WorldSnapshot {
+
+    // 3x4 transform + linear velocity + angular velocity + activation state + deactivation time
+    public static final int FLOATS_PER_BODY = 12 + 3 + 3 + 1 + 1;
+
+    private PhysicsComponent[] components = new PhysicsComponent[0];
+    private int[] handles = new int[0];
+    private float[] values = new float[0];
+    private int count;
+
+    // the physics system's step count when this was captured, or -1 if it hasn't been
+    public long step = -1;
+    public long captureNanos;
+    public long restoreNanos;
+    // bodies that couldn't be restored last time because they're no longer the same body
+    public int numSkipped;
+
+    private final Matrix4 transform = new Matrix4();
+    private final Vector3 vector = new Vector3();
+
+    public boolean isEmpty() {
+        return step < 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the size of the packed state in bytes, not counting the component and handle arrays
+     */
+    public int bytes() {
+        return count * FLOATS_PER_BODY * Float.BYTES;
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            components[i] = null;
+        }
+        count = 0;
+        step = -1;
+    }
+
+    void capture(Array<PhysicsComponent> bodies, long step) {
+        var start = System.nanoTime();
+        ensureCapacity(bodies.size);
+
+        count = 0;
+        for (var component : bodies) {
+            var body = component.rigidBody;
+            if (body.isDisposed()) continue;
+
+            var i = count * FLOATS_PER_BODY;
+            var m = body.getWorldTransform(transform).val;
+            // the bottom row of a rigid transform is always 0,0,0,1 so it's left out
+            values[i]      = m[Matrix4.M00]; values[i + 1]  = m[Matrix4.M10]; values[i + 2]  = m[Matrix4.M20];
+            values[i + 3]  = m[Matrix4.M01]; values[i + 4]  = m[Matrix4.M11]; values[i + 5]  = m[Matrix4.M21];
+            values[i + 6]  = m[Matrix4.M02]; values[i + 7]  = m[Matrix4.M12]; values[i + 8]  = m[Matrix4.M22];
+            values[i + 9]  = m[Matrix4.M03]; values[i + 10] = m[Matrix4.M13]; values[i + 11] = m[Matrix4.M23];
+
+            var linear = body.getLinearVelocity();
+            values[i + 12] = linear.x; values[i + 13] = linear.y; values[i + 14] = linear.z;
+            var angular = body.getAngularVelocity();
+            values[i + 15] = angular.x; values[i + 16] = angular.y; values[i + 17] = angular.z;
+
+            values[i + 18] = body.getActivationState();
+            values[i + 19] = body.getDeactivationTime();
+
+            components[count] = component;
+            handles[count] = component.handle;
+            count++;
+        }
+        for (int i = count; i < components.length && components[i] != null; i++) {
+            components[i] = null;
+        }
+
+        this.step = step;
+        captureNanos = System.nanoTime() - start;
+    }
+
+    void restore(PhysicsSystem physics) {
+        var start = System.nanoTime();
+
+        numSkipped = 0;
+        for (int b = 0; b < count; b++) {
+            var component = components[b];
+            var body = component.rigidBody;
+            if (component.handle != handles[b] || body.isDisposed() || !body.isInWorld()) {
+                numSkipped++;
+                continue;
+            }
+
+            var i = b * FLOATS_PER_BODY;
+            var m = transform.idt().val;
+            m[Matrix4.M00] = values[i];     m[Matrix4.M10] = values[i + 1];  m[Matrix4.M20] = values[i + 2];
+            m[Matrix4.M01] = values[i + 3]; m[Matrix4.M11] = values[i + 4];  m[Matrix4.M21] = values[i + 5];
+            m[Matrix4.M02] = values[i + 6]; m[Matrix4.M12] = values[i + 7];  m[Matrix4.M22] = values[i + 8];
+            m[Matrix4.M03] = values[i + 9]; m[Matrix4.M13] = values[i + 10]; m[Matrix4.M23] = values[i + 11];
+            body.proceedToTransform(transform);
+
+            vector.set(values[i + 12], values[i + 13], values[i + 14]);
+            body.setLinearVelocity(vector);
+            body.setInterpolationLinearVelocity(vector);
+            vector.set(values[i + 15], values[i + 16], values[i + 17]);
+            body.setAngularVelocity(vector);
+            body.setInterpolationAngularVelocity(vector);
+            body.clearForces();
+
+            body.forceActivationState((int) values[i + 18]);
+            body.setDeactivationTime(values[i + 19]);
+
+            component.outOfBounds = false;
+            physics.restored(component, transform);
+        }
+
+        restoreNanos = System.nanoTime() - start;
+    }
+
+    private void ensureCapacity(int numBodies) {
+        if (components.length >= numBodies) return;
+
+        var capacity = Math.max(numBodies, 2 * components.length);
+        components = new PhysicsComponent[capacity];
+        handles = new int[capacity];
+        values = new float[capacity * FLOATS_PER_BODY];
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) return "empty";
+        return "step " + step + ": " + count + " bodies in " + bytes() + " bytes"
+             + " | capture " + (captureNanos / 1000) + "us"
+             + ((restoreNanos > 0) ? " | restore " + (restoreNanos / 1000) + "us (skipped " + numSkipped + ")" : "");
+    }
+
+    /**
+     * A fixed number of snapshots taken at a regular step interval, overwriting the oldest, for scrubbing backwards
+     */
+    public static class Ring {
+        public final WorldSnapshot[] snapshots;
+        // capture every this many steps, or never if zero
+        public volatile int interval = 60;
+        private int next;
+        private int count;
+
+        public Ring(int capacity) {
+            snapshots = new WorldSnapshot[capacity];
+            for (int i = 0; i < capacity; i++) {
+                snapshots[i] = new WorldSnapshot();
+            }
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @param age how many snapshots back from the most recent one, from 0 to size() - 1
+         * @return the snapshot, or null if there aren't that many
+         */
+        public WorldSnapshot get(int age) {
+            if (age < 0 || age >= count) return null;
+            return snapshots[Math.floorMod(next - 1 - age, snapshots.length)];
+        }
+
+        public void clear() {
+            for (var snapshot : snapshots) {
+                snapshot.clear();
+            }
+            next = 0;
+            count = 0;
+        }
+
+        void capture(Array<PhysicsComponent> bodies, long step) {
+            snapshots[next].capture(bodies, step);
+            next = (next + 1) % snapshots.length;
+            count = Math.min(count + 1, snapshots.length);
+        }
+
+        /**
+         * Drop every snapshot newer than the specified one, so that capturing carries on from the restored state
+         */
+        void truncate(int age) {
+            count -= Math.min(age, count);
+            next = Math.floorMod(next - age, snapshots.length);
+        }
+    }
+
+}
@@ -10,10 +10,11 @@ import com.badlogic.gdx.graphics.g3d.Material;
 import com.badlogic.gdx.graphics.g3d.attributes.BlendingAttribute;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Quaternion;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ScreenUtils;
 import zendo.games.physics.Config;
 import zendo.games.physics.controllers.CameraController;
@@ -26,10 +27,15 @@ import zendo.games.physics.scene.components.utils.ComponentFamilies;
 import zendo.games.physics.scene.components.utils.ComponentMappers;
 import zendo.games.physics.scene.factories.EntityFactory;
 import zendo.games.physics.scene.packs.MinigolfModels;
+import zendo.games.physics.scene.systems.CollisionLayers;
+import zendo.games.physics.scene.systems.CourseStreamer;
+import zendo.games.physics.scene.systems.PhysicsQueries;
 import zendo.games.physics.scene.systems.PhysicsSystem;
 import zendo.games.physics.scene.systems.ProviderSystem;
 import zendo.games.physics.scene.systems.RenderSystem;
+import zendo.games.physics.scene.systems.TileIndex;
 import zendo.games.physics.scene.systems.UserInterfaceSystem;
+import zendo.games.physics.scene.systems.WorldSnapshot;
 import zendo.games.physics.utils.Calc;
 
 import static com.badlogic.gdx.Input.Buttons;
@@ -46,6 +52,10 @@ public class EditorScreen extends BaseScreen {
     private final PhysicsSystem physicsSystem;
     private final UserInterfaceSystem userInterfaceSystem;
 
+    // which placed tile is at each tile coordinate, a held tile isn't in here until it's placed again
+    public final TileIndex tileIndex;
+    private final CourseStreamer courseStreamer;
+
     private CameraController cameraController;
     private final OrthographicCamera orthoCamera;
     private final PerspectiveCamera perspectiveCamera;
@@ -58,6 +68,19 @@ public class EditorScreen extends BaseScreen {
 
     private MinigolfModels activeModel = MinigolfModels.block;
 
+    private final float PICK_DISTANCE = 1000f;
+    private final Vector3 pickFrom = new Vector3();
+    private final Vector3 pickTo = new Vector3();
+    private final PhysicsQueries.Hit pickHit = new PhysicsQueries.Hit();
+    private final PhysicsQueries.Hits pickHits = new PhysicsQueries.Hits(16);
+    // the physics system copies transforms it's given, so one is enough for moving and rotating tiles
+    private final Matrix4 tileTransform = new Matrix4();
+
+    // captured just before each shot in play mode, so that the shot can be retried from the same state
+    private final WorldSnapshot retrySnapshot = new WorldSnapshot();
+    // body handles rather than entities, since the pooled engine reuses the entity of a shot that's been removed
+    private final IntArray shotsSinceSnapshot = new IntArray();
+
     public EditorScreen() {
         var fov = 67f;
         var viewWidth = 1280f;
@@ -80,9 +103,16 @@ public class EditorScreen extends BaseScreen {
         engine.addEntityListener(ComponentFamilies.modelInstances, renderSystem);
         engine.addSystem(renderSystem);
 
+        this.tileIndex = new TileIndex();
+        engine.addEntityListener(ComponentFamilies.tileCoords, tileIndex);
+
         this.physicsSystem = new PhysicsSystem();
         engine.addEntityListener(ComponentFamilies.physics, physicsSystem);
         engine.addSystem(physicsSystem);
+        EntityFactory.warmUpPools(engine, Config.Pools.warmUpCrates, Config.Pools.warmUpShots, Config.Pools.maxFreeBodies);
+
+        this.courseStreamer = new CourseStreamer(assets, tileIndex);
+        engine.addSystem(courseStreamer);
 
         this.userInterfaceSystem = new UserInterfaceSystem(this, assets, engine);
         // TODO - setup ui system as entity listener once there are some ui components
@@ -133,6 +163,25 @@ public class EditorScreen extends BaseScreen {
 
         scene.update(delta);
         cameraController.update(delta);
+
+        updateStreamingFocus();
+    }
+
+    /**
+     * Stream the course in around the camera, and around the last shot while it's still in play
+     */
+    private void updateStreamingFocus() {
+        courseStreamer.cameraFocus.set(worldCamera.position);
+        courseStreamer.hasBall = false;
+        if (shotsSinceSnapshot.notEmpty()) {
+            // a stale handle means the shot has been removed
+            var shot = physicsSystem.getEntity(shotsSinceSnapshot.peek());
+            if (shot != null) {
+                var physics = ComponentMappers.physics.get(shot);
+                physics.renderTransform().getTranslation(courseStreamer.ballFocus);
+                courseStreamer.hasBall = true;
+            }
+        }
     }
 
     @Override
@@ -211,6 +260,22 @@ public class EditorScreen extends BaseScreen {
                 Config.Debug.physics = !Config.Debug.physics;
                 return true;
             }
+            case Keys.NUM_3 -> {
+                Config.Debug.metrics = !Config.Debug.metrics;
+                return true;
+            }
+            case Keys.NUM_4 -> {
+                Config.Debug.hud = !Config.Debug.hud;
+                return true;
+            }
+
+            // retry the last shot
+            case Keys.R -> {
+                if (userInterfaceSystem.mode == UserInterfaceSystem.Mode.play) {
+                    retryShot();
+                }
+                return true;
+            }
 
             // edit ui toggle
             case Keys.TAB -> {
@@ -249,6 +314,22 @@ public class EditorScreen extends BaseScreen {
         return super.keyUp(keycode);
     }
 
+    /**
+     * Put everything back the way it was just before the last shot, removing the shot itself
+     */
+    private void retryShot() {
+        if (retrySnapshot.isEmpty()) return;
+
+        for (int i = 0; i < shotsSinceSnapshot.size; i++) {
+            var shot = physicsSystem.getEntity(shotsSinceSnapshot.get(i));
+            if (shot != null) {
+                engine.removeEntity(shot);
+            }
+        }
+        shotsSinceSnapshot.clear();
+        physicsSystem.restoreSnapshot(retrySnapshot);
+    }
+
     @Override
     public boolean scrolled(float amountX, float amountY) {
 //        var dir = Calc.sign(amountY);
@@ -265,8 +346,14 @@ public class EditorScreen extends BaseScreen {
     @Override
     public boolean mouseMoved(int screenX, int screenY) {
         if (worldCamera instanceof OrthographicCamera && editInfo.isHolding()) {
-            worldCamera.getPickRay(screenX, screenY)
-                       .getEndPoint(pointerPos, worldCamera.position.y);
+            // the held tile isn't in the physics world, so this finds whatever is underneath it
+            setPickRay(screenX, screenY);
+            if (physicsSystem.queries.rayTest(pickFrom, pickTo, CollisionLayers.Layer.course.bit, pickHit)) {
+                pointerPos.set(pickHit.point);
+            } else {
+                worldCamera.getPickRay(screenX, screenY)
+                           .getEndPoint(pointerPos, worldCamera.position.y);
+            }
 
             // keep object positioned within a tile
             var tileSize = 10f;
@@ -283,11 +370,12 @@ public class EditorScreen extends BaseScreen {
                 }
 
                 // update the physics body position
+                // NOTE - through the physics system so the debug renderer and the course shape see the move too
                 var physics = ComponentMappers.physics.get(editInfo.heldEntity);
-                if (physics != null) {
-                    var transform = physics.rigidBody.getWorldTransform();
-                    transform.setTranslation(position);
-                    physics.rigidBody.setWorldTransform(transform);
+                var tile = ComponentMappers.tiles.get(editInfo.heldEntity);
+                if (physics != null && tile != null) {
+                    var transform = EntityFactory.tileBodyTransform(position, tile.yRotation, tileTransform);
+                    physicsSystem.setWorldTransform(physics, transform);
                 }
             }
             vec3Pool.free(position);
@@ -300,7 +388,10 @@ public class EditorScreen extends BaseScreen {
     @Override
     public boolean touchUp(int screenX, int screenY, int pointer, int button) {
         if (worldCamera instanceof PerspectiveCamera) {
-            EntityFactory.createShot(engine, worldCamera);
+            physicsSystem.captureSnapshot(retrySnapshot);
+            shotsSinceSnapshot.clear();
+            var shot = EntityFactory.createShot(engine, worldCamera);
+            shotsSinceSnapshot.add(ComponentMappers.physics.get(shot).handle);
             return super.touchUp(screenX, screenY, pointer, button);
         }
 
@@ -309,7 +400,7 @@ public class EditorScreen extends BaseScreen {
                 if (editInfo.isHolding()) {
                     var entity = editInfo.heldEntity;
 
-                    entity.add(new NameComponent("tile " + componentCount++));
+                    entity.add(engine.createComponent(NameComponent.class).set("tile " + componentCount++));
 
                     // find the tile coord at the current position
                     var modelInstance = ComponentMappers.modelInstance.get(entity);
@@ -318,18 +409,13 @@ public class EditorScreen extends BaseScreen {
                     var tileX = MathUtils.floor(translation.x / EntityFactory.TILE_SIZE);
                     var tileZ = MathUtils.floor(translation.z / EntityFactory.TILE_SIZE);
 
-                    // check whether this tile space is already occupied
-                    var coordEntities = engine.getEntitiesFor(ComponentFamilies.coord2);
-                    for (var coordEntity : coordEntities) {
-                        var coord = ComponentMappers.coord2.get(coordEntity);
-                        if (coord.equals(tileX, tileZ)) {
-                            // this tile is already occupied, don't place it
-                            return false;
-                        }
+                    // check whether this tile space is already occupied, if so don't place it
+                    if (tileIndex.isOccupied(tileX, tileZ)) {
+                        return false;
                     }
 
                     // update the coord component with the new tile position
-                    entity.add(new Coord2Component(tileX, tileZ));
+                    entity.add(engine.createComponent(Coord2Component.class).set(tileX, tileZ));
 
                     var tile = ComponentMappers.tiles.get(entity);
                     tile.xCoord = tileX;
@@ -356,26 +442,30 @@ public class EditorScreen extends BaseScreen {
                     // leave the held entity in the world in its current configuration
                     editInfo.releaseEntity();
                 } else {
-                    // find the tile coords on the ground plane for this pick ray
-                    worldCamera.getPickRay(screenX, screenY).getEndPoint(pointerPos, worldCamera.position.y);
-                    var tileX = MathUtils.floor(pointerPos.x / EntityFactory.TILE_SIZE);
-                    var tileZ = MathUtils.floor(pointerPos.z / EntityFactory.TILE_SIZE);
-
-                    // check whether the pick tile is already occupied
-                    var isTileEmpty = true;
-                    var coordEntities = engine.getEntitiesFor(ComponentFamilies.coord2);
-                    for (var entity : coordEntities) {
-                        var coord = ComponentMappers.coord2.get(entity);
-                        if (coord.equals(tileX, tileZ)) {
-                            // select this tile instead of creating a new one
+                    // select the first tile along the pick ray, only course bodies are tested so props are ignored
+                    // NOTE - this tests against the actual tile geometry, so it works for ramps and hills too
+                    setPickRay(screenX, screenY);
+                    physicsSystem.queries.rayTestAll(pickFrom, pickTo, CollisionLayers.Layer.course.bit, pickHits);
+                    for (int i = 0; i < pickHits.count; i++) {
+                        var entity = pickHits.entities[i];
+                        if (entity != null && ComponentMappers.tiles.has(entity)) {
                             editInfo.heldEntity = entity;
-                            isTileEmpty = false;
                             break;
                         }
                     }
 
-                    if (isTileEmpty) {
-                        editInfo.heldEntity = EntityFactory.createTile(activeModel, engine, assets, tileX, tileZ);
+                    if (!editInfo.isHolding()) {
+                        // find the tile coords on the ground plane for this pick ray
+                        worldCamera.getPickRay(screenX, screenY).getEndPoint(pointerPos, worldCamera.position.y);
+                        var tileX = MathUtils.floor(pointerPos.x / EntityFactory.TILE_SIZE);
+                        var tileZ = MathUtils.floor(pointerPos.z / EntityFactory.TILE_SIZE);
+
+                        // the ray can miss an occupied tile through a hole in its geometry, so check the coord as well
+                        // select the tile there instead of creating a new one if there is one
+                        editInfo.heldEntity = tileIndex.get(tileX, tileZ);
+                        if (editInfo.heldEntity == null) {
+                            editInfo.heldEntity = EntityFactory.createTile(activeModel, engine, assets, tileX, tileZ);
+                        }
                     }
 
                     // set to selection material
@@ -434,10 +524,14 @@ public class EditorScreen extends BaseScreen {
         return super.touchUp(screenX, screenY, pointer, button);
     }
 
-    static class EditInfo {
-        final Vector3 translation = new Vector3();
-        final Quaternion rotation = new Quaternion();
+    private void setPickRay(int screenX, int screenY) {
+        var ray = worldCamera.getPickRay(screenX, screenY);
+        // the ortho camera can sit below the top of the course, so start the ray well behind it rather than at the camera
+        pickFrom.set(ray.direction).scl(-PICK_DISTANCE).add(ray.origin);
+        pickTo.set(ray.direction).scl(PICK_DISTANCE).add(ray.origin);
+    }
 
+    static class EditInfo {
         Entity heldEntity = null;
         Array<Material> originalMaterials = new Array<>();
 
@@ -450,50 +544,29 @@ public class EditorScreen extends BaseScreen {
     }
 
     private void rotateEntityCW(Entity entity) {
-        // update model transform
-        var instance = ComponentMappers.modelInstance.get(entity);
-        instance.transform.rotate(Vector3.Y, -90f);
-
-        // update physics transform
-        var physics = ComponentMappers.physics.get(entity);
-        var transform = physics.rigidBody.getWorldTransform();
-        transform.getTranslation(editInfo.translation);
-        transform.getRotation(editInfo.rotation);
-        var yAngle = editInfo.rotation.getAngleAround(Vector3.Y);
-        var yAngleNew = yAngle - 90f;
-
-        transform.idt()
-                .rotate(Vector3.Y, yAngleNew)
-                .rotate(Vector3.X, -90f)
-                .setTranslation(editInfo.translation)
-        ;
-        physics.rigidBody.setWorldTransform(transform);
-
-        var tile = ComponentMappers.tiles.get(entity);
-        tile.yRotation = yAngleNew;
+        rotateEntity(entity, -90f);
     }
 
     private void rotateEntityCCW(Entity entity) {
+        rotateEntity(entity, 90f);
+    }
+
+    private void rotateEntity(Entity entity, float degrees) {
         // update model transform
         var instance = ComponentMappers.modelInstance.get(entity);
-        instance.transform.rotate(Vector3.Y, 90f);
+        instance.transform.rotate(Vector3.Y, degrees);
+
+        var tile = ComponentMappers.tiles.get(entity);
+        var yAngleNew = (tile.yRotation + degrees + 360f) % 360f;
 
         // update physics transform
+        // NOTE - built from the model instance rather than read back from the body,
+        //  which belongs to the simulation thread if it's stepping on its own
         var physics = ComponentMappers.physics.get(entity);
-        var transform = physics.rigidBody.getWorldTransform();
-        transform.getTranslation(editInfo.translation);
-        transform.getRotation(editInfo.rotation);
-        var yAngle = editInfo.rotation.getAngleAround(Vector3.Y);
-        var yAngleNew = yAngle + 90f;
-
-        transform.idt()
-                .rotate(Vector3.Y, yAngleNew)
-                .rotate(Vector3.X, -90f)
-                .setTranslation(editInfo.translation)
-        ;
-        physics.rigidBody.setWorldTransform(transform);
+        var translation = instance.transform.getTranslation(vec3Pool.obtain());
+        physicsSystem.setWorldTransform(physics, EntityFactory.tileBodyTransform(translation, yAngleNew, tileTransform));
+        vec3Pool.free(translation);
 
-        var tile = ComponentMappers.tiles.get(entity);
         tile.yRotation = yAngleNew;
     }
 
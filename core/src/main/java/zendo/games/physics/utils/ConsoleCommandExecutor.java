@@ -1,11 +1,23 @@
 package zendo.games.physics.utils;
 
+import com.badlogic.ashley.core.Entity;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.strongjoshua.console.CommandExecutor;
 import com.strongjoshua.console.annotation.ConsoleDoc;
+import zendo.games.physics.Config;
 import zendo.games.physics.Game;
+import zendo.games.physics.benchmarks.BroadphaseBenchmark;
+import zendo.games.physics.benchmarks.CourseShapeBenchmark;
+import zendo.games.physics.benchmarks.WorldTypeBenchmark;
+import zendo.games.physics.headless.CcdValidation;
+import zendo.games.physics.headless.ShotSolver;
 import zendo.games.physics.scene.components.utils.ComponentFamilies;
 import zendo.games.physics.scene.components.utils.ComponentMappers;
+import zendo.games.physics.scene.factories.EntityFactory;
+import zendo.games.physics.scene.systems.CourseStreamer;
+import zendo.games.physics.scene.systems.PhysicsSystem;
+import zendo.games.physics.scene.systems.TileIndex;
 import zendo.games.physics.screens.EditorScreen;
 
 public class ConsoleCommandExecutor extends CommandExecutor {
@@ -47,6 +59,356 @@ public class ConsoleCommandExecutor extends CommandExecutor {
         console.log(str.toString());
     }
 
+    @ConsoleDoc(description = "Shows the tile at the specified tile coordinate and which of its neighbours are occupied.")
+    public final void tile(int x, int z) {
+        var index = screen.tileIndex;
+        var entity = index.get(x, z);
+        var name = (entity != null) ? ComponentMappers.name.get(entity) : null;
+
+        var neighbours = new Entity[TileIndex.NUM_NEIGHBOURS];
+        var numNeighbours = index.neighbours(x, z, neighbours);
+        var str = new StringBuilder();
+        str.append("tile ").append(x).append(",").append(z).append(": ")
+           .append((entity == null) ? "empty" : (name != null) ? name.name() : entity.toString())
+           .append(" | ").append(numNeighbours).append(" neighbours (");
+        for (int i = 0; i < neighbours.length; i++) {
+            str.append((neighbours[i] != null) ? '#' : '.');
+        }
+        str.append(") | index: ").append(index);
+        console.log(str.toString());
+    }
+
+    @ConsoleDoc(description = "Sets how many chunks around the camera and ball are streamed in, and how far away they're streamed out.")
+    public final void streaming(int loadRadius, int unloadRadius) {
+        if (loadRadius < 0 || unloadRadius < loadRadius) {
+            console.log("load radius can't be negative, and unload radius can't be less than load radius");
+            return;
+        }
+        Config.Streaming.loadRadius = loadRadius;
+        Config.Streaming.unloadRadius = unloadRadius;
+        console.log("streaming radius: load " + loadRadius + ", unload " + unloadRadius + " chunks");
+    }
+
+    @ConsoleDoc(description = "Shows which course chunks are streamed in and how many tiles have been loaded and released.")
+    public final void chunks() {
+        var streamer = Game.instance.engine.getSystem(CourseStreamer.class);
+        console.log((streamer != null) ? streamer.stats.toString() : "no course streamer");
+    }
+
+    @ConsoleDoc(description = "Shows the entity that owns the specified physics body handle.")
+    public final void body(int handle) {
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        var entity = physics.getEntity(handle);
+        if (entity == null) {
+            console.log("no entity for body handle " + handle + " (" + physics.handles.size() + " live handles)");
+            return;
+        }
+
+        var name = ComponentMappers.name.get(entity);
+        console.log("body " + handle + ": " + ((name != null) ? name.name() : entity.toString()));
+    }
+
+    @ConsoleDoc(description = "Sets the physics tick rate (Hz) and the max number of steps per frame.")
+    public final void tickrate(int hz, int maxSubSteps) {
+        if (hz <= 0 || maxSubSteps <= 0) {
+            console.log("tick rate and max substeps must both be positive");
+            return;
+        }
+
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        physics.stepping.tickRate = hz;
+        physics.stepping.maxSubSteps = maxSubSteps;
+        console.log("physics tick rate: " + hz + " Hz, max substeps: " + maxSubSteps);
+        if (hz < PhysicsSystem.Stepping.MIN_TICK_RATE) {
+            console.log("warning: below " + (int) PhysicsSystem.Stepping.MIN_TICK_RATE + " Hz fast shots may pass through walls, see 'validateccd'");
+        }
+    }
+
+    @ConsoleDoc(description = "Sets the physics step mode: fixed (interpolated), variable, or threaded (separate simulation thread).")
+    public final void stepmode(String mode) {
+        PhysicsSystem.StepMode stepMode;
+        try {
+            stepMode = PhysicsSystem.StepMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            console.log("unknown step mode '" + mode + "', expected one of: fixed, variable, threaded");
+            return;
+        }
+
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        physics.setStepMode(stepMode);
+        console.log("physics step mode: " + physics.stepping.mode());
+    }
+
+    @ConsoleDoc(description = "Shows physics stepping stats, including how often time was dropped to avoid falling behind.")
+    public final void stepping() {
+        var stepping = Game.instance.engine.getSystem(PhysicsSystem.class).stepping;
+        console.log("mode: " + stepping.mode()
+                + ", tick rate: " + stepping.tickRate + " Hz"
+                + ", max substeps: " + stepping.maxSubSteps
+                + ", steps last frame: " + stepping.stepsLastFrame
+                + ", dropped: " + stepping.droppedTimeCount + " times (" + stepping.droppedTime + "s)");
+    }
+
+    @ConsoleDoc(description = "Sets the physics broadphase: dbvt or axisSweep (bounded by the course extents).")
+    public final void broadphase(String type) {
+        PhysicsSystem.BroadphaseType broadphaseType;
+        try {
+            broadphaseType = PhysicsSystem.BroadphaseType.valueOf(type);
+        } catch (IllegalArgumentException e) {
+            console.log("unknown broadphase '" + type + "', expected one of: dbvt, axisSweep");
+            return;
+        }
+
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        physics.setBroadphase(broadphaseType);
+        // NOTE - axis sweep is refused if the world has too many objects for its handles, which is logged
+        console.log("physics broadphase: " + broadphaseType + " (course bounds " + physics.broadphaseInfo.courseBounds
+                + ", axis sweep holds up to " + physics.broadphaseInfo.handleCapacity() + " objects)");
+    }
+
+    @ConsoleDoc(description = "Runs the broadphase stress scenario for each broadphase type on a square course of the specified size.")
+    public final void benchbroadphase(int tilesPerSide, int numBodies) {
+        var numFrames = 300;
+        for (var result : BroadphaseBenchmark.run(tilesPerSide, numBodies, numFrames)) {
+            console.log(result.toString());
+            Gdx.app.log("BroadphaseBenchmark", result.toString());
+        }
+    }
+
+    @ConsoleDoc(description = "Sets how tiles added from now on collide: bodies (one per tile) or compound (merged into one course shape).")
+    public final void coursemode(String mode) {
+        PhysicsSystem.CourseMode courseMode;
+        try {
+            courseMode = PhysicsSystem.CourseMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            console.log("unknown course mode '" + mode + "', expected one of: bodies, compound");
+            return;
+        }
+
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        physics.courseMode = courseMode;
+        console.log("physics course mode: " + courseMode + ", reload the level to apply it to existing tiles");
+    }
+
+    @ConsoleDoc(description = "Compares step and load times for a per-tile course against a merged course shape.")
+    public final void benchcourse(int tilesPerSide, int numBalls) {
+        var numSteps = 300;
+        for (var result : CourseShapeBenchmark.run(tilesPerSide, numBalls, numSteps)) {
+            console.log(result.toString());
+            Gdx.app.log("CourseShapeBenchmark", result.toString());
+        }
+    }
+
+    @ConsoleDoc(description = "Sets the physics world type: rigid, or softRigid (switched to automatically when a soft body is added).")
+    public final void worldtype(String type) {
+        PhysicsSystem.WorldType worldType;
+        try {
+            worldType = PhysicsSystem.WorldType.valueOf(type);
+        } catch (IllegalArgumentException e) {
+            console.log("unknown world type '" + type + "', expected one of: rigid, softRigid");
+            return;
+        }
+
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        physics.setWorldType(worldType);
+        console.log("physics world type: " + worldType);
+    }
+
+    @ConsoleDoc(description = "Toggles part of the physics debug view: static, dynamic, aabbs, contacts, or culling. Shows stats for 'stats'.")
+    public final void physicsdebug(String option) {
+        var debug = Game.instance.engine.getSystem(PhysicsSystem.class).debug;
+        var options = debug.options;
+        switch (option) {
+            case "static"   -> options.staticBodies  = !options.staticBodies;
+            case "dynamic"  -> options.dynamicBodies = !options.dynamicBodies;
+            case "aabbs"    -> options.aabbs         = !options.aabbs;
+            case "contacts" -> options.contacts      = !options.contacts;
+            case "culling"  -> options.culling       = !options.culling;
+            case "stats" -> {
+                console.log(debug.stats.toString());
+                return;
+            }
+            default -> {
+                console.log("unknown physics debug option '" + option + "', expected one of: static, dynamic, aabbs, contacts, culling, stats");
+                return;
+            }
+        }
+        Config.Debug.physics = true;
+        console.log("physics debug: static " + options.staticBodies + ", dynamic " + options.dynamicBodies
+                + ", aabbs " + options.aabbs + ", contacts " + options.contacts + ", culling " + options.culling);
+    }
+
+    @ConsoleDoc(description = "System scheduler: on, off, parallel, serial, graph (last frame's dependencies), trace (last frame's timings), or save (chrome trace json).")
+    public final void scheduler(String action) {
+        var scheduler = Game.instance.engine.scheduler;
+        var str = new StringBuilder();
+        switch (action) {
+            case "on", "off" -> {
+                Config.Scheduler.enabled = action.equals("on");
+                console.log("system scheduler: " + action);
+            }
+            case "parallel", "serial" -> {
+                Config.Scheduler.parallel = action.equals("parallel");
+                console.log("system scheduler runs " + (Config.Scheduler.parallel ? "worker systems on the pool" : "everything on the render thread"));
+            }
+            case "graph" -> {
+                scheduler.describeGraph(str);
+                console.log(str.toString());
+            }
+            case "trace" -> {
+                scheduler.describeTrace(str);
+                console.log(str.toString());
+            }
+            case "save" -> {
+                var file = Gdx.files.local("scheduler-trace.json");
+                scheduler.writeTrace(file);
+                console.log("scheduler trace written to " + file.path());
+            }
+            default -> console.log("unknown scheduler action '" + action + "', expected one of: on, off, parallel, serial, graph, trace, save");
+        }
+    }
+
+    @ConsoleDoc(description = "Toggles the stats overlay: frame times, entity counts, physics step time, draw calls and allocations per frame.")
+    public final void hud() {
+        Config.Debug.hud = !Config.Debug.hud;
+        console.log("stats overlay: " + (Config.Debug.hud ? "on" : "off"));
+    }
+
+    @ConsoleDoc(description = "Per-step physics metrics: show (summary), graph (toggle hud graph), csv (export), clear, or toggle (recording on/off).")
+    public final void metrics(String action) {
+        var metrics = Game.instance.engine.getSystem(PhysicsSystem.class).metrics;
+        switch (action) {
+            case "show" -> console.log(metrics.toString());
+            case "graph" -> {
+                Config.Debug.metrics = !Config.Debug.metrics;
+                console.log("physics metrics graph: " + (Config.Debug.metrics ? "on" : "off"));
+            }
+            case "csv" -> {
+                var file = Gdx.files.local("physics-metrics.csv");
+                metrics.writeCsv(file);
+                console.log(metrics.size() + " samples written to " + file.path());
+            }
+            case "clear" -> {
+                metrics.clear();
+                console.log("physics metrics cleared");
+            }
+            case "toggle" -> {
+                metrics.enabled = !metrics.enabled;
+                console.log("physics metrics recording: " + (metrics.enabled ? "on" : "off"));
+            }
+            default -> console.log("unknown metrics action '" + action + "', expected one of: show, graph, csv, clear, toggle");
+        }
+    }
+
+    @ConsoleDoc(description = "Lists the regularly captured world snapshots, newest first, with their sizes and capture times.")
+    public final void snapshots() {
+        var snapshots = Game.instance.engine.getSystem(PhysicsSystem.class).snapshots;
+        var str = new StringBuilder();
+        str.append(snapshots.size()).append(" snapshots, every ").append(snapshots.interval).append(" steps");
+        for (int age = 0; age < snapshots.size(); age++) {
+            str.append("\n  ").append(age).append(": ").append(snapshots.get(age));
+        }
+        console.log(str.toString());
+    }
+
+    @ConsoleDoc(description = "Sets how many steps apart world snapshots are captured for rewinding, 0 to stop capturing.")
+    public final void snapshotinterval(int steps) {
+        if (steps < 0) {
+            console.log("snapshot interval can't be negative");
+            return;
+        }
+        Game.instance.engine.getSystem(PhysicsSystem.class).snapshots.interval = steps;
+        console.log("world snapshot interval: " + steps + " steps");
+    }
+
+    @ConsoleDoc(description = "Rewinds every dynamic body to a world snapshot, 0 being the most recent. See 'snapshots'.")
+    public final void rewind(int age) {
+        var physics = Game.instance.engine.getSystem(PhysicsSystem.class);
+        if (age < 0 || age >= physics.snapshots.size()) {
+            console.log("no snapshot " + age + ", there are " + physics.snapshots.size());
+            return;
+        }
+        physics.rewind(age);
+        console.log("rewound to snapshot " + age);
+    }
+
+    @ConsoleDoc(description = "Replaces the terrain under the course with a flat one of samples x samples heights, cellSize apart.")
+    public final void terrain(int samples, float cellSize) {
+        if (samples < 2 || cellSize <= 0) {
+            console.log("terrain needs at least 2 samples and a positive cell size");
+            return;
+        }
+
+        var engine = Game.instance.engine;
+        engine.removeAllEntities(ComponentFamilies.terrain);
+
+        // centered under the course, just below the tiles
+        var bounds = engine.getSystem(PhysicsSystem.class).broadphaseInfo.courseBounds;
+        var size = (samples - 1) * cellSize;
+        var centerX = bounds.isValid() ? bounds.getCenterX() : 0f;
+        var centerZ = bounds.isValid() ? bounds.getCenterZ() : 0f;
+        EntityFactory.createTerrain(engine, centerX - size / 2f, centerZ - size / 2f, samples, samples, cellSize, -20f, 20f, -1f);
+        console.log("terrain: " + samples + "x" + samples + " samples, " + size + " units across");
+    }
+
+    @ConsoleDoc(description = "Raises (or lowers, with a negative amount) the terrain around a world x,z position.")
+    public final void sculpt(float x, float z, float radius, float amount) {
+        var engine = Game.instance.engine;
+        var terrains = engine.getEntitiesFor(ComponentFamilies.terrain);
+        if (terrains.size() == 0) {
+            console.log("no terrain, create one with 'terrain'");
+            return;
+        }
+        engine.getSystem(PhysicsSystem.class).sculptTerrain(terrains.first(), x, z, radius, amount);
+    }
+
+    @ConsoleDoc(description = "Compares step times for a plain rigid body world against a soft-rigid world with the same bodies.")
+    public final void benchworld(int tilesPerSide, int numBodies) {
+        var numSteps = 300;
+        for (var result : WorldTypeBenchmark.run(tilesPerSide, numBodies, numSteps)) {
+            console.log(result.toString());
+            Gdx.app.log("WorldTypeBenchmark", result.toString());
+        }
+    }
+
+    @ConsoleDoc(description = "Simulates random shots from the start tile across all cores, listing the best and writing a heatmap csv.")
+    public final void solveshots(int numSamples) {
+        var config = new ShotSolver.Config();
+        config.numSamples = numSamples;
+
+        // NOTE - runs to completion before the next frame, the solver shares the tiles' collision shapes
+        //  so they can't be changed while it's running
+        ShotSolver.Result result;
+        try {
+            result = ShotSolver.solve(ShotSolver.Course.fromEngine(Game.instance.engine), config);
+        } catch (GdxRuntimeException e) {
+            console.log(e.getMessage());
+            return;
+        }
+
+        var file = Gdx.files.local("shot-heatmap.csv");
+        result.writeHeatmap(file);
+        console.log(result.toString());
+        console.log("heatmap written to " + file.path());
+    }
+
+    @ConsoleDoc(description = "Fires shots at the walls of every tile type at and above the max shot speed, checking that none pass through.")
+    public final void validateccd() {
+        var result = CcdValidation.run(new CcdValidation.Config());
+        console.log(result.toString());
+    }
+
+    @ConsoleDoc(description = "Shows physics body pool usage, including peak usage and hit rates, and entity and component pool hit rates.")
+    public final void pools() {
+        var str = new StringBuilder();
+        Game.instance.engine.getSystem(PhysicsSystem.class).pools.describe(str);
+        console.log(str.length() > 0 ? str.toString() : "no body pools");
+
+        str.setLength(0);
+        Game.instance.engine.describePools(str);
+        console.log(str.toString());
+    }
+
     @ConsoleDoc(description = "Quits the application")
     public final void quit() {
         Gdx.app.exit();
@@ -0,0 +1,107 @@
+package zendo.games.physics.utils;
+
+/**
+ * A fixed capacity char buffer for building text that changes every frame, ie. numeric stats, without allocating.
+ * It's a CharSequence so it can be laid out and drawn directly by a BitmapFont / GlyphLayout,
+ * anything appended past the capacity is dropped rather than growing the buffer.
+ */
+public class TextBuffer implements CharSequence {
+
+    private static final int[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000 };
+
+    private final char[] chars;
+    private int length;
+
+    public TextBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    public TextBuffer append(char c) {
+        if (length < chars.length) {
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    public TextBuffer append(CharSequence str) {
+        for (int i = 0; i < str.length(); i++) {
+            append(str.charAt(i));
+        }
+        return this;
+    }
+
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            append('-');
+            // NOTE - Long.MIN_VALUE stays negative, but that's not a stat anyone is going to show
+            value = -value;
+        }
+
+        // write the digits backwards after the current end, then reverse them in place
+        var start = length;
+        do {
+            append((char) ('0' + (value % 10)));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            var c = chars[i];
+            chars[i] = chars[j];
+            chars[j] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Append a float rounded to the specified number of decimal places (up to 4)
+     */
+    public TextBuffer append(float value, int decimals) {
+        if (Float.isNaN(value)) return append("NaN");
+        if (Float.isInfinite(value)) return append((value > 0) ? "inf" : "-inf");
+
+        decimals = Math.max(0, Math.min(decimals, POWERS_OF_TEN.length - 1));
+        var scale = POWERS_OF_TEN[decimals];
+        var scaled = Math.round((double) Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+
+        append(scaled / scale);
+        if (decimals > 0) {
+            append('.');
+            var fraction = scaled % scale;
+            for (int power = scale / 10; power > 0; power /= 10) {
+                append((char) ('0' + (fraction / power) % 10));
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+}
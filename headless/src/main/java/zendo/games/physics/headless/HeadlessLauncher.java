@@ -0,0 +1,71 @@
+package zendo.games.physics.headless;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.physics.bullet.Bullet;
+
+/**
+ * Runs a level through the physics simulation without a window or graphics context.
+ * Usage, with paths relative to the assets folder:
+ *   HeadlessLauncher [level json] [optional shot script json]   - see HeadlessRunner
+ *   HeadlessLauncher solve [level json] [optional sample count]  - see ShotSolver
+ *   HeadlessLauncher validateccd                                 - see CcdValidation, exits with 1 on failure
+ * ie. 'gradlew headless:run --args="levels/test.json"'
+ */
+public class HeadlessLauncher {
+	public static void main(String[] args) {
+		var solve = (args.length > 0 && args[0].equals("solve"));
+		var validateCcd = (args.length > 0 && args[0].equals("validateccd"));
+		if (args.length < (solve ? 2 : 1)) {
+			System.err.println("usage: HeadlessLauncher <level.json> [script.json]");
+			System.err.println("       HeadlessLauncher solve <level.json> [samples]");
+			System.err.println("       HeadlessLauncher validateccd");
+			System.exit(1);
+		}
+
+		var configuration = new HeadlessApplicationConfiguration();
+		// everything happens in create(), there's nothing to update afterwards
+		configuration.updatesPerSecond = -1;
+		new HeadlessApplication(new ApplicationAdapter() {
+			@Override
+			public void create() {
+				Bullet.init();
+				try {
+					if (validateCcd) {
+						var result = CcdValidation.run(new CcdValidation.Config());
+						if (!result.passed()) {
+							// NOTE - exit straight away so that a build step running this fails
+							System.exit(1);
+						}
+					} else if (solve) {
+						solve(Gdx.files.internal(args[1]), (args.length > 2) ? Integer.parseInt(args[2]) : -1);
+					} else {
+						var levelFile = Gdx.files.internal(args[0]);
+						var script = (args.length > 1) ? HeadlessRunner.Script.load(Gdx.files.internal(args[1])) : null;
+						HeadlessRunner.run(levelFile, script);
+					}
+				} finally {
+					Gdx.app.exit();
+				}
+			}
+		}, configuration);
+	}
+
+	private static void solve(FileHandle levelFile, int numSamples) {
+		var level = HeadlessRunner.loadLevel(levelFile);
+		var shapes = new TileShapes();
+		try {
+			var config = new ShotSolver.Config();
+			if (numSamples > 0) {
+				config.numSamples = numSamples;
+			}
+			var result = ShotSolver.solve(ShotSolver.Course.fromLevel(level, shapes), config);
+			result.writeHeatmap(Gdx.files.local(levelFile.nameWithoutExtension() + "-heatmap.csv"));
+		} finally {
+			shapes.dispose();
+		}
+	}
+}